@@ -1,5 +1,6 @@
 plugins {
     id("java")
+    id("me.champeau.jmh") version "0.7.2"
 }
 
 group = "mc.toriset"
@@ -14,6 +15,43 @@ dependencies {
     testImplementation("org.junit.jupiter:junit-jupiter")
 }
 
+// Benchmarks live in src/jmh/java. "./gradlew jmh" runs them all with the allocation profiler;
+// "-PjmhInclude=TraceBenchmark" narrows the run to benchmarks matching the regex.
+jmh {
+    jmhVersion.set("1.37")
+    profilers.add("gc")
+    jvmArgs.addAll(listOf("--add-modules", "jdk.incubator.vector"))
+    fork.set(1)
+    warmupIterations.set(3)
+    iterations.set(5)
+    resultFormat.set("JSON")
+    (findProperty("jmhInclude") as String?)?.let { includes.add(it) }
+}
+
 tasks.test {
     useJUnitPlatform()
-}
\ No newline at end of file
+    jvmArgs("--add-modules", "jdk.incubator.vector")
+}
+
+// The SoA box kernel uses the incubating Vector API; without the module at runtime it falls back to scalar code.
+tasks.withType<JavaCompile> {
+    options.compilerArgs.addAll(listOf("--add-modules", "jdk.incubator.vector"))
+}
+
+tasks.withType<JavaExec> {
+    jvmArgs("--add-modules", "jdk.incubator.vector")
+}
+
+// Offline render without a window: ./gradlew render --args="--scene glass --spp 128 --out glass.png"
+tasks.register<JavaExec>("render") {
+    group = "application"
+    mainClass.set("mc.toriset.raytracing.HeadlessMain")
+    classpath = sourceSets["main"].runtimeClasspath
+}
+
+// Worker for distributed renders: ./gradlew renderWorker --args="coordinator-host:port"
+tasks.register<JavaExec>("renderWorker") {
+    group = "application"
+    mainClass.set("mc.toriset.raytracing.net.RenderWorker")
+    classpath = sourceSets["main"].runtimeClasspath
+}
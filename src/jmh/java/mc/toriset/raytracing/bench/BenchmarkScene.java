@@ -0,0 +1,41 @@
+package mc.toriset.raytracing.bench;
+
+import mc.toriset.raytracing.world.Scenes;
+import mc.toriset.raytracing.world.World;
+
+import java.util.Random;
+
+/**
+ * Fixed scene, camera and rays shared by the benchmarks, so runs differ only in the code under
+ * test. Every random number comes from a fixed seed.
+ */
+public final class BenchmarkScene {
+    public static final long SEED = 42;
+    public static final int WIDTH = 320;
+    public static final int HEIGHT = 180;
+
+    private BenchmarkScene() {
+    }
+
+    /** Loads the "grid" scene with {@code objectCount} boxes and aims the camera at it from above. */
+    public static void load(int objectCount) {
+        Scenes.grid(objectCount);
+        World.camera.setPose(7, 4, 7, 135, -25, 90);
+    }
+
+    /**
+     * {@code count} primary ray directions through random points of the WIDTH x HEIGHT screen,
+     * three doubles per ray.
+     */
+    public static double[] primaryRays(int count) {
+        Random random = new Random(SEED);
+        double[] rays = new double[count * 3];
+        double[] direction = new double[3];
+        for (int i = 0; i < count; i++) {
+            World.camera.snapshot().rayDirection(random.nextDouble() * WIDTH, random.nextDouble() * HEIGHT,
+                    WIDTH, HEIGHT, direction);
+            System.arraycopy(direction, 0, rays, i * 3, 3);
+        }
+        return rays;
+    }
+}
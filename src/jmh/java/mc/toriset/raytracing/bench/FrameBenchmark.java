@@ -0,0 +1,42 @@
+package mc.toriset.raytracing.bench;
+
+import mc.toriset.raytracing.render.ProgressiveRenderer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One sample per pixel of a whole headless frame, as {@code HeadlessMain} renders it: every tile
+ * on the worker pool, over scenes of increasing object count.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FrameBenchmark {
+    @Param({"16", "64", "256", "1024"})
+    public int objectCount;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchmarkScene.load(objectCount);
+        ProgressiveRenderer.setFrameSeed(0);
+    }
+
+    @Setup(Level.Iteration)
+    public void clear() {
+        ProgressiveRenderer.init(BenchmarkScene.WIDTH, BenchmarkScene.HEIGHT);
+    }
+
+    @Benchmark
+    public long frame() {
+        return ProgressiveRenderer.accumulate(BenchmarkScene.WIDTH, BenchmarkScene.HEIGHT, 1);
+    }
+}
@@ -0,0 +1,59 @@
+package mc.toriset.raytracing.bench;
+
+import mc.toriset.raytracing.math.AABB;
+import mc.toriset.raytracing.math.Vector3D;
+import mc.toriset.raytracing.raycast.HitRecord;
+import mc.toriset.raytracing.util.RaycastUtil;
+import mc.toriset.raytracing.world.WorldObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.awt.Color;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One ray against one box, through the allocating {@link RaycastUtil#rayIntersectsAABBWithDistance}
+ * and the allocation-free {@link RaycastUtil#rayIntersectsAABB}. About half of the rays hit.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class IntersectionBenchmark {
+    private static final int RAYS = 1024;
+
+    private final WorldObject box = new WorldObject(0.1f, 0, 0.3f, 1, Color.GRAY, new AABB(-1, -1, -1, 1, 1, 1));
+    private final HitRecord hit = new HitRecord();
+    private Vector3D[] origins;
+    private Vector3D[] directions;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(BenchmarkScene.SEED);
+        origins = new Vector3D[RAYS];
+        directions = new Vector3D[RAYS];
+        for (int i = 0; i < RAYS; i++) {
+            origins[i] = new Vector3D(random.nextDouble() * 8 - 4, random.nextDouble() * 8 - 4, -10);
+            directions[i] = new Vector3D(random.nextDouble() * 0.2 - 0.1, random.nextDouble() * 0.2 - 0.1, 1).normalize();
+        }
+    }
+
+    @Benchmark
+    public Object withDistance() {
+        int i = next++ & (RAYS - 1);
+        return RaycastUtil.rayIntersectsAABBWithDistance(origins[i], directions[i], box);
+    }
+
+    @Benchmark
+    public boolean allocationFree() {
+        int i = next++ & (RAYS - 1);
+        Vector3D o = origins[i], d = directions[i];
+        return RaycastUtil.rayIntersectsAABB(o.x, o.y, o.z, d.x, d.y, d.z, box, hit);
+    }
+}
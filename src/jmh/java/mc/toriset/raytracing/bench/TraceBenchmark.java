@@ -0,0 +1,65 @@
+package mc.toriset.raytracing.bench;
+
+import mc.toriset.raytracing.math.Vector3D;
+import mc.toriset.raytracing.raycast.RaycastPath;
+import mc.toriset.raytracing.raycast.TraceScratch;
+import mc.toriset.raytracing.world.World;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One full sample (primary ray and every bounce) through the inspection path
+ * {@link RaycastPath#start} + {@code calculateColor()} and through the render loop's
+ * {@link RaycastPath#traceSample}, over scenes of increasing object count.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TraceBenchmark {
+    private static final int RAYS = 1024;
+
+    @Param({"16", "64", "256", "1024"})
+    public int objectCount;
+
+    @Param({"BVH", "PACKED"})
+    public RaycastPath.Traversal traversal;
+
+    private double[] rays;
+    private Vector3D[] directions;
+    private Vector3D origin;
+    private int next;
+
+    @Setup
+    public void setUp() {
+        BenchmarkScene.load(objectCount);
+        RaycastPath.traversal = traversal;
+        rays = BenchmarkScene.primaryRays(RAYS);
+        directions = new Vector3D[RAYS];
+        for (int i = 0; i < RAYS; i++) {
+            directions[i] = new Vector3D(rays[i * 3], rays[i * 3 + 1], rays[i * 3 + 2]);
+        }
+        origin = new Vector3D(World.camera.location);
+    }
+
+    @Benchmark
+    public Object startAndCalculateColor() {
+        int i = next++ & (RAYS - 1);
+        TraceScratch.get().beginSample(0, i, 0, 0);
+        return RaycastPath.start(origin, directions[i]).calculateColor();
+    }
+
+    @Benchmark
+    public int traceSample() {
+        int i = next++ & (RAYS - 1);
+        TraceScratch.get().beginSample(0, i, 0, 0);
+        return RaycastPath.traceSample(origin.x, origin.y, origin.z, rays[i * 3], rays[i * 3 + 1], rays[i * 3 + 2]);
+    }
+}
@@ -0,0 +1,49 @@
+package mc.toriset.raytracing.render;
+
+import mc.toriset.raytracing.bench.BenchmarkScene;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One sample per pixel of the centre tile through {@link ProgressiveRenderer}'s tile loop, on the
+ * benchmark thread: tracing plus accumulation, surface recording and resolving. Lives in this
+ * package because the single-tile entry point is package-private.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TileBenchmark {
+    @Param({"16", "64", "256", "1024"})
+    public int objectCount;
+
+    private int startX, startY;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        BenchmarkScene.load(objectCount);
+        ProgressiveRenderer.setFrameSeed(0);
+        startX = (BenchmarkScene.WIDTH / 2 / TileScheduler.TILE_SIZE) * TileScheduler.TILE_SIZE;
+        startY = (BenchmarkScene.HEIGHT / 2 / TileScheduler.TILE_SIZE) * TileScheduler.TILE_SIZE;
+    }
+
+    // Starts every iteration from an empty image so the sample indices, and so the work, repeat.
+    @Setup(Level.Iteration)
+    public void clear() {
+        ProgressiveRenderer.init(BenchmarkScene.WIDTH, BenchmarkScene.HEIGHT);
+    }
+
+    @Benchmark
+    public int renderTile() {
+        return ProgressiveRenderer.renderTile(startX, startY, startX + TileScheduler.TILE_SIZE,
+                startY + TileScheduler.TILE_SIZE, 1);
+    }
+}
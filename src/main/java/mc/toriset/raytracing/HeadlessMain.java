@@ -0,0 +1,324 @@
+package mc.toriset.raytracing;
+
+import mc.toriset.raytracing.net.RenderCoordinator;
+import mc.toriset.raytracing.raycast.TraceScratch;
+import mc.toriset.raytracing.render.AccumulationBuffer;
+import mc.toriset.raytracing.render.AnimationRenderer;
+import mc.toriset.raytracing.render.CameraPath;
+import mc.toriset.raytracing.render.Checkpoint;
+import mc.toriset.raytracing.render.ProgressiveRenderer;
+import mc.toriset.raytracing.render.RenderMetrics;
+import mc.toriset.raytracing.util.ImageFiles;
+import mc.toriset.raytracing.world.Scenes;
+import mc.toriset.raytracing.world.World;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Renders a scene to an image file without opening a window, e.g.
+ * {@code --scene glass --size 1280x720 --spp 256 --out glass.png --hdr glass.pfm}.
+ * Prints the time of every pass and the overall sample and ray throughput. With
+ * {@code --keyframes} it renders an animation instead, one file per frame. With {@code --workers}
+ * or {@code --listen} the samples are traced by {@link mc.toriset.raytracing.net.RenderWorker}
+ * processes instead of in this one.
+ */
+public class HeadlessMain {
+    // Samples per pass; smaller passes only add progress output, not work.
+    private static final int MAX_PASS_SAMPLES = 16;
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+
+        String scene = Scenes.DEFAULT;
+        double[] pose = null;
+        float fov = World.camera.fov;
+        int width = 640, height = 360;
+        int samples = 64;
+        int threads = Runtime.getRuntime().availableProcessors();
+        int seed = 0;
+        String out = "render.png";
+        String hdr = null;
+        String cost = null;
+        String keyframes = null;
+        int frames = 0;
+        AnimationRenderer.Parallelism parallelism = AnimationRenderer.Parallelism.AUTO;
+        int workers = 0;
+        int listenPort = -1;
+        String checkpoint = null;
+        double checkpointSeconds = 5;
+
+        try {
+            for (int i = 0; i < args.length; i++) {
+                String option = args[i];
+                if (option.equals("--help") || option.equals("-h")) {
+                    printUsage();
+                    return;
+                }
+                if (i + 1 >= args.length) {
+                    throw new IllegalArgumentException("Missing value for " + option);
+                }
+                String value = args[++i];
+                switch (option) {
+                    case "--scene": scene = value; break;
+                    case "--camera": pose = parseNumbers(value, 5, option); break;
+                    case "--fov": fov = Float.parseFloat(value); break;
+                    case "--size": {
+                        double[] size = parseNumbers(value.replace('x', ','), 2, option);
+                        width = (int) size[0];
+                        height = (int) size[1];
+                        break;
+                    }
+                    case "--spp": samples = Integer.parseInt(value); break;
+                    case "--threads": threads = Integer.parseInt(value); break;
+                    case "--seed": seed = Integer.parseInt(value); break;
+                    case "--out": out = value; break;
+                    case "--hdr": hdr = value; break;
+                    case "--cost": cost = value; break;
+                    case "--keyframes": keyframes = value; break;
+                    case "--frames": frames = Integer.parseInt(value); break;
+                    case "--parallel": parallelism = AnimationRenderer.Parallelism.valueOf(value.toUpperCase(Locale.ROOT)); break;
+                    case "--workers": workers = Integer.parseInt(value); break;
+                    case "--listen": listenPort = Integer.parseInt(value); break;
+                    case "--checkpoint": checkpoint = value; break;
+                    case "--checkpoint-interval": checkpointSeconds = Double.parseDouble(value); break;
+                    default: throw new IllegalArgumentException("Unknown option " + option);
+                }
+            }
+            if (width <= 0 || height <= 0 || samples <= 0 || threads <= 0) {
+                throw new IllegalArgumentException("Size, samples and threads must be positive");
+            }
+            Scenes.load(scene);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            printUsage();
+            System.exit(2);
+            return;
+        }
+
+        if (pose != null) {
+            World.camera.setPose(pose[0], pose[1], pose[2], pose[3], pose[4], fov);
+        } else {
+            World.camera.fov = fov;
+        }
+
+        ProgressiveRenderer.setThreads(threads);
+        RenderMetrics.register();
+        if (keyframes != null) {
+            try {
+                renderAnimation(keyframes, frames, parallelism, out, width, height, samples, seed, fov);
+            } catch (IOException | IllegalArgumentException e) {
+                System.err.println(e.getMessage());
+                System.exit(1);
+            } finally {
+                ProgressiveRenderer.shutdown();
+            }
+            return;
+        }
+
+        int[] pixels = new int[width * height];
+        float[] radiance = new float[width * height * 3];
+        if (workers > 0 || listenPort >= 0) {
+            try {
+                renderDistributed(scene, width, height, samples, seed, workers, threads, Math.max(0, listenPort),
+                        pixels, radiance);
+            } catch (IOException | IllegalStateException e) {
+                System.err.println("Distributed render failed: " + e.getMessage());
+                System.exit(1);
+            }
+        } else {
+            ProgressiveRenderer.setCostRecording(cost != null);
+            try {
+                renderLocal(scene, width, height, samples, seed, threads, checkpoint, checkpointSeconds,
+                        pixels, radiance);
+            } catch (IOException e) {
+                System.err.println("Could not open checkpoint: " + e.getMessage());
+                System.exit(1);
+            }
+        }
+
+        try {
+            ImageFiles.writePng(pixels, width, height, new File(out));
+            System.out.println("Wrote " + out);
+
+            if (hdr != null) {
+                ImageFiles.writePfm(radiance, width, height, new File(hdr));
+                System.out.println("Wrote " + hdr);
+            }
+            if (cost != null && workers == 0 && listenPort < 0) {
+                int[] heatmap = new int[width * height];
+                ProgressiveRenderer.copyCostMap(heatmap);
+                ImageFiles.writePng(heatmap, width, height, new File(cost));
+                System.out.println("Wrote " + cost);
+            } else if (cost != null) {
+                System.out.println("Skipped " + cost + ": costs are only recorded in local renders");
+            }
+        } catch (IOException e) {
+            System.err.println("Could not write image: " + e.getMessage());
+            System.exit(1);
+        } finally {
+            ProgressiveRenderer.shutdown();
+        }
+    }
+
+    private static void renderLocal(String scene, int width, int height, int samples, int seed, int threads,
+                                    String checkpoint, double checkpointSeconds,
+                                    int[] pixels, float[] radiance) throws IOException {
+        ProgressiveRenderer.init(width, height);
+        ProgressiveRenderer.setFrameSeed(seed);
+        System.out.printf(Locale.ROOT, "Rendering '%s' at %dx%d, %d spp, %d threads%n",
+                scene, width, height, samples, threads);
+
+        int resumed = 0;
+        if (checkpoint != null) {
+            resumed = Math.max(0, ProgressiveRenderer.enableCheckpoints(Paths.get(checkpoint),
+                    Math.round(checkpointSeconds * 1000)));
+            Checkpoint file = ProgressiveRenderer.getCheckpoint();
+            if (resumed > 0 || file.getDroppedTiles() > 0) {
+                System.out.printf(Locale.ROOT, "Resumed %d spp from %s (%d damaged tiles dropped)%n",
+                        resumed, checkpoint, file.getDroppedTiles());
+            }
+        }
+
+        // Pixels of dropped tiles start again from 0 while the restored ones stop at samples.
+        long raysBefore = TraceScratch.getTotalRays();
+        long samplesBefore = RenderMetrics.snapshot().samples;
+        long start = System.nanoTime();
+        int done = resumed;
+        while (done < samples) {
+            int pass = Math.min(MAX_PASS_SAMPLES, samples - done);
+            long passNanos = ProgressiveRenderer.accumulate(width, height, pass, samples);
+            done += pass;
+            Checkpoint file = ProgressiveRenderer.getCheckpoint();
+            if (file == null) {
+                System.out.printf(Locale.ROOT, "  %4d/%d spp  %8.1f ms%n", done, samples, passNanos / 1e6);
+            } else {
+                System.out.printf(Locale.ROOT, "  %4d/%d spp  %8.1f ms  checkpoint: %d tiles copied in %.1f ms, last flush %.1f ms%n",
+                        done, samples, passNanos / 1e6, file.getLastTilesWritten(),
+                        file.getLastCopyNanos() / 1e6, file.getLastFlushNanos() / 1e6);
+            }
+        }
+        ProgressiveRenderer.disableCheckpoints();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long rays = TraceScratch.getTotalRays() - raysBefore;
+        long pixelSamples = RenderMetrics.snapshot().samples - samplesBefore;
+        System.out.printf(Locale.ROOT, "Done in %.2f s: %.2f M samples/s, %.2f M rays/s%n",
+                seconds, pixelSamples / seconds / 1e6, rays / seconds / 1e6);
+        printMetrics(RenderMetrics.snapshot());
+
+        ProgressiveRenderer.copyRaster(pixels);
+        ProgressiveRenderer.copyRadiance(radiance);
+    }
+
+    private static void printMetrics(RenderMetrics.Snapshot metrics) {
+        System.out.printf(Locale.ROOT, "  %d primary + %d secondary rays, %.1f%% missed, %.1f box tests/ray, %.2f bounces/sample%n",
+                metrics.primaryRays, metrics.secondaryRays, metrics.getRays() > 0 ? 100.0 * metrics.misses / metrics.getRays() : 0,
+                metrics.getBoxTestsPerRay(), metrics.getAverageBounces());
+        System.out.printf(Locale.ROOT, "  %d tiles, mean %.2f ms, p50 <= %.2f ms, p99 <= %.2f ms%n",
+                metrics.tiles, metrics.getMeanTileMs(), metrics.getTileLatencyMs(0.5), metrics.getTileLatencyMs(0.99));
+    }
+
+    // Starts localWorkers worker JVMs and also accepts workers from elsewhere on listenPort.
+    private static void renderDistributed(String scene, int width, int height, int samples, int seed,
+                                          int localWorkers, int threads, int listenPort,
+                                          int[] pixels, float[] radiance) throws IOException {
+        List<Process> processes = new ArrayList<>();
+        try (RenderCoordinator coordinator = new RenderCoordinator(listenPort)) {
+            for (int i = 0; i < localWorkers; i++) {
+                processes.add(coordinator.startLocalWorker(threads));
+            }
+            System.out.printf(Locale.ROOT, "Rendering '%s' at %dx%d, %d spp on workers (port %d, %d local)%n",
+                    scene, width, height, samples, coordinator.getPort(), localWorkers);
+
+            long start = System.nanoTime();
+            RenderCoordinator.Result result = coordinator.render(scene, World.camera.snapshot(), width, height,
+                    samples, seed);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            long pixelSamples = (long) width * height * samples;
+            System.out.printf(Locale.ROOT, "Done in %.2f s: %.2f M samples/s, %.2f M rays/s, %d workers, %d units reissued%n",
+                    seconds, pixelSamples / seconds / 1e6, result.rays / seconds / 1e6,
+                    coordinator.getWorkerCount(), coordinator.getReissuedUnits());
+
+            AccumulationBuffer accumulation = result.accumulation;
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    int pixel = y * width + x;
+                    pixels[pixel] = accumulation.resolve(x, y);
+                    radiance[pixel * 3] = accumulation.getMean(x, y, 0);
+                    radiance[pixel * 3 + 1] = accumulation.getMean(x, y, 1);
+                    radiance[pixel * 3 + 2] = accumulation.getMean(x, y, 2);
+                }
+            }
+        } finally {
+            for (Process process : processes) {
+                process.destroy();
+            }
+        }
+    }
+
+    private static void renderAnimation(String keyframes, int frames, AnimationRenderer.Parallelism parallelism,
+                                        String out, int width, int height, int samples, int seed, float fov)
+            throws IOException {
+        CameraPath path = CameraPath.load(Paths.get(keyframes), fov);
+        if (frames <= 0) {
+            throw new IllegalArgumentException("--frames must be given and positive with --keyframes");
+        }
+        String pattern = out.contains("%") ? out : "frame_%04d.png";
+        System.out.printf(Locale.ROOT, "Rendering %d frames at %dx%d, %d spp%n", frames, width, height, samples);
+
+        AnimationRenderer.parallelism = parallelism;
+        long raysBefore = TraceScratch.getTotalRays();
+        AnimationRenderer.Stats stats = AnimationRenderer.render(path, frames, width, height, samples, seed,
+                (frame, pixels, w, h) -> {
+                    String file = String.format(Locale.ROOT, pattern, frame);
+                    ImageFiles.writePng(pixels, w, h, new File(file));
+                    System.out.println("Wrote " + file);
+                });
+        long rays = TraceScratch.getTotalRays() - raysBefore;
+
+        double seconds = stats.totalNanos / 1e9;
+        System.out.printf(Locale.ROOT, "Done in %.2f s (%s parallel): %.2f frames/s, %.2f M rays/s, writer stalls %.1f ms%n",
+                seconds, stats.parallelism.name().toLowerCase(Locale.ROOT), frames / seconds,
+                rays / seconds / 1e6, stats.writerStallNanos / 1e6);
+        printMetrics(RenderMetrics.snapshot());
+    }
+
+    private static double[] parseNumbers(String value, int count, String option) {
+        String[] parts = value.split(",");
+        if (parts.length != count) {
+            throw new IllegalArgumentException(option + " expects " + count + " comma-separated numbers");
+        }
+        double[] numbers = new double[count];
+        for (int i = 0; i < count; i++) {
+            numbers[i] = Double.parseDouble(parts[i].trim());
+        }
+        return numbers;
+    }
+
+    private static void printUsage() {
+        System.out.println("Usage: HeadlessMain [options]");
+        System.out.println("  --scene NAME          one of " + Scenes.getNames() + " (default " + Scenes.DEFAULT + ")");
+        System.out.println("  --camera X,Y,Z,YAW,PITCH");
+        System.out.println("  --fov DEGREES");
+        System.out.println("  --size WxH            default 640x360");
+        System.out.println("  --spp N               samples per pixel, default 64");
+        System.out.println("  --threads N           default: available processors");
+        System.out.println("  --seed N              sample seed, default 0");
+        System.out.println("  --out FILE.png        default render.png");
+        System.out.println("  --hdr FILE.pfm        also write unclamped radiance as PFM");
+        System.out.println("  --cost FILE.png       also write a heatmap of the trace time per pixel");
+        System.out.println("  --keyframes FILE      render an animation; lines of 'time x y z yaw pitch [fov]'");
+        System.out.println("  --frames N            frames spread evenly over the keyframes");
+        System.out.println("  --parallel MODE       auto, frames or tiles (default auto)");
+        System.out.println("                        with --keyframes, --out is a pattern like frame_%04d.png");
+        System.out.println("  --workers N           trace on N worker JVMs started on this machine,");
+        System.out.println("                        each with --threads threads");
+        System.out.println("  --listen PORT         also accept RenderWorker host:PORT from other machines");
+        System.out.println("  --checkpoint FILE     save progress to FILE and resume from it if it matches");
+        System.out.println("  --checkpoint-interval SECONDS  default 5");
+    }
+}
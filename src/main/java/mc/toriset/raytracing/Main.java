@@ -1,19 +1,22 @@
 package mc.toriset.raytracing;
 
 import mc.toriset.raytracing.data.Config;
+import mc.toriset.raytracing.data.Multisampling;
+import mc.toriset.raytracing.raycast.RaycastPath;
 import mc.toriset.raytracing.render.Canvas;
+import mc.toriset.raytracing.render.CostMap;
+import mc.toriset.raytracing.render.Denoiser;
 import mc.toriset.raytracing.render.ProgressiveRenderer;
+import mc.toriset.raytracing.render.RenderMetrics;
+import mc.toriset.raytracing.render.RenderPipeline;
+import mc.toriset.raytracing.render.Reprojection;
 import mc.toriset.raytracing.world.World;
 
 import java.awt.*;
 import java.awt.event.KeyEvent;
 
 public class Main {
-    private static boolean movementOccurred = false;
-    private static long lastFrameTime = 0;
-    private static int frameCount = 0;
-    private static int fps = 0;
-    private static long lastFpsUpdateTime = 0;
+    private static RenderPipeline pipeline;
 
     public static void main(String[] args) {
 
@@ -42,6 +45,9 @@ public class Main {
         );
 
         ProgressiveRenderer.init(virtualWidth, virtualHeight);
+        RenderMetrics.register();
+        pipeline = new RenderPipeline(virtualWidth, virtualHeight);
+        canvas.setFrameSource(pipeline.getFrames());
 
         canvas.registerKeyHandler(KeyEvent.VK_R, () -> {
             canvas.clear(Color.BLACK);
@@ -59,84 +65,120 @@ public class Main {
             System.out.println("Rendering Mode: PROGRESSIVE");
         });
 
+        canvas.registerKeyHandler(KeyEvent.VK_3, () -> {
+            ProgressiveRenderer.setMode(ProgressiveRenderer.Mode.ADAPTIVE);
+            System.out.println("Rendering Mode: ADAPTIVE (noise threshold "
+                    + ProgressiveRenderer.getNoiseThreshold() + ")");
+        });
+
+        canvas.registerKeyHandler(KeyEvent.VK_OPEN_BRACKET, () -> {
+            ProgressiveRenderer.setNoiseThreshold(ProgressiveRenderer.getNoiseThreshold() / 2);
+            System.out.println("Noise threshold: " + ProgressiveRenderer.getNoiseThreshold());
+        });
+
+        canvas.registerKeyHandler(KeyEvent.VK_CLOSE_BRACKET, () -> {
+            ProgressiveRenderer.setNoiseThreshold(ProgressiveRenderer.getNoiseThreshold() * 2);
+            System.out.println("Noise threshold: " + ProgressiveRenderer.getNoiseThreshold());
+        });
+
+        canvas.registerKeyHandler(KeyEvent.VK_B, () -> {
+            RaycastPath.Traversal[] traversals = RaycastPath.Traversal.values();
+            RaycastPath.traversal = traversals[(RaycastPath.traversal.ordinal() + 1) % traversals.length];
+            canvas.clear(Color.BLACK);
+            ProgressiveRenderer.reset();
+            notifyMovement();
+            System.out.println("Traversal: " + RaycastPath.traversal
+                    + (RaycastPath.traversal == RaycastPath.Traversal.PACKED ? " (" + RaycastPath.getBoxKernelName() + ")" : ""));
+        });
+
+        canvas.registerKeyHandler(KeyEvent.VK_M, () -> {
+            Multisampling.Pattern[] patterns = Multisampling.Pattern.values();
+            Multisampling.currentPattern = patterns[(Multisampling.currentPattern.ordinal() + 1) % patterns.length];
+            canvas.clear(Color.BLACK);
+            ProgressiveRenderer.reset();
+            notifyMovement();
+            System.out.println("Sampling: " + Multisampling.currentPattern
+                    + " (" + Multisampling.getSampler().getName() + ")");
+        });
+
+        canvas.registerKeyHandler(KeyEvent.VK_P, () -> {
+            RaycastPath.estimator = RaycastPath.estimator == RaycastPath.Estimator.RAY_TREE
+                    ? RaycastPath.Estimator.SINGLE_PATH
+                    : RaycastPath.Estimator.RAY_TREE;
+            canvas.clear(Color.BLACK);
+            ProgressiveRenderer.reset();
+            notifyMovement();
+            System.out.println("Estimator: " + RaycastPath.estimator);
+        });
+
+        canvas.registerKeyHandler(KeyEvent.VK_T, () -> {
+            Reprojection.enabled = !Reprojection.enabled;
+            ProgressiveRenderer.reset();
+            notifyMovement();
+            System.out.println("Reprojection: " + (Reprojection.enabled ? "ON" : "OFF"));
+        });
+
+        canvas.registerKeyHandler(KeyEvent.VK_N, () -> {
+            ProgressiveRenderer.setDenoise(!Denoiser.enabled);
+            pipeline.wakeUp();
+            System.out.println("Denoiser: " + (Denoiser.enabled ? "ON" : "OFF"));
+        });
+
+        canvas.registerKeyHandler(KeyEvent.VK_H, () -> {
+            ProgressiveRenderer.setCostView(!CostMap.enabled);
+            pipeline.wakeUp();
+            System.out.println("Cost heatmap: " + (CostMap.enabled ? "ON" : "OFF"));
+        });
+
         float movementSpeed = 0.3f / 10f;
         canvas.registerKeyHandler(KeyEvent.VK_W, () -> {
-            World.camera.location.z += movementSpeed;
+            World.camera.move(0, 0, movementSpeed);
             notifyMovement();
         });
         canvas.registerKeyHandler(KeyEvent.VK_S, () -> {
-            World.camera.location.z -= movementSpeed;
+            World.camera.move(0, 0, -movementSpeed);
             notifyMovement();
         });
         canvas.registerKeyHandler(KeyEvent.VK_A, () -> {
-            World.camera.location.x -= movementSpeed;
+            World.camera.move(-movementSpeed, 0, 0);
             notifyMovement();
         });
         canvas.registerKeyHandler(KeyEvent.VK_D, () -> {
-            World.camera.location.x += movementSpeed;
+            World.camera.move(movementSpeed, 0, 0);
             notifyMovement();
         });
         canvas.registerKeyHandler(KeyEvent.VK_SPACE, () -> {
-            World.camera.location.y += movementSpeed;
+            World.camera.move(0, movementSpeed, 0);
             notifyMovement();
         });
         canvas.registerKeyHandler(KeyEvent.VK_SHIFT, () -> {
-            World.camera.location.y -= movementSpeed;
+            World.camera.move(0, -movementSpeed, 0);
             notifyMovement();
         });
 
         canvas.setMouseMoveHandler(delta -> {
             float sensitivity = 0.1f;
-            World.camera.yaw -= delta.x * sensitivity;
+            World.camera.rotate(-delta.x * sensitivity, 0);
 
             notifyMovement();
         });
 
         canvas.registerKeyHandler(KeyEvent.VK_K, canvas::toggleMouseLock);
 
-        canvas.setUpdateHandler(c -> {
-
-            long currentTime = System.currentTimeMillis();
-            frameCount++;
-
-            if (currentTime - lastFpsUpdateTime > 1000) {
-                fps = frameCount;
-                frameCount = 0;
-                lastFpsUpdateTime = currentTime;
-            }
-
-            boolean shouldRender = false;
-
-            if (movementOccurred) {
-
-                shouldRender = true;
-                movementOccurred = false;
-            } else {
-
-                long timeSinceLastFrame = currentTime - lastFrameTime;
-                if (timeSinceLastFrame > 50) {
-                    shouldRender = true;
-                }
-            }
-
-            if (shouldRender) {
-                lastFrameTime = currentTime;
-
-                ProgressiveRenderer.render(canvas);
-            }
-        });
-
         canvas.start();
 
         canvas.clear(Color.BLACK);
         ProgressiveRenderer.reset();
-        ProgressiveRenderer.render(canvas);
+        pipeline.start();
 
-        Runtime.getRuntime().addShutdownHook(new Thread(ProgressiveRenderer::shutdown));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            pipeline.stop();
+            ProgressiveRenderer.shutdown();
+        }));
     }
 
     private static void notifyMovement() {
-        movementOccurred = true;
         ProgressiveRenderer.notifyMovement();
+        pipeline.wakeUp();
     }
 }
\ No newline at end of file
@@ -1,82 +1,115 @@
 package mc.toriset.raytracing.data;
 
+import mc.toriset.raytracing.sampling.BlueNoiseSampler;
+import mc.toriset.raytracing.sampling.HaltonSampler;
+import mc.toriset.raytracing.sampling.RandomSampler;
+import mc.toriset.raytracing.sampling.Sampler;
+import mc.toriset.raytracing.sampling.SobolSampler;
+
 public class Multisampling {
 
     public enum Pattern {
         RANDOM,
         REGULAR_GRID,
         JITTERED,
-        POISSON
+        POISSON,
+        HALTON,
+        SOBOL,
+        BLUE_NOISE
     }
 
-    public static Pattern currentPattern = Pattern.REGULAR_GRID;
+    public static Pattern currentPattern = Pattern.SOBOL;
 
-    public static Point2D getSampleOffset(int sampleIndex, int totalSamples) {
+    /**
+     * Sampler behind every random number of a traced sample (pixel offset, roughness, path
+     * choices). The fixed-count patterns only describe pixel offsets for a known sample count, so
+     * they trace with independent random numbers.
+     */
+    public static Sampler getSampler() {
+        switch (currentPattern) {
+            case HALTON:
+                return HaltonSampler.INSTANCE;
+            case SOBOL:
+                return SobolSampler.INSTANCE;
+            case BLUE_NOISE:
+                return BlueNoiseSampler.INSTANCE;
+            default:
+                return RandomSampler.INSTANCE;
+        }
+    }
+
+    // Hand-placed offsets of the POISSON pattern for 4 and 8 samples.
+    private static final double[][] POISSON_4 = {{0.3, 0.3}, {0.7, 0.3}, {0.3, 0.7}, {0.7, 0.7}};
+    private static final double[][] POISSON_8 = {
+            {0.2, 0.2}, {0.7, 0.2}, {0.3, 0.5}, {0.8, 0.5}, {0.2, 0.8}, {0.7, 0.8}, {0.5, 0.3}, {0.5, 0.7}};
+
+    /**
+     * Writes the offset of a sample within the pixel to {@code out[0]} and {@code out[1]} without
+     * allocating. The sequence patterns give the same unscrambled points for every pixel here; the
+     * progressive renderer draws per-pixel scrambled offsets through {@link #getSampler()} instead.
+     */
+    public static void getSampleOffset(int sampleIndex, int totalSamples, double[] out) {
         switch (currentPattern) {
             case RANDOM:
-                return new Point2D(Math.random(), Math.random());
+                out[0] = Math.random();
+                out[1] = Math.random();
+                return;
 
-            case REGULAR_GRID:
+            case REGULAR_GRID: {
+                int gridSize = (int) Math.ceil(Math.sqrt(totalSamples));
+                out[0] = (sampleIndex % gridSize + 0.5) / gridSize;
+                out[1] = (sampleIndex / gridSize + 0.5) / gridSize;
+                return;
+            }
 
+            case JITTERED: {
                 int gridSize = (int) Math.ceil(Math.sqrt(totalSamples));
-                int x = sampleIndex % gridSize;
-                int y = sampleIndex / gridSize;
-                return new Point2D(
-                        (x + 0.5) / gridSize,
-                        (y + 0.5) / gridSize
-                );
-
-            case JITTERED:
-
-                int jGridSize = (int) Math.ceil(Math.sqrt(totalSamples));
-                int jx = sampleIndex % jGridSize;
-                int jy = sampleIndex / jGridSize;
-                return new Point2D(
-                        (jx + Math.random()) / jGridSize,
-                        (jy + Math.random()) / jGridSize
-                );
+                out[0] = (sampleIndex % gridSize + Math.random()) / gridSize;
+                out[1] = (sampleIndex / gridSize + Math.random()) / gridSize;
+                return;
+            }
 
             case POISSON:
+                getPoissonSample(sampleIndex, totalSamples, out);
+                return;
 
-                return getPoissonSample(sampleIndex, totalSamples);
+            case HALTON:
+            case SOBOL:
+            case BLUE_NOISE:
+                Sampler sampler = getSampler();
+                out[0] = sampler.get(0, 0, 0, sampleIndex, 0, 0);
+                out[1] = sampler.get(0, 0, 0, sampleIndex, 1, 0);
+                return;
 
             default:
-                return new Point2D(0.5, 0.5);
+                out[0] = 0.5;
+                out[1] = 0.5;
         }
     }
 
-    private static Point2D getPoissonSample(int index, int totalSamples) {
+    public static Point2D getSampleOffset(int sampleIndex, int totalSamples) {
+        double[] offset = new double[2];
+        getSampleOffset(sampleIndex, totalSamples, offset);
+        return new Point2D(offset[0], offset[1]);
+    }
 
-        if (totalSamples == 4) {
-            switch (index) {
-                case 0: return new Point2D(0.3, 0.3);
-                case 1: return new Point2D(0.7, 0.3);
-                case 2: return new Point2D(0.3, 0.7);
-                case 3: return new Point2D(0.7, 0.7);
-            }
-        } else if (totalSamples == 8) {
-            switch (index) {
-                case 0: return new Point2D(0.2, 0.2);
-                case 1: return new Point2D(0.7, 0.2);
-                case 2: return new Point2D(0.3, 0.5);
-                case 3: return new Point2D(0.8, 0.5);
-                case 4: return new Point2D(0.2, 0.8);
-                case 5: return new Point2D(0.7, 0.8);
-                case 6: return new Point2D(0.5, 0.3);
-                case 7: return new Point2D(0.5, 0.7);
-            }
-        } else if (totalSamples == 16) {
+    private static void getPoissonSample(int index, int totalSamples, double[] out) {
+        double[][] table = totalSamples == 4 ? POISSON_4 : totalSamples == 8 ? POISSON_8 : null;
+        if (table != null && index < table.length) {
+            out[0] = table[index][0];
+            out[1] = table[index][1];
+            return;
+        }
 
-            double x = (index % 4) / 4.0 + Math.random() * 0.15;
-            double y = (index / 4) / 4.0 + Math.random() * 0.15;
-            return new Point2D(x, y);
+        if (totalSamples == 16) {
+            out[0] = (index % 4) / 4.0 + Math.random() * 0.15;
+            out[1] = (index / 4) / 4.0 + Math.random() * 0.15;
+            return;
         }
 
         int size = (int) Math.ceil(Math.sqrt(totalSamples));
-        return new Point2D(
-                (index % size + Math.random()) / size,
-                (index / size + Math.random()) / size
-        );
+        out[0] = (index % size + Math.random()) / size;
+        out[1] = (index / size + Math.random()) / size;
     }
 
     public static class Point2D {
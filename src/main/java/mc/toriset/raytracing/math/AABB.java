@@ -42,6 +42,30 @@ public class AABB {
         return new Vector3D(max);
     }
 
+    public double getMinX() {
+        return min.x;
+    }
+
+    public double getMinY() {
+        return min.y;
+    }
+
+    public double getMinZ() {
+        return min.z;
+    }
+
+    public double getMaxX() {
+        return max.x;
+    }
+
+    public double getMaxY() {
+        return max.y;
+    }
+
+    public double getMaxZ() {
+        return max.z;
+    }
+
     public Vector3D getCenter() {
         return min.add(max).multiply(0.5);
     }
@@ -0,0 +1,143 @@
+package mc.toriset.raytracing.net;
+
+import mc.toriset.raytracing.data.Multisampling;
+import mc.toriset.raytracing.raycast.RaycastPath;
+import mc.toriset.raytracing.render.CameraSnapshot;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Messages between {@link RenderCoordinator} and {@link RenderWorker}, written with Data streams
+ * over one TCP connection per worker.
+ * <pre>
+ * worker -> coordinator  HELLO  version, threads
+ * coordinator -> worker  JOB    job id, scene, scene content hash, camera pose, width, height,
+ *                               frame seed, sampler, estimator, bounce limit
+ * coordinator -> worker  UNIT   unit id, job id, tile x, y, w, h, first sample, samples
+ * worker -> coordinator  RESULT job id, unit id, rays, pixel count, then per tile pixel: r, g, b
+ *                               sums and the luminance mean and M2 of its samples
+ * worker -> coordinator  FAILED job id, unit id, message
+ * coordinator -> worker  BYE
+ * </pre>
+ * A unit's samples depend only on (frame seed, pixel, sample index), so a unit re-issued to
+ * another worker returns exactly the same sums. The coordinator merges each tile's units in
+ * sample order, like a local render adds its passes, so the merged image is bit-identical to
+ * one rendered in a single process. A worker whose scene has another content hash refuses the
+ * job. Unit ids are only unique within a job, so
+ * results carry their job id and the pixel count needed to skip one from an abandoned job.
+ */
+final class Protocol {
+    static final int VERSION = 3;
+
+    static final byte HELLO = 1;
+    static final byte JOB = 2;
+    static final byte UNIT = 3;
+    static final byte RESULT = 4;
+    static final byte BYE = 5;
+    static final byte FAILED = 6;
+
+    // Floats per pixel in a RESULT.
+    static final int RESULT_CHANNELS = 5;
+
+    private Protocol() {
+    }
+
+    /** Everything a worker needs to trace the same samples as the coordinator would. */
+    static final class Job {
+        final int id;
+        final String scene;
+        // World.contentHash() of the scene as the coordinator has it.
+        final long sceneHash;
+        final CameraSnapshot camera;
+        final int width, height, frame;
+        final Multisampling.Pattern pattern;
+        final RaycastPath.Estimator estimator;
+        final int bounceLimit;
+
+        Job(int id, String scene, long sceneHash, CameraSnapshot camera, int width, int height, int frame,
+            Multisampling.Pattern pattern, RaycastPath.Estimator estimator, int bounceLimit) {
+            this.id = id;
+            this.scene = scene;
+            this.sceneHash = sceneHash;
+            this.camera = camera;
+            this.width = width;
+            this.height = height;
+            this.frame = frame;
+            this.pattern = pattern;
+            this.estimator = estimator;
+            this.bounceLimit = bounceLimit;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeByte(JOB);
+            out.writeInt(id);
+            out.writeUTF(scene);
+            out.writeLong(sceneHash);
+            out.writeDouble(camera.x);
+            out.writeDouble(camera.y);
+            out.writeDouble(camera.z);
+            out.writeDouble(camera.yaw);
+            out.writeDouble(camera.pitch);
+            out.writeFloat(camera.fov);
+            out.writeInt(width);
+            out.writeInt(height);
+            out.writeInt(frame);
+            out.writeUTF(pattern.name());
+            out.writeUTF(estimator.name());
+            out.writeInt(bounceLimit);
+        }
+
+        // Reads the body of a JOB message, after its type byte.
+        static Job read(DataInputStream in) throws IOException {
+            int id = in.readInt();
+            String scene = in.readUTF();
+            long sceneHash = in.readLong();
+            CameraSnapshot camera = new CameraSnapshot(in.readDouble(), in.readDouble(), in.readDouble(),
+                    in.readDouble(), in.readDouble(), in.readFloat());
+            int width = in.readInt();
+            int height = in.readInt();
+            int frame = in.readInt();
+            Multisampling.Pattern pattern = Multisampling.Pattern.valueOf(in.readUTF());
+            RaycastPath.Estimator estimator = RaycastPath.Estimator.valueOf(in.readUTF());
+            int bounceLimit = in.readInt();
+            return new Job(id, scene, sceneHash, camera, width, height, frame, pattern, estimator, bounceLimit);
+        }
+    }
+
+    /** A range of samples for every pixel of one tile. */
+    static final class Unit {
+        final int id, jobId;
+        final int x, y, width, height;
+        final int firstSample, samples;
+
+        Unit(int id, int jobId, int x, int y, int width, int height, int firstSample, int samples) {
+            this.id = id;
+            this.jobId = jobId;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+            this.firstSample = firstSample;
+            this.samples = samples;
+        }
+
+        void write(DataOutputStream out) throws IOException {
+            out.writeByte(UNIT);
+            out.writeInt(id);
+            out.writeInt(jobId);
+            out.writeInt(x);
+            out.writeInt(y);
+            out.writeInt(width);
+            out.writeInt(height);
+            out.writeInt(firstSample);
+            out.writeInt(samples);
+        }
+
+        static Unit read(DataInputStream in) throws IOException {
+            return new Unit(in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readInt(),
+                    in.readInt(), in.readInt());
+        }
+    }
+}
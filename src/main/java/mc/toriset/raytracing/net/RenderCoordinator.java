@@ -0,0 +1,414 @@
+package mc.toriset.raytracing.net;
+
+import mc.toriset.raytracing.data.Multisampling;
+import mc.toriset.raytracing.raycast.RaycastPath;
+import mc.toriset.raytracing.render.AccumulationBuffer;
+import mc.toriset.raytracing.render.CameraSnapshot;
+import mc.toriset.raytracing.render.TileScheduler;
+import mc.toriset.raytracing.world.World;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Splits a render into (tile, sample range) units and hands them to {@link RenderWorker}
+ * processes connected over TCP. Each worker keeps a few units per thread outstanding so it never
+ * waits for the network; returned sums are merged into one {@link AccumulationBuffer}, each
+ * tile's sample ranges in order. When a connection fails or a worker stops answering, the units it
+ * held go back to the front of the queue for the others. Workers may connect and leave at any
+ * time, also in the middle of a render.
+ */
+public class RenderCoordinator implements Closeable {
+    // Samples per unit; a 32x32 tile of 16 samples is about 80 KB of results.
+    public static int unitSamples = 16;
+
+    // Units kept outstanding per worker thread to hide the round trip.
+    static final int UNITS_PER_THREAD = 2;
+    // A worker holding units that sends nothing for this long is presumed dead.
+    private static final int WORKER_TIMEOUT_MS = 60_000;
+    // render() gives up when no worker has been connected for this long.
+    private static final long NO_WORKERS_TIMEOUT_MS = 30_000;
+    private static final long IDLE_POLL_MS = 50;
+
+    private final ServerSocket server;
+    private final Thread acceptor;
+    private final List<Connection> connections = new CopyOnWriteArrayList<>();
+    private final LinkedBlockingDeque<Protocol.Unit> pending = new LinkedBlockingDeque<>();
+    private final AtomicInteger nextJobId = new AtomicInteger();
+    private final AtomicInteger reissuedUnits = new AtomicInteger();
+    private volatile Render current;
+    private volatile boolean closed;
+
+    // State of the render in progress; guarded by itself.
+    private static final class Render {
+        final Protocol.Job job;
+        final Protocol.Unit[] units;
+        // Units are numbered sample range by sample range, with this many tiles in each.
+        final int tiles;
+        // done[unit]: its result arrived, whether merged yet or held back.
+        final boolean[] done;
+        // nextRange[tile]: the sample range of the tile to be merged next.
+        final int[] nextRange;
+        // Results that arrived before an earlier sample range of their tile, by unit.
+        final float[][] held;
+        final AccumulationBuffer accumulation;
+        int remaining;
+        long rays;
+
+        Render(Protocol.Job job, List<Protocol.Unit> units, int tiles) {
+            this.job = job;
+            this.units = units.toArray(new Protocol.Unit[0]);
+            this.tiles = tiles;
+            this.done = new boolean[units.size()];
+            this.nextRange = new int[tiles];
+            this.held = new float[units.size()][];
+            this.accumulation = new AccumulationBuffer(job.width, job.height);
+            this.remaining = units.size();
+        }
+    }
+
+    /** Listens for workers on {@code port}; 0 picks a free port, see {@link #getPort()}. */
+    public RenderCoordinator(int port) throws IOException {
+        this.server = new ServerSocket(port);
+        this.acceptor = new Thread(this::acceptWorkers, "Coordinator Accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    public int getWorkerCount() {
+        return connections.size();
+    }
+
+    // Units handed out again after their worker failed, since this coordinator started.
+    public int getReissuedUnits() {
+        return reissuedUnits.get();
+    }
+
+    // Units of the render in progress that are not merged yet, or 0 between renders.
+    public int getRemainingUnits() {
+        Render render = current;
+        if (render == null) {
+            return 0;
+        }
+        synchronized (render) {
+            return render.remaining;
+        }
+    }
+
+    /**
+     * Starts a worker JVM on this machine with the same class path, connected to this
+     * coordinator. The caller should destroy it when done.
+     */
+    public Process startLocalWorker(int threads) throws IOException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        List<String> command = new ArrayList<>();
+        command.add(java);
+        command.add("--add-modules");
+        command.add("jdk.incubator.vector");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(RenderWorker.class.getName());
+        command.add("localhost:" + getPort());
+        command.add(Integer.toString(threads));
+        return new ProcessBuilder(command)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.DISCARD)
+                .start();
+    }
+
+    /**
+     * Renders {@code samples} samples per pixel of {@code scene} on the connected workers, with the
+     * sampler, estimator and bounce limit currently set in this process, and blocks until every
+     * unit is merged. {@code scene} must be the scene loaded in this process; workers whose copy
+     * has another {@link World#contentHash()} refuse the job. Returns the merged sums and the rays the workers traced for them.
+     */
+    public synchronized Result render(String scene, CameraSnapshot camera, int width, int height,
+                                      int samples, int frame) {
+        Protocol.Job job = new Protocol.Job(nextJobId.incrementAndGet(), scene, World.contentHash(), camera,
+                width, height, frame,
+                Multisampling.currentPattern, RaycastPath.estimator, RaycastPath.bounceLimit);
+
+        // Sample ranges outermost, so every tile gets its first samples before any gets more.
+        List<Protocol.Unit> units = new ArrayList<>();
+        int tile = TileScheduler.TILE_SIZE;
+        for (int first = 0; first < samples; first += unitSamples) {
+            int count = Math.min(unitSamples, samples - first);
+            for (int y = 0; y < height; y += tile) {
+                for (int x = 0; x < width; x += tile) {
+                    units.add(new Protocol.Unit(units.size(), job.id, x, y,
+                            Math.min(tile, width - x), Math.min(tile, height - y), first, count));
+                }
+            }
+        }
+
+        int tiles = ((width + tile - 1) / tile) * ((height + tile - 1) / tile);
+        Render render = new Render(job, units, tiles);
+        current = render;
+        pending.addAll(units);
+
+        long lastWorkerSeen = System.currentTimeMillis();
+        try {
+            synchronized (render) {
+                while (render.remaining > 0) {
+                    if (closed) {
+                        throw new IllegalStateException("Coordinator closed during a render");
+                    }
+                    if (!connections.isEmpty()) {
+                        lastWorkerSeen = System.currentTimeMillis();
+                    } else if (System.currentTimeMillis() - lastWorkerSeen > NO_WORKERS_TIMEOUT_MS) {
+                        throw new IllegalStateException("No render workers connected for "
+                                + NO_WORKERS_TIMEOUT_MS / 1000 + " s");
+                    }
+                    render.wait(IDLE_POLL_MS * 10);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for workers", e);
+        } finally {
+            pending.clear();
+            current = null;
+        }
+        return new Result(render.accumulation, render.rays);
+    }
+
+    public static final class Result {
+        public final AccumulationBuffer accumulation;
+        public final long rays;
+
+        Result(AccumulationBuffer accumulation, long rays) {
+            this.accumulation = accumulation;
+            this.rays = rays;
+        }
+    }
+
+    /** Tells every worker to exit and stops listening. */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        server.close();
+        for (Connection connection : connections) {
+            try {
+                connection.thread.join(IDLE_POLL_MS * 4);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            connection.closeSocket();
+        }
+    }
+
+    private void acceptWorkers() {
+        while (!closed) {
+            try {
+                Socket socket = server.accept();
+                Connection connection = new Connection(socket);
+                connections.add(connection);
+                connection.thread.start();
+            } catch (SocketException e) {
+                // Closed.
+            } catch (IOException e) {
+                if (!closed) {
+                    System.err.println("Could not accept render worker: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    // Talks to one worker on its own thread: sends units while it has room, then reads a result.
+    private final class Connection implements Runnable {
+        private final Socket socket;
+        private final Thread thread;
+        private final Map<Integer, Protocol.Unit> outstanding = new HashMap<>();
+        private Render outstandingRender;
+        private int sentJob = -1;
+
+        Connection(Socket socket) {
+            this.socket = socket;
+            this.thread = new Thread(this, "Coordinator " + socket.getRemoteSocketAddress());
+            thread.setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                socket.setTcpNoDelay(true);
+                socket.setSoTimeout(WORKER_TIMEOUT_MS);
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+                if (in.readByte() != Protocol.HELLO || in.readInt() != Protocol.VERSION) {
+                    throw new IOException("Not a render worker or wrong protocol version");
+                }
+                int capacity = Math.max(1, in.readInt()) * UNITS_PER_THREAD;
+
+                while (!closed) {
+                    Render render = current;
+                    if (render != outstandingRender) {
+                        // Anything still held belongs to a finished render.
+                        outstanding.clear();
+                        outstandingRender = render;
+                    }
+                    if (render == null) {
+                        Thread.sleep(IDLE_POLL_MS);
+                        continue;
+                    }
+
+                    boolean sent = false;
+                    while (outstanding.size() < capacity) {
+                        Protocol.Unit unit = pending.poll();
+                        if (unit == null) {
+                            break;
+                        }
+                        if (unit.jobId != render.job.id) {
+                            continue;
+                        }
+                        if (sentJob != render.job.id) {
+                            render.job.write(out);
+                            sentJob = render.job.id;
+                        }
+                        unit.write(out);
+                        outstanding.put(unit.id, unit);
+                        sent = true;
+                    }
+                    if (sent) {
+                        out.flush();
+                    }
+
+                    if (outstanding.isEmpty()) {
+                        Protocol.Unit unit = pending.poll(IDLE_POLL_MS, TimeUnit.MILLISECONDS);
+                        if (unit != null) {
+                            pending.addFirst(unit);
+                        }
+                        continue;
+                    }
+                    readResult(in, render);
+                }
+
+                out.writeByte(Protocol.BYE);
+                out.flush();
+            } catch (IOException e) {
+                if (!closed) {
+                    System.err.println("Render worker " + socket.getRemoteSocketAddress() + " failed: "
+                            + (e instanceof EOFException ? "connection closed" : e.getMessage()));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                connections.remove(this);
+                requeueOutstanding();
+                closeSocket();
+            }
+        }
+
+        private void readResult(DataInputStream in, Render render) throws IOException {
+            byte type = in.readByte();
+            if (type == Protocol.FAILED) {
+                int jobId = in.readInt();
+                int id = in.readInt();
+                throw new IOException("unit " + id + " of job " + jobId + " failed: " + in.readUTF());
+            }
+            if (type != Protocol.RESULT) {
+                throw new IOException("Expected a result");
+            }
+            int jobId = in.readInt();
+            int id = in.readInt();
+            long rays = in.readLong();
+            int pixels = in.readInt();
+            float[] values = new float[pixels * Protocol.RESULT_CHANNELS];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = in.readFloat();
+            }
+            if (jobId != render.job.id) {
+                // Late result of a render that was abandoned; its unit ids mean nothing now.
+                return;
+            }
+            Protocol.Unit unit = outstanding.remove(id);
+            if (unit == null || pixels != unit.width * unit.height) {
+                throw new IOException("Result for unit " + id + " that was not sent");
+            }
+
+            synchronized (render) {
+                if (render.done[id]) {
+                    return;
+                }
+                render.done[id] = true;
+                render.rays += rays;
+
+                // Float sums depend on the order they are added in, so a tile's sample ranges are merged in
+                // order, as a local render adds its passes; a re-issued unit can arrive after later ones.
+                int tile = id % render.tiles;
+                if (id / render.tiles != render.nextRange[tile]) {
+                    render.held[id] = values;
+                    return;
+                }
+                merge(render, unit, values);
+                for (int next = id + render.tiles; next < render.units.length && render.held[next] != null;
+                     next += render.tiles) {
+                    merge(render, render.units[next], render.held[next]);
+                    render.held[next] = null;
+                }
+                if (render.remaining == 0) {
+                    render.notifyAll();
+                }
+            }
+        }
+
+        // Adds a unit's sums to the image; called in sample order for each tile, holding the render's lock.
+        private void merge(Render render, Protocol.Unit unit, float[] values) {
+            for (int y = 0; y < unit.height; y++) {
+                for (int x = 0; x < unit.width; x++) {
+                    int i = (y * unit.width + x) * Protocol.RESULT_CHANNELS;
+                    render.accumulation.add(unit.x + x, unit.y + y, values[i], values[i + 1], values[i + 2],
+                            unit.samples, values[i + 3], values[i + 4]);
+                }
+            }
+            render.nextRange[unit.id % render.tiles]++;
+            render.remaining--;
+        }
+
+        private void requeueOutstanding() {
+            Render render = current;
+            if (render == null || render != outstandingRender || outstanding.isEmpty()) {
+                return;
+            }
+            synchronized (render) {
+                for (Protocol.Unit unit : outstanding.values()) {
+                    if (!render.done[unit.id]) {
+                        pending.addFirst(unit);
+                        reissuedUnits.incrementAndGet();
+                    }
+                }
+            }
+            outstanding.clear();
+        }
+
+        void closeSocket() {
+            try {
+                socket.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package mc.toriset.raytracing.net;
+
+import mc.toriset.raytracing.data.Multisampling;
+import mc.toriset.raytracing.raycast.RaycastPath;
+import mc.toriset.raytracing.raycast.TraceScratch;
+import mc.toriset.raytracing.render.AccumulationBuffer;
+import mc.toriset.raytracing.render.CameraSnapshot;
+import mc.toriset.raytracing.render.RenderMetrics;
+import mc.toriset.raytracing.world.Scenes;
+import mc.toriset.raytracing.world.World;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Worker process for {@link RenderCoordinator}: connects to it, loads each job's scene and traces
+ * the units it is sent, several at once on its own thread pool. Results go back as float sums,
+ * unclamped, so the coordinator can merge them exactly.
+ * <p>
+ * Usage: {@code RenderWorker host:port [threads]}
+ */
+public class RenderWorker {
+    private static final int MAX_FAILURE_MESSAGE = 500;
+
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final ExecutorService pool;
+    private final Map<Integer, Protocol.Job> jobs = new HashMap<>();
+    private final List<Future<?>> running = new ArrayList<>();
+    private String loadedScene;
+    private long loadedSceneHash;
+
+    public RenderWorker(String host, int port, int threads) throws IOException {
+        this.socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        this.pool = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "Render Worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        synchronized (out) {
+            out.writeByte(Protocol.HELLO);
+            out.writeInt(Protocol.VERSION);
+            out.writeInt(threads);
+            out.flush();
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        System.setProperty("java.awt.headless", "true");
+        if (args.length < 1 || !args[0].contains(":")) {
+            System.err.println("Usage: RenderWorker host:port [threads]");
+            System.exit(2);
+        }
+        String host = args[0].substring(0, args[0].lastIndexOf(':'));
+        int port = Integer.parseInt(args[0].substring(args[0].lastIndexOf(':') + 1));
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        RenderMetrics.register();
+        new RenderWorker(host, port, threads).run();
+    }
+
+    /** Serves units until the coordinator says BYE or the connection drops. */
+    public void run() throws IOException {
+        try {
+            while (true) {
+                byte type;
+                try {
+                    type = in.readByte();
+                } catch (EOFException e) {
+                    return;
+                }
+
+                switch (type) {
+                    case Protocol.JOB: {
+                        Protocol.Job job = Protocol.Job.read(in);
+                        jobs.put(job.id, job);
+                        break;
+                    }
+                    case Protocol.UNIT: {
+                        Protocol.Unit unit = Protocol.Unit.read(in);
+                        Protocol.Job job = jobs.get(unit.jobId);
+                        if (job == null) {
+                            throw new IOException("Unit " + unit.id + " refers to unknown job " + unit.jobId);
+                        }
+                        // Settings are global, so a new job is set up once the units of the old one are done.
+                        if (!job.scene.equals(loadedScene) || job.sceneHash != loadedSceneHash
+                                || Multisampling.currentPattern != job.pattern
+                                || RaycastPath.estimator != job.estimator || RaycastPath.bounceLimit != job.bounceLimit) {
+                            drain();
+                            Scenes.load(job.scene);
+                            loadedScene = job.scene;
+                            loadedSceneHash = World.contentHash();
+                            if (loadedSceneHash != job.sceneHash) {
+                                fail(unit, new IllegalStateException("Scene '" + job.scene + "' differs from the coordinator's"));
+                                return;
+                            }
+                            Multisampling.currentPattern = job.pattern;
+                            RaycastPath.estimator = job.estimator;
+                            RaycastPath.bounceLimit = job.bounceLimit;
+                        }
+                        running.removeIf(Future::isDone);
+                        running.add(pool.submit(() -> {
+                            try {
+                                trace(job, unit);
+                            } catch (RuntimeException | Error e) {
+                                fail(unit, e);
+                            }
+                        }));
+                        break;
+                    }
+                    case Protocol.BYE:
+                        return;
+                    default:
+                        throw new IOException("Unexpected message type " + type);
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+            socket.close();
+        }
+    }
+
+    // Waits for every submitted unit, so global settings can change between jobs.
+    private void drain() throws IOException {
+        try {
+            for (Future<?> unit : running) {
+                unit.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while finishing a job", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Unit failed", e.getCause());
+        }
+        running.clear();
+    }
+
+    private void trace(Protocol.Job job, Protocol.Unit unit) {
+        CameraSnapshot camera = job.camera;
+        TraceScratch scratch = TraceScratch.get();
+        long raysBefore = scratch.getRays();
+        long start = System.nanoTime();
+        double[] direction = new double[3];
+        float[] result = new float[unit.width * unit.height * Protocol.RESULT_CHANNELS];
+
+        for (int y = unit.y; y < unit.y + unit.height; y++) {
+            for (int x = unit.x; x < unit.x + unit.width; x++) {
+                float r = 0, g = 0, b = 0;
+                float luminanceMean = 0, luminanceM2 = 0;
+
+                for (int s = 0; s < unit.samples; s++) {
+                    scratch.beginSample(job.frame, x, y, unit.firstSample + s);
+                    camera.rayDirection(x + scratch.random(0), y + scratch.random(1), job.width, job.height, direction);
+                    RaycastPath.traceSample(camera.x, camera.y, camera.z, direction[0], direction[1], direction[2]);
+
+                    r += scratch.getRed();
+                    g += scratch.getGreen();
+                    b += scratch.getBlue();
+                    float luminance = AccumulationBuffer.luminance(scratch.getRed(), scratch.getGreen(), scratch.getBlue());
+                    float delta = luminance - luminanceMean;
+                    luminanceMean += delta / (s + 1);
+                    luminanceM2 += delta * (luminance - luminanceMean);
+                }
+
+                int i = ((y - unit.y) * unit.width + (x - unit.x)) * Protocol.RESULT_CHANNELS;
+                result[i] = r;
+                result[i + 1] = g;
+                result[i + 2] = b;
+                result[i + 3] = luminanceMean;
+                result[i + 4] = luminanceM2;
+            }
+        }
+        long rays = scratch.getRays() - raysBefore;
+        RenderMetrics.recordTile(scratch, System.nanoTime() - start, (long) unit.width * unit.height * unit.samples);
+
+        try {
+            synchronized (out) {
+                out.writeByte(Protocol.RESULT);
+                out.writeInt(unit.jobId);
+                out.writeInt(unit.id);
+                out.writeLong(rays);
+                out.writeInt(unit.width * unit.height);
+                for (float value : result) {
+                    out.writeFloat(value);
+                }
+                out.flush();
+            }
+        } catch (IOException e) {
+            // The coordinator is gone and will re-issue the unit elsewhere; stop reading too.
+            closeSocket();
+        }
+    }
+
+    // Reports a unit that threw; the coordinator drops this worker and re-issues its units elsewhere.
+    private void fail(Protocol.Unit unit, Throwable error) {
+        System.err.println("Unit " + unit.id + " of job " + unit.jobId + " failed:");
+        error.printStackTrace();
+        String message = String.valueOf(error);
+        try {
+            synchronized (out) {
+                out.writeByte(Protocol.FAILED);
+                out.writeInt(unit.jobId);
+                out.writeInt(unit.id);
+                out.writeUTF(message.length() > MAX_FAILURE_MESSAGE
+                        ? message.substring(0, MAX_FAILURE_MESSAGE) : message);
+                out.flush();
+            }
+        } catch (IOException e) {
+            closeSocket();
+        }
+    }
+
+    private void closeSocket() {
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+}
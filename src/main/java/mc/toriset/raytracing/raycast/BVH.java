@@ -0,0 +1,409 @@
+package mc.toriset.raytracing.raycast;
+
+import mc.toriset.raytracing.math.AABB;
+import mc.toriset.raytracing.util.RaycastUtil;
+import mc.toriset.raytracing.world.WorldObject;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Bounding volume hierarchy over {@link WorldObject#boundingBox}, built with a binned SAH.
+ * Nodes are stored flat: six doubles of bounds per node and two ints of node data, where
+ * interior nodes hold (left child, 0) with the right child at left + 1 and leaves hold
+ * (first primitive, primitive count).
+ */
+public class BVH {
+    private static final int BIN_COUNT = 16;
+    private static final int MAX_LEAF_SIZE = 4;
+    private static final int MAX_DEPTH = 48;
+    public static final int STACK_SIZE = MAX_DEPTH + 2;
+    private static final double TRAVERSAL_COST = 1.0;
+    private static final double INTERSECTION_COST = 1.0;
+
+    // Must match RaycastUtil so node culling is never tighter than the object test.
+    private static final double EPSILON = 0.0001;
+
+    private final List<WorldObject> source;
+    private final int sourceSize;
+
+    private final WorldObject[] primitives;
+    private final int[] primitiveIndices;
+
+    private final double[] nodeBounds;
+    private final int[] nodeData;
+    private int nodeCount;
+
+    private BVH(List<WorldObject> objects) {
+        this.source = objects;
+        this.sourceSize = objects.size();
+
+        int n = sourceSize;
+        this.primitives = new WorldObject[n];
+        this.primitiveIndices = new int[n];
+
+        int maxNodes = Math.max(1, 2 * n - 1);
+        this.nodeBounds = new double[maxNodes * 6];
+        this.nodeData = new int[maxNodes * 2];
+    }
+
+    public static BVH build(List<WorldObject> objects) {
+        BVH bvh = new BVH(objects);
+        int n = bvh.sourceSize;
+
+        double[] bounds = new double[n * 6];
+        double[] centroids = new double[n * 3];
+        int[] order = new int[n];
+
+        for (int i = 0; i < n; i++) {
+            AABB box = objects.get(i).boundingBox;
+            bounds[i * 6] = box.getMinX();
+            bounds[i * 6 + 1] = box.getMinY();
+            bounds[i * 6 + 2] = box.getMinZ();
+            bounds[i * 6 + 3] = box.getMaxX();
+            bounds[i * 6 + 4] = box.getMaxY();
+            bounds[i * 6 + 5] = box.getMaxZ();
+            centroids[i * 3] = (bounds[i * 6] + bounds[i * 6 + 3]) * 0.5;
+            centroids[i * 3 + 1] = (bounds[i * 6 + 1] + bounds[i * 6 + 4]) * 0.5;
+            centroids[i * 3 + 2] = (bounds[i * 6 + 2] + bounds[i * 6 + 5]) * 0.5;
+            order[i] = i;
+        }
+
+        bvh.nodeCount = 1;
+        if (n == 0) {
+            bvh.nodeData[0] = 0;
+            bvh.nodeData[1] = 0;
+            for (int axis = 0; axis < 3; axis++) {
+                bvh.nodeBounds[axis] = Double.POSITIVE_INFINITY;
+                bvh.nodeBounds[axis + 3] = Double.NEGATIVE_INFINITY;
+            }
+        } else {
+            bvh.buildNode(0, 0, n, 0, bounds, centroids, order);
+        }
+
+        for (int i = 0; i < n; i++) {
+            bvh.primitives[i] = objects.get(order[i]);
+            bvh.primitiveIndices[i] = order[i];
+        }
+
+        return bvh;
+    }
+
+    private void buildNode(int node, int start, int end, int depth,
+                           double[] bounds, double[] centroids, int[] order) {
+        double[] nb = nodeBounds;
+        int nbOffset = node * 6;
+        for (int axis = 0; axis < 3; axis++) {
+            nb[nbOffset + axis] = Double.POSITIVE_INFINITY;
+            nb[nbOffset + axis + 3] = Double.NEGATIVE_INFINITY;
+        }
+
+        double[] centroidMin = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY};
+        double[] centroidMax = {Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY};
+
+        for (int i = start; i < end; i++) {
+            int prim = order[i];
+            for (int axis = 0; axis < 3; axis++) {
+                nb[nbOffset + axis] = Math.min(nb[nbOffset + axis], bounds[prim * 6 + axis]);
+                nb[nbOffset + axis + 3] = Math.max(nb[nbOffset + axis + 3], bounds[prim * 6 + axis + 3]);
+                double c = centroids[prim * 3 + axis];
+                centroidMin[axis] = Math.min(centroidMin[axis], c);
+                centroidMax[axis] = Math.max(centroidMax[axis], c);
+            }
+        }
+
+        int count = end - start;
+        if (count <= 1 || depth >= MAX_DEPTH) {
+            makeLeaf(node, start, count);
+            return;
+        }
+
+        int bestAxis = -1;
+        int bestSplit = -1;
+        double bestCost = Double.POSITIVE_INFINITY;
+
+        int[] binCounts = new int[BIN_COUNT];
+        double[] binBounds = new double[BIN_COUNT * 6];
+        double[] rightArea = new double[BIN_COUNT];
+
+        for (int axis = 0; axis < 3; axis++) {
+            double extent = centroidMax[axis] - centroidMin[axis];
+            if (extent <= 0) {
+                continue;
+            }
+
+            Arrays.fill(binCounts, 0);
+            for (int b = 0; b < BIN_COUNT; b++) {
+                resetBounds(binBounds, b * 6);
+            }
+
+            double scale = BIN_COUNT / extent;
+            for (int i = start; i < end; i++) {
+                int prim = order[i];
+                int b = binIndex(centroids[prim * 3 + axis], centroidMin[axis], scale);
+                binCounts[b]++;
+                growBounds(binBounds, b * 6, bounds, prim * 6);
+            }
+
+            double[] sweep = new double[6];
+            resetBounds(sweep, 0);
+            int rightCount = 0;
+            int[] rightCounts = new int[BIN_COUNT];
+            for (int b = BIN_COUNT - 1; b > 0; b--) {
+                growBounds(sweep, 0, binBounds, b * 6);
+                rightCount += binCounts[b];
+                rightCounts[b] = rightCount;
+                rightArea[b] = surfaceArea(sweep, 0);
+            }
+
+            resetBounds(sweep, 0);
+            int leftCount = 0;
+            for (int b = 0; b < BIN_COUNT - 1; b++) {
+                growBounds(sweep, 0, binBounds, b * 6);
+                leftCount += binCounts[b];
+
+                int rc = rightCounts[b + 1];
+                if (leftCount == 0 || rc == 0) {
+                    continue;
+                }
+
+                double cost = leftCount * surfaceArea(sweep, 0) + rc * rightArea[b + 1];
+                if (cost < bestCost) {
+                    bestCost = cost;
+                    bestAxis = axis;
+                    bestSplit = b;
+                }
+            }
+        }
+
+        double parentArea = surfaceArea(nb, nbOffset);
+        double leafCost = count * INTERSECTION_COST;
+        double splitCost = parentArea > 0
+                ? TRAVERSAL_COST + INTERSECTION_COST * bestCost / parentArea
+                : Double.POSITIVE_INFINITY;
+
+        int mid;
+        if (bestAxis != -1) {
+            if (count <= MAX_LEAF_SIZE && splitCost >= leafCost) {
+                makeLeaf(node, start, count);
+                return;
+            }
+
+            double scale = BIN_COUNT / (centroidMax[bestAxis] - centroidMin[bestAxis]);
+            int i = start;
+            int j = end - 1;
+            while (i <= j) {
+                int b = binIndex(centroids[order[i] * 3 + bestAxis], centroidMin[bestAxis], scale);
+                if (b <= bestSplit) {
+                    i++;
+                } else {
+                    int tmp = order[i];
+                    order[i] = order[j];
+                    order[j] = tmp;
+                    j--;
+                }
+            }
+            mid = i;
+        } else if (count <= MAX_LEAF_SIZE) {
+            makeLeaf(node, start, count);
+            return;
+        } else {
+
+            // All centroids coincide, so no SAH split exists; halve the range instead.
+            mid = start + count / 2;
+        }
+
+        int left = nodeCount;
+        nodeCount += 2;
+        nodeData[node * 2] = left;
+        nodeData[node * 2 + 1] = 0;
+
+        buildNode(left, start, mid, depth + 1, bounds, centroids, order);
+        buildNode(left + 1, mid, end, depth + 1, bounds, centroids, order);
+    }
+
+    private void makeLeaf(int node, int start, int count) {
+        nodeData[node * 2] = start;
+        nodeData[node * 2 + 1] = count;
+    }
+
+    private static int binIndex(double centroid, double min, double scale) {
+        int b = (int) ((centroid - min) * scale);
+        return Math.min(BIN_COUNT - 1, Math.max(0, b));
+    }
+
+    private static void resetBounds(double[] b, int offset) {
+        for (int axis = 0; axis < 3; axis++) {
+            b[offset + axis] = Double.POSITIVE_INFINITY;
+            b[offset + axis + 3] = Double.NEGATIVE_INFINITY;
+        }
+    }
+
+    private static void growBounds(double[] target, int targetOffset, double[] src, int srcOffset) {
+        for (int axis = 0; axis < 3; axis++) {
+            target[targetOffset + axis] = Math.min(target[targetOffset + axis], src[srcOffset + axis]);
+            target[targetOffset + axis + 3] = Math.max(target[targetOffset + axis + 3], src[srcOffset + axis + 3]);
+        }
+    }
+
+    private static double surfaceArea(double[] b, int offset) {
+        double dx = b[offset + 3] - b[offset];
+        double dy = b[offset + 4] - b[offset + 1];
+        double dz = b[offset + 5] - b[offset + 2];
+        if (dx < 0 || dy < 0 || dz < 0) {
+            return 0;
+        }
+        return 2.0 * (dx * dy + dy * dz + dz * dx);
+    }
+
+    /**
+     * Returns true while this hierarchy still describes the given list. Object edits that keep the
+     * list size unchanged are not detected; callers must rebuild after moving boxes in place.
+     */
+    public boolean isBuiltFrom(List<WorldObject> objects) {
+        return objects == source && objects.size() == sourceSize;
+    }
+
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * Closest hit with a distance above {@code minDistance}, skipping the first {@code excludedCount}
+     * entries of {@code excluded}. Ties are resolved towards the lower index in the source list, so
+     * the result is identical to a linear scan in list order. The hit is written to the scratch's
+     * hit record, and the node and object box tests made are added to its counters.
+     */
+    public boolean closestHit(double ox, double oy, double oz, double dx, double dy, double dz,
+                              WorldObject[] excluded, int excludedCount, double minDistance,
+                              TraceScratch scratch) {
+        if (sourceSize == 0) {
+            return false;
+        }
+        HitRecord closest = scratch.hit;
+        HitRecord candidate = scratch.candidate;
+        int[] stack = scratch.bvhStack;
+        int tests = 1;
+
+        double invX = 1.0 / dx, invY = 1.0 / dy, invZ = 1.0 / dz;
+
+        boolean found = false;
+        double closestDistance = Double.MAX_VALUE;
+        int closestIndex = Integer.MAX_VALUE;
+
+        int stackSize = 0;
+
+        if (nodeEntry(0, ox, oy, oz, dx, dy, dz, invX, invY, invZ, minDistance) == Double.POSITIVE_INFINITY) {
+            scratch.boxTests += tests;
+            return false;
+        }
+        stack[stackSize++] = 0;
+
+        while (stackSize > 0) {
+            int node = stack[--stackSize];
+            int data = nodeData[node * 2];
+            int count = nodeData[node * 2 + 1];
+
+            if (count > 0) {
+                for (int i = data; i < data + count; i++) {
+                    WorldObject obj = primitives[i];
+                    if (contains(excluded, excludedCount, obj)) continue;
+
+                    tests++;
+                    if (!RaycastUtil.rayIntersectsAABB(ox, oy, oz, dx, dy, dz, obj, candidate)) continue;
+
+                    double distance = candidate.distance;
+                    if (distance <= minDistance) continue;
+
+                    int index = primitiveIndices[i];
+                    if (distance < closestDistance || (distance == closestDistance && index < closestIndex)) {
+                        closestDistance = distance;
+                        closest.set(candidate);
+                        closestIndex = index;
+                        found = true;
+                    }
+                }
+                continue;
+            }
+
+            int left = data;
+            int right = data + 1;
+            double tLeft = nodeEntry(left, ox, oy, oz, dx, dy, dz, invX, invY, invZ, minDistance);
+            double tRight = nodeEntry(right, ox, oy, oz, dx, dy, dz, invX, invY, invZ, minDistance);
+            tests += 2;
+
+            boolean visitLeft = tLeft - EPSILON <= closestDistance;
+            boolean visitRight = tRight - EPSILON <= closestDistance;
+
+            if (visitLeft && visitRight) {
+                if (tLeft <= tRight) {
+                    stack[stackSize++] = right;
+                    stack[stackSize++] = left;
+                } else {
+                    stack[stackSize++] = left;
+                    stack[stackSize++] = right;
+                }
+            } else if (visitLeft) {
+                stack[stackSize++] = left;
+            } else if (visitRight) {
+                stack[stackSize++] = right;
+            }
+        }
+
+        scratch.boxTests += tests;
+        return found;
+    }
+
+    static boolean contains(WorldObject[] objects, int count, WorldObject object) {
+        for (int i = 0; i < count; i++) {
+            if (objects[i] == object) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Conservative slab test mirroring {@link RaycastUtil#rayIntersectsAABB}: returns a
+     * lower bound on the entry distance of anything inside the node, or +infinity on a miss.
+     */
+    private double nodeEntry(int node, double ox, double oy, double oz,
+                             double dx, double dy, double dz,
+                             double invX, double invY, double invZ, double minDistance) {
+        int o = node * 6;
+        double tMin = Double.NEGATIVE_INFINITY;
+        double tMax = Double.POSITIVE_INFINITY;
+
+        if (Math.abs(dx) < EPSILON) {
+            if (ox < nodeBounds[o] || ox > nodeBounds[o + 3]) return Double.POSITIVE_INFINITY;
+        } else {
+            double t0 = (nodeBounds[o] - ox) * invX;
+            double t1 = (nodeBounds[o + 3] - ox) * invX;
+            tMin = Math.max(tMin, Math.min(t0, t1));
+            tMax = Math.min(tMax, Math.max(t0, t1));
+        }
+
+        if (Math.abs(dy) < EPSILON) {
+            if (oy < nodeBounds[o + 1] || oy > nodeBounds[o + 4]) return Double.POSITIVE_INFINITY;
+        } else {
+            double t0 = (nodeBounds[o + 1] - oy) * invY;
+            double t1 = (nodeBounds[o + 4] - oy) * invY;
+            tMin = Math.max(tMin, Math.min(t0, t1));
+            tMax = Math.min(tMax, Math.max(t0, t1));
+        }
+
+        if (Math.abs(dz) < EPSILON) {
+            if (oz < nodeBounds[o + 2] || oz > nodeBounds[o + 5]) return Double.POSITIVE_INFINITY;
+        } else {
+            double t0 = (nodeBounds[o + 2] - oz) * invZ;
+            double t1 = (nodeBounds[o + 5] - oz) * invZ;
+            tMin = Math.max(tMin, Math.min(t0, t1));
+            tMax = Math.min(tMax, Math.max(t0, t1));
+        }
+
+        if (tMax < tMin - EPSILON || tMax + EPSILON <= minDistance) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return tMin;
+    }
+}
@@ -0,0 +1,35 @@
+package mc.toriset.raytracing.raycast;
+
+/**
+ * Tests one ray against every box in a {@link PackedBoxes}. For each box the kernel writes a lower
+ * bound on the distance at which {@code RaycastUtil.rayIntersectsAABBWithDistance} could report a
+ * hit, or positive infinity when that test is guaranteed to miss or to land at or below
+ * {@code minDistance}. Kernels only cull; the exact hit is still computed by the scalar test.
+ */
+public interface BoxKernel {
+    double EPSILON = 0.0001;
+
+    void entryDistances(PackedBoxes boxes, double ox, double oy, double oz,
+                        double dx, double dy, double dz, double minDistance, double[] out);
+
+    String getName();
+
+    static BoxKernel select() {
+        boolean simdRequested = !"false".equalsIgnoreCase(System.getProperty("raytracer.simd"));
+        boolean vectorModulePresent = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+
+        if (simdRequested && vectorModulePresent) {
+            try {
+
+                // Loaded reflectively so the class is never resolved when the incubator module is absent.
+                return (BoxKernel) Class.forName("mc.toriset.raytracing.raycast.SimdBoxKernel")
+                        .getDeclaredConstructor()
+                        .newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                System.out.println("SIMD box kernel unavailable, using scalar: " + e);
+            }
+        }
+
+        return new ScalarBoxKernel();
+    }
+}
@@ -0,0 +1,36 @@
+package mc.toriset.raytracing.raycast;
+
+import mc.toriset.raytracing.math.Vector3D;
+import mc.toriset.raytracing.world.WorldObject;
+
+/**
+ * Mutable, primitive counterpart of {@link RaycastResult}. Records are owned by a
+ * {@link TraceScratch} and overwritten on every query, so they must be copied to be kept.
+ */
+public class HitRecord {
+    public double distance;
+    public double x, y, z;
+    public double normalX, normalY, normalZ;
+    public WorldObject object;
+
+    public void set(HitRecord other) {
+        this.distance = other.distance;
+        this.x = other.x;
+        this.y = other.y;
+        this.z = other.z;
+        this.normalX = other.normalX;
+        this.normalY = other.normalY;
+        this.normalZ = other.normalZ;
+        this.object = other.object;
+    }
+
+    public void setNormal(double normalX, double normalY, double normalZ) {
+        this.normalX = normalX;
+        this.normalY = normalY;
+        this.normalZ = normalZ;
+    }
+
+    public RaycastResult toResult() {
+        return new RaycastResult(new Vector3D(x, y, z), new Vector3D(normalX, normalY, normalZ), object, distance);
+    }
+}
@@ -0,0 +1,56 @@
+package mc.toriset.raytracing.raycast;
+
+import mc.toriset.raytracing.math.AABB;
+import mc.toriset.raytracing.world.WorldObject;
+
+import java.util.List;
+
+/**
+ * Structure-of-arrays copy of the scene boxes: one contiguous array per bound component, in the
+ * same order as the source list, so a kernel can stream through them without touching
+ * {@link AABB} or {@link mc.toriset.raytracing.math.Vector3D} objects.
+ */
+public class PackedBoxes {
+    public final double[] minX;
+    public final double[] minY;
+    public final double[] minZ;
+    public final double[] maxX;
+    public final double[] maxY;
+    public final double[] maxZ;
+    public final WorldObject[] objects;
+    public final int size;
+
+    private final List<WorldObject> source;
+
+    private PackedBoxes(List<WorldObject> objects) {
+        this.source = objects;
+        this.size = objects.size();
+        this.minX = new double[size];
+        this.minY = new double[size];
+        this.minZ = new double[size];
+        this.maxX = new double[size];
+        this.maxY = new double[size];
+        this.maxZ = new double[size];
+        this.objects = new WorldObject[size];
+    }
+
+    public static PackedBoxes build(List<WorldObject> objects) {
+        PackedBoxes packed = new PackedBoxes(objects);
+        for (int i = 0; i < packed.size; i++) {
+            WorldObject obj = objects.get(i);
+            AABB box = obj.boundingBox;
+            packed.minX[i] = box.getMinX();
+            packed.minY[i] = box.getMinY();
+            packed.minZ[i] = box.getMinZ();
+            packed.maxX[i] = box.getMaxX();
+            packed.maxY[i] = box.getMaxY();
+            packed.maxZ[i] = box.getMaxZ();
+            packed.objects[i] = obj;
+        }
+        return packed;
+    }
+
+    public boolean isBuiltFrom(List<WorldObject> objects) {
+        return objects == source && objects.size() == size;
+    }
+}
@@ -1,229 +1,584 @@
 package mc.toriset.raytracing.raycast;
 
 import mc.toriset.raytracing.math.Vector3D;
+import mc.toriset.raytracing.render.RenderEvents;
 import mc.toriset.raytracing.util.RaycastUtil;
 import mc.toriset.raytracing.world.World;
 import mc.toriset.raytracing.world.WorldObject;
 
 import java.awt.*;
 import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.Random;
-import java.util.Set;
+import java.util.List;
 
 public class RaycastPath {
-    private static final int MAX_BOUNCES = 5;
+    public static final int MAX_BOUNCES = 5;
+    // Each traced ray records at most one hit and spawns at most two more rays.
+    static final int MAX_PATH_HITS = (1 << MAX_BOUNCES) - 1;
     private static final double AIR_REFRACTIVE_INDEX = 1.0;
     private static final double RAY_BIAS = 0.001;
-    private static final Random random = new Random(42);
+
+    // Random dimensions of a sample: the pixel offset first, then a fixed block per path vertex
+    // (reflected and refracted roughness, branch choice, roulette).
+    public static final int PIXEL_DIMENSIONS = 2;
+    private static final int DIMENSIONS_PER_VERTEX = 6;
+    private static final int REFLECT_ROUGHNESS_DIMENSION = 0;
+    private static final int REFRACT_ROUGHNESS_DIMENSION = 2;
+    private static final int BRANCH_DIMENSION = 4;
+    private static final int ROULETTE_DIMENSION = 5;
+
+    public enum Traversal {
+        LINEAR,
+        PACKED,
+        BVH
+    }
+
+    public static Traversal traversal = Traversal.BVH;
+
+    public enum Estimator {
+        RAY_TREE,
+        SINGLE_PATH
+    }
+
+    public static Estimator estimator = Estimator.RAY_TREE;
+
+    // Rays stop at this depth; at most MAX_BOUNCES. Lowered for cheap previews while moving.
+    public static int bounceLimit = MAX_BOUNCES;
+
+    // Single-path rays at or beyond this depth may be terminated by Russian roulette.
+    private static final int ROULETTE_START_DEPTH = 2;
+    private static final float MIN_SURVIVAL_PROBABILITY = 0.05f;
+
+    private static final BoxKernel boxKernel = BoxKernel.select();
 
     public final ArrayList<RaycastResult> hits;
+    private final int color;
 
-    public RaycastPath(ArrayList<RaycastResult> hits) {
+    public RaycastPath(ArrayList<RaycastResult> hits, int color) {
         this.hits = hits;
+        this.color = color;
     }
 
+    /**
+     * Inspection entry point: traces one sample like {@link #traceSample} but also records every
+     * hit as a {@link RaycastResult}. Allocates per hit, so it is meant for debugging and tools,
+     * not for the render loop.
+     */
     public static RaycastPath start(Vector3D trueOrigin, Vector3D trueDirection) {
-        ArrayList<RaycastResult> results = new ArrayList<>();
-        Set<WorldObject> recentHits = new HashSet<>();
-        traceRay(trueOrigin, trueDirection, 1.0f, AIR_REFRACTIVE_INDEX, 0, results, recentHits);
-        return new RaycastPath(results);
+        TraceScratch scratch = TraceScratch.get();
+        int color;
+
+        scratch.recordHits = true;
+        try {
+            color = trace(scratch, trueOrigin.x, trueOrigin.y, trueOrigin.z,
+                    trueDirection.x, trueDirection.y, trueDirection.z);
+        } finally {
+            scratch.recordHits = false;
+        }
+
+        ArrayList<RaycastResult> results = new ArrayList<>(scratch.pathHitCount);
+        for (int i = 0; i < scratch.pathHitCount; i++) {
+            results.add(scratch.pathHits[i].toResult());
+        }
+        return new RaycastPath(results, color);
+    }
+
+    /**
+     * Traces one sample with the current {@link #estimator} and returns its colour as packed
+     * 0xRRGGBB. Radiance is accumulated while the rays are traced, and the unclamped channels stay
+     * readable through {@link TraceScratch#getRed()} and friends until the thread's next sample.
+     * Uses only the calling thread's {@link TraceScratch}, so it does not allocate once the
+     * scratch is warm.
+     */
+    public static int traceSample(double ox, double oy, double oz, double dx, double dy, double dz) {
+        return trace(TraceScratch.get(), ox, oy, oz, dx, dy, dz);
+    }
+
+    /**
+     * Finds only the first surface along a primary ray, without shading it. The hit is left in
+     * {@link TraceScratch#getPrimaryHit()}; returns whether there was one.
+     */
+    public static boolean tracePrimary(double ox, double oy, double oz, double dx, double dy, double dz) {
+        TraceScratch scratch = TraceScratch.get();
+        scratch.primaryHit = findClosestHit(scratch, ox, oy, oz, dx, dy, dz, scratch.exclusions[0], 0, 0);
+        if (scratch.primaryHit) {
+            scratch.primary.set(scratch.hit);
+        }
+        return scratch.primaryHit;
     }
 
-    private static void traceRay(Vector3D origin, Vector3D direction, float energy,
-                                 double currentRI, int depth, ArrayList<RaycastResult> results,
-                                 Set<WorldObject> recentHits) {
-        if (depth >= MAX_BOUNCES || energy < 0.01f) {
+    private static int trace(TraceScratch scratch, double ox, double oy, double oz,
+                             double dx, double dy, double dz) {
+        scratch.pathHitCount = 0;
+        scratch.primaryHit = false;
+        scratch.vertexCount = 0;
+        scratch.exclusionCounts[0] = 0;
+        scratch.red = 0;
+        scratch.green = 0;
+        scratch.blue = 0;
+        scratch.sampleDepth = 0;
+
+        RenderEvents.PathEvent event = null;
+        if (RenderEvents.enabled && --scratch.pathEventCountdown <= 0) {
+            scratch.pathEventCountdown = RenderEvents.pathSampleInterval;
+            event = new RenderEvents.PathEvent();
+            event.begin();
+        }
+        long boxTestsBefore = scratch.boxTests;
+
+        if (estimator == Estimator.SINGLE_PATH) {
+            tracePath(scratch, ox, oy, oz, dx, dy, dz);
+        } else {
+            traceRay(scratch, ox, oy, oz, dx, dy, dz, 1.0f, AIR_REFRACTIVE_INDEX, 0);
+        }
+        scratch.deepestBounce[scratch.sampleDepth]++;
+
+        if (event != null && event.shouldCommit()) {
+            commitPathEvent(event, scratch, scratch.boxTests - boxTestsBefore);
+        }
+
+        return scratch.packRadiance();
+    }
+
+    private static void commitPathEvent(RenderEvents.PathEvent event, TraceScratch scratch, long boxTests) {
+        event.x = scratch.sampleX;
+        event.y = scratch.sampleY;
+        event.depth = scratch.sampleDepth;
+        event.boxTests = boxTests;
+        event.object = -1;
+        if (scratch.primaryHit) {
+            WorldObject object = scratch.primary.object;
+            event.object = World.objects.indexOf(object);
+            event.reflectivity = object.reflectivity;
+            event.transparency = object.transparency;
+            event.refractiveIndex = object.refractiveIndex;
+        }
+        event.commit();
+    }
+
+    /**
+     * Single-path estimator of the ray tree traced by {@link #traceRay}. Instead of following
+     * both branches this picks one with probability proportional to its share and divides by that
+     * probability, and from {@link #ROULETTE_START_DEPTH} on ends paths by Russian roulette with
+     * matching reweighting. Cost is one ray per bounce and the expected value equals the tree's.
+     */
+    private static void tracePath(TraceScratch scratch, double ox, double oy, double oz,
+                                  double dx, double dy, double dz) {
+        HitRecord hit = scratch.hit;
+        if (!findClosestHit(scratch, ox, oy, oz, dx, dy, dz, scratch.exclusions[0], 0, 0)) {
             return;
         }
+        scratch.primary.set(hit);
+        scratch.primaryHit = true;
+
+        // throughput is the estimator weight; energy is the deterministic energy the tree would
+        // carry down the chosen branch, which decides where the tree itself stops tracing.
+        float throughput = 1.0f;
+        float energy = 1.0f;
+        double currentRI = AIR_REFRACTIVE_INDEX;
+
+        for (int depth = 0; ; depth++) {
+            if (scratch.recordHits) {
+                scratch.pathHits[scratch.pathHitCount++].set(hit);
+            }
 
-        RaycastResult closestResult = null;
-        double closestDistance = Double.MAX_VALUE;
+            WorldObject hitObject = hit.object;
+            double hx = hit.x, hy = hit.y, hz = hit.z;
+            double nx = hit.normalX, ny = hit.normalY, nz = hit.normalZ;
 
-        for (WorldObject obj : World.objects) {
-            if (recentHits.contains(obj)) continue;
+            float reflectivity = Math.min(hitObject.reflectivity, 1.0f);
+            float transparency = Math.min(hitObject.transparency, 1.0f - reflectivity);
+            float roughness = hitObject.roughness;
+
+            boolean entering = dx * nx + dy * ny + dz * nz < 0;
+            if (!entering) {
+                nx = -nx;
+                ny = -ny;
+                nz = -nz;
+            }
 
-            RaycastResult result = RaycastUtil.rayIntersectsAABBWithDistance(origin, direction, obj);
-            if (result == null) continue;
+            boolean canContinue = depth + 1 < bounceLimit;
+            float reflectWeight = canContinue && energy * reflectivity > 0.01f ? reflectivity : 0;
+            float refractWeight = canContinue && energy * transparency > 0.01f ? transparency : 0;
 
-            if (result.getDistance() < closestDistance && result.getDistance() > RAY_BIAS) {
-                closestDistance = result.getDistance();
-                closestResult = result;
+            scratch.deposit(hitObject, throughput * (1.0f - reflectWeight - refractWeight));
+
+            float continueWeight = reflectWeight + refractWeight;
+            if (continueWeight <= 0) {
+                break;
+            }
+
+            deriveExclusions(scratch, depth, hitObject, entering);
+
+            int dimension = vertexDimension(depth);
+            boolean chooseReflection = scratch.random(dimension + BRANCH_DIMENSION) * continueWeight < reflectWeight;
+            float branchThroughput = throughput * continueWeight;
+
+            if (depth + 1 >= ROULETTE_START_DEPTH) {
+                float survival = Math.max(MIN_SURVIVAL_PROBABILITY, Math.min(1.0f, energy * continueWeight));
+                if (scratch.random(dimension + ROULETTE_DIMENSION) >= survival) {
+                    break;
+                }
+                branchThroughput /= survival;
+            }
+
+            double nextRI = currentRI;
+            if (chooseReflection) {
+                reflect(scratch, dx, dy, dz, nx, ny, nz);
+                energy *= reflectivity;
+            } else {
+                double n1 = entering ? currentRI : hitObject.refractiveIndex;
+                double n2 = entering ? hitObject.refractiveIndex : AIR_REFRACTIVE_INDEX;
+
+                double cosI = Math.abs(nx * dx + ny * dy + nz * dz);
+                double sinT2 = (n1 / n2) * (n1 / n2) * (1.0 - cosI * cosI);
+
+                if (sinT2 < 1.0) {
+                    refract(scratch, dx, dy, dz, nx, ny, nz, n1, n2);
+                    nextRI = entering ? hitObject.refractiveIndex : AIR_REFRACTIVE_INDEX;
+                } else {
+                    reflect(scratch, dx, dy, dz, nx, ny, nz);
+                }
+                energy *= transparency;
+            }
+
+            applyRoughness(scratch, scratch.outX, scratch.outY, scratch.outZ, nx, ny, nz, roughness,
+                    dimension + REFLECT_ROUGHNESS_DIMENSION);
+            dx = scratch.outX;
+            dy = scratch.outY;
+            dz = scratch.outZ;
+            ox = hx + dx * RAY_BIAS;
+            oy = hy + dy * RAY_BIAS;
+            oz = hz + dz * RAY_BIAS;
+            currentRI = nextRI;
+
+            if (!findClosestHit(scratch, ox, oy, oz, dx, dy, dz,
+                    scratch.exclusions[depth + 1], scratch.exclusionCounts[depth + 1], depth + 1)) {
+                scratch.deposit(hitObject, branchThroughput);
+                break;
             }
+
+            throughput = branchThroughput;
         }
+    }
 
-        if (closestResult == null) {
-            return;
+    /**
+     * Traces the full reflection/refraction tree and accumulates its radiance into the scratch as
+     * it goes. Each hit splits its energy into an absorbed, a reflected and a refracted share; the
+     * absorbed share, and any share that is not traced further or whose ray escapes, is deposited
+     * in the colour of the hit surface. Returns whether the ray hit anything.
+     */
+    private static boolean traceRay(TraceScratch scratch, double ox, double oy, double oz,
+                                    double dx, double dy, double dz, float energy,
+                                    double currentRI, int depth) {
+        if (depth >= bounceLimit || energy < 0.01f) {
+            return false;
         }
 
-        results.add(closestResult);
+        HitRecord hit = scratch.hit;
+        if (!findClosestHit(scratch, ox, oy, oz, dx, dy, dz,
+                scratch.exclusions[depth], scratch.exclusionCounts[depth], depth)) {
+            return false;
+        }
 
-        WorldObject hitObject = closestResult.getObject();
-        Vector3D hitPoint = closestResult.getHitPoint();
-        Vector3D normal = closestResult.getNormal();
+        if (scratch.recordHits) {
+            scratch.pathHits[scratch.pathHitCount++].set(hit);
+        }
+        if (depth == 0) {
+            scratch.primary.set(hit);
+            scratch.primaryHit = true;
+        }
 
-        Set<WorldObject> nextHits = new HashSet<>(recentHits);
-        nextHits.add(hitObject);
+        WorldObject hitObject = hit.object;
+        double hx = hit.x, hy = hit.y, hz = hit.z;
+        double nx = hit.normalX, ny = hit.normalY, nz = hit.normalZ;
 
         float reflectivity = Math.min(hitObject.reflectivity, 1.0f);
         float transparency = Math.min(hitObject.transparency, 1.0f - reflectivity);
         float roughness = hitObject.roughness;
 
-        boolean entering = direction.dot(normal) < 0;
+        boolean entering = dx * nx + dy * ny + dz * nz < 0;
 
         if (!entering) {
-            normal = normal.multiply(-1);
-            nextHits.remove(hitObject);
+            nx = -nx;
+            ny = -ny;
+            nz = -nz;
         }
 
+        deriveExclusions(scratch, depth, hitObject, entering);
+
+        // Tree vertices are numbered in traversal order, which is fixed for a given sample.
+        int dimension = vertexDimension(scratch.vertexCount++);
+
         float reflectedEnergy = energy * reflectivity;
         float refractedEnergy = energy * transparency;
 
-        if (reflectedEnergy > 0.01f) {
-
-            Vector3D perfectReflection = calculateReflection(direction, normal);
+        scratch.deposit(hitObject, energy - reflectedEnergy - refractedEnergy);
 
-            Vector3D roughReflection = applyRoughness(perfectReflection, normal, roughness);
+        boolean reflectedHit = false;
+        boolean refractedHit = false;
 
-            Vector3D reflectionOrigin = hitPoint.add(roughReflection.multiply(RAY_BIAS));
+        if (reflectedEnergy > 0.01f) {
+            reflect(scratch, dx, dy, dz, nx, ny, nz);
+            applyRoughness(scratch, scratch.outX, scratch.outY, scratch.outZ, nx, ny, nz, roughness,
+                    dimension + REFLECT_ROUGHNESS_DIMENSION);
+            double rx = scratch.outX, ry = scratch.outY, rz = scratch.outZ;
 
-            traceRay(reflectionOrigin, roughReflection, reflectedEnergy, currentRI, depth + 1, results, nextHits);
+            reflectedHit = traceRay(scratch, hx + rx * RAY_BIAS, hy + ry * RAY_BIAS, hz + rz * RAY_BIAS,
+                    rx, ry, rz, reflectedEnergy, currentRI, depth + 1);
         }
 
         if (refractedEnergy > 0.01f) {
             double n1 = entering ? currentRI : hitObject.refractiveIndex;
             double n2 = entering ? hitObject.refractiveIndex : AIR_REFRACTIVE_INDEX;
 
-            double cosI = Math.abs(normal.dot(direction));
+            double cosI = Math.abs(nx * dx + ny * dy + nz * dz);
             double sinT2 = (n1 / n2) * (n1 / n2) * (1.0 - cosI * cosI);
 
             if (sinT2 < 1.0) {
-
-                Vector3D perfectRefraction = calculateRefraction(direction, normal, n1, n2);
-
-                Vector3D roughRefraction = applyRoughness(perfectRefraction, normal, roughness);
-
-                Vector3D refractionOrigin = hitPoint.add(roughRefraction.multiply(RAY_BIAS));
+                refract(scratch, dx, dy, dz, nx, ny, nz, n1, n2);
+                applyRoughness(scratch, scratch.outX, scratch.outY, scratch.outZ, nx, ny, nz, roughness,
+                        dimension + REFRACT_ROUGHNESS_DIMENSION);
+                double tx = scratch.outX, ty = scratch.outY, tz = scratch.outZ;
 
                 double nextRI = entering ? hitObject.refractiveIndex : AIR_REFRACTIVE_INDEX;
 
-                traceRay(refractionOrigin, roughRefraction, refractedEnergy, nextRI, depth + 1, results, nextHits);
+                refractedHit = traceRay(scratch, hx + tx * RAY_BIAS, hy + ty * RAY_BIAS, hz + tz * RAY_BIAS,
+                        tx, ty, tz, refractedEnergy, nextRI, depth + 1);
             } else {
+                reflect(scratch, dx, dy, dz, nx, ny, nz);
+                applyRoughness(scratch, scratch.outX, scratch.outY, scratch.outZ, nx, ny, nz, roughness,
+                        dimension + REFRACT_ROUGHNESS_DIMENSION);
+                double rx = scratch.outX, ry = scratch.outY, rz = scratch.outZ;
+
+                refractedHit = traceRay(scratch, hx + rx * RAY_BIAS, hy + ry * RAY_BIAS, hz + rz * RAY_BIAS,
+                        rx, ry, rz, refractedEnergy, currentRI, depth + 1);
+            }
+        }
+
+        if (!reflectedHit) {
+            scratch.deposit(hitObject, reflectedEnergy);
+        }
+        if (!refractedHit) {
+            scratch.deposit(hitObject, refractedEnergy);
+        }
+        return true;
+    }
 
-                Vector3D perfectReflection = calculateReflection(direction, normal);
-                Vector3D roughReflection = applyRoughness(perfectReflection, normal, roughness);
-                Vector3D reflectionOrigin = hitPoint.add(roughReflection.multiply(RAY_BIAS));
+    // Children of a hit skip the hit object while inside it and stop skipping it once they exit.
+    private static void deriveExclusions(TraceScratch scratch, int depth, WorldObject hitObject, boolean entering) {
+        WorldObject[] current = scratch.exclusions[depth];
+        int currentCount = scratch.exclusionCounts[depth];
+        WorldObject[] next = scratch.exclusions[depth + 1];
+        int nextCount = 0;
 
-                traceRay(reflectionOrigin, roughReflection, refractedEnergy, currentRI, depth + 1, results, nextHits);
+        for (int i = 0; i < currentCount; i++) {
+            if (current[i] != hitObject) {
+                next[nextCount++] = current[i];
             }
         }
+        if (entering) {
+            next[nextCount++] = hitObject;
+        }
+
+        scratch.exclusionCounts[depth + 1] = nextCount;
     }
 
-    private static Vector3D applyRoughness(Vector3D direction, Vector3D normal, float roughness) {
-        if (roughness <= 0.001f) {
-            return direction;
+    // Depth is 0 for primary rays; it only feeds the counters.
+    private static boolean findClosestHit(TraceScratch scratch, double ox, double oy, double oz,
+                                          double dx, double dy, double dz,
+                                          WorldObject[] excluded, int excludedCount, int depth) {
+        scratch.rays++;
+        if (depth == 0) {
+            scratch.primaryRays++;
+        } else {
+            scratch.secondaryRays++;
+            scratch.sampleDepth = Math.max(scratch.sampleDepth, depth);
         }
 
-        Vector3D tangent = createTangent(normal);
-        Vector3D bitangent = normal.cross(tangent);
+        HitRecord hit = scratch.hit;
+        boolean found = findClosestObjectHit(scratch, ox, oy, oz, dx, dy, dz, excluded, excludedCount);
 
-        double perturbScale = roughness * Math.PI * 0.5;
+        if (!World.voxels.isEmpty()) {
+            double limit = found ? hit.distance : Double.POSITIVE_INFINITY;
+            if (World.voxels.raycast(ox, oy, oz, dx, dy, dz, RAY_BIAS, limit, scratch.candidate)) {
+                hit.set(scratch.candidate);
+                found = true;
+            }
+        }
+        if (!found) {
+            scratch.misses++;
+        }
+        return found;
+    }
 
-        double theta = random.nextDouble() * 2.0 * Math.PI;
-        double phi = random.nextDouble() * perturbScale;
+    private static boolean findClosestObjectHit(TraceScratch scratch, double ox, double oy, double oz,
+                                                double dx, double dy, double dz,
+                                                WorldObject[] excluded, int excludedCount) {
+        if (traversal == Traversal.BVH) {
+            return World.getBVH().closestHit(ox, oy, oz, dx, dy, dz, excluded, excludedCount, RAY_BIAS, scratch);
+        }
 
-        double sinPhi = Math.sin(phi);
-        double x = Math.cos(theta) * sinPhi;
-        double y = Math.sin(theta) * sinPhi;
-        double z = Math.cos(phi);
+        if (traversal == Traversal.PACKED) {
+            return packedClosestHit(scratch, ox, oy, oz, dx, dy, dz, excluded, excludedCount);
+        }
 
-        Vector3D worldPerturbation = tangent.multiply(x).add(bitangent.multiply(y)).add(normal.multiply(z));
+        HitRecord candidate = scratch.candidate;
+        boolean found = false;
+        double closestDistance = Double.MAX_VALUE;
 
-        Vector3D mixedDirection = direction.multiply(1 - roughness).add(worldPerturbation.multiply(roughness));
+        List<WorldObject> objects = World.objects;
+        for (int i = 0; i < objects.size(); i++) {
+            WorldObject obj = objects.get(i);
+            if (BVH.contains(excluded, excludedCount, obj)) continue;
 
-        return mixedDirection.normalize();
+            scratch.boxTests++;
+            if (!RaycastUtil.rayIntersectsAABB(ox, oy, oz, dx, dy, dz, obj, candidate)) continue;
+
+            if (candidate.distance < closestDistance && candidate.distance > RAY_BIAS) {
+                closestDistance = candidate.distance;
+                scratch.hit.set(candidate);
+                found = true;
+            }
+        }
+
+        return found;
     }
 
-    private static Vector3D createTangent(Vector3D normal) {
+    private static boolean packedClosestHit(TraceScratch scratch, double ox, double oy, double oz,
+                                            double dx, double dy, double dz,
+                                            WorldObject[] excluded, int excludedCount) {
+        PackedBoxes boxes = World.getPackedBoxes();
 
-        if (Math.abs(normal.getX()) < Math.abs(normal.getY()) && Math.abs(normal.getX()) < Math.abs(normal.getZ())) {
-            return new Vector3D(0, normal.getZ(), -normal.getY()).normalize();
-        } else if (Math.abs(normal.getY()) < Math.abs(normal.getZ())) {
-            return new Vector3D(normal.getZ(), 0, -normal.getX()).normalize();
-        } else {
-            return new Vector3D(normal.getY(), -normal.getX(), 0).normalize();
+        double[] entries = scratch.entryDistances;
+        if (entries.length < boxes.size) {
+            entries = new double[boxes.size];
+            scratch.entryDistances = entries;
         }
-    }
 
-    private static Vector3D calculateReflection(Vector3D incident, Vector3D normal) {
-        double dot = incident.dot(normal);
-        return incident.subtract(normal.multiply(2 * dot)).normalize();
-    }
+        boxKernel.entryDistances(boxes, ox, oy, oz, dx, dy, dz, RAY_BIAS, entries);
+        scratch.boxTests += boxes.size;
 
-    private static Vector3D calculateRefraction(Vector3D incident, Vector3D normal, double n1, double n2) {
-        incident = incident.normalize();
-        double ratio = n1 / n2;
-        double cosI = -normal.dot(incident);
-        double sinT2 = ratio * ratio * (1.0 - cosI * cosI);
+        HitRecord candidate = scratch.candidate;
+        boolean found = false;
+        double closestDistance = Double.MAX_VALUE;
 
-        if (sinT2 >= 1.0) {
+        for (int i = 0; i < boxes.size; i++) {
+            if (entries[i] - BoxKernel.EPSILON > closestDistance) continue;
+
+            WorldObject obj = boxes.objects[i];
+            if (BVH.contains(excluded, excludedCount, obj)) continue;
 
-            return calculateReflection(incident, normal);
+            scratch.boxTests++;
+            if (!RaycastUtil.rayIntersectsAABB(ox, oy, oz, dx, dy, dz, obj, candidate)) continue;
+
+            if (candidate.distance < closestDistance && candidate.distance > RAY_BIAS) {
+                closestDistance = candidate.distance;
+                scratch.hit.set(candidate);
+                found = true;
+            }
         }
 
-        double cosT = Math.sqrt(1.0 - sinT2);
-        return incident.multiply(ratio).add(normal.multiply(ratio * cosI - cosT)).normalize();
+        return found;
     }
 
-    public Color calculateColor() {
-        if (hits.isEmpty()) {
-            return Color.BLACK;
+    public static String getBoxKernelName() {
+        return boxKernel.getName();
+    }
+
+    private static int vertexDimension(int vertex) {
+        return PIXEL_DIMENSIONS + vertex * DIMENSIONS_PER_VERTEX;
+    }
+
+    private static void applyRoughness(TraceScratch scratch, double dx, double dy, double dz,
+                                       double nx, double ny, double nz, float roughness, int dimension) {
+        if (roughness <= 0.001f) {
+            scratch.outX = dx;
+            scratch.outY = dy;
+            scratch.outZ = dz;
+            return;
         }
 
-        float rFinal = 0;
-        float gFinal = 0;
-        float bFinal = 0;
+        double tx, ty, tz;
+        if (Math.abs(nx) < Math.abs(ny) && Math.abs(nx) < Math.abs(nz)) {
+            tx = 0; ty = nz; tz = -ny;
+        } else if (Math.abs(ny) < Math.abs(nz)) {
+            tx = nz; ty = 0; tz = -nx;
+        } else {
+            tx = ny; ty = -nx; tz = 0;
+        }
+        double tLen = Math.sqrt(tx * tx + ty * ty + tz * tz);
+        if (tLen > 0) {
+            tx /= tLen;
+            ty /= tLen;
+            tz /= tLen;
+        } else {
+            tx = 0; ty = 0; tz = 0;
+        }
 
-        float energyRemaining = 1.0f;
-        float totalEnergyAccounted = 0.0f;
+        double bx = ny * tz - nz * ty;
+        double by = nz * tx - nx * tz;
+        double bz = nx * ty - ny * tx;
 
-        for (int i = 0; i < hits.size(); i++) {
-            WorldObject obj = hits.get(i).getObject();
+        double perturbScale = roughness * Math.PI * 0.5;
 
-            float reflectivity = Math.min(obj.reflectivity, 1.0f);
-            float transparency = Math.min(obj.transparency, 1.0f - reflectivity);
+        double theta = scratch.random(dimension) * 2.0 * Math.PI;
+        double phi = scratch.random(dimension + 1) * perturbScale;
 
-            float absorption = 1.0f - reflectivity - transparency;
+        double sinPhi = Math.sin(phi);
+        double x = Math.cos(theta) * sinPhi;
+        double y = Math.sin(theta) * sinPhi;
+        double z = Math.cos(phi);
 
-            if (i == hits.size() - 1) {
-                absorption = 1.0f;
-            }
+        double px = tx * x + bx * y + nx * z;
+        double py = ty * x + by * y + ny * z;
+        double pz = tz * x + bz * y + nz * z;
 
-            float energyAbsorbed = energyRemaining * absorption;
-            totalEnergyAccounted += energyAbsorbed;
+        double keep = 1 - roughness;
+        normalizeInto(scratch, dx * keep + px * roughness, dy * keep + py * roughness, dz * keep + pz * roughness);
+    }
 
-            rFinal += obj.baseColor.getRed() * energyAbsorbed;
-            gFinal += obj.baseColor.getGreen() * energyAbsorbed;
-            bFinal += obj.baseColor.getBlue() * energyAbsorbed;
+    private static void reflect(TraceScratch scratch, double ix, double iy, double iz,
+                                double nx, double ny, double nz) {
+        double dot = ix * nx + iy * ny + iz * nz;
+        normalizeInto(scratch, ix - nx * (2 * dot), iy - ny * (2 * dot), iz - nz * (2 * dot));
+    }
 
-            energyRemaining *= (1.0f - absorption);
+    private static void refract(TraceScratch scratch, double ix, double iy, double iz,
+                                double nx, double ny, double nz, double n1, double n2) {
+        normalizeInto(scratch, ix, iy, iz);
+        ix = scratch.outX;
+        iy = scratch.outY;
+        iz = scratch.outZ;
 
-            if (energyRemaining < 0.001f) {
-                break;
-            }
+        double ratio = n1 / n2;
+        double cosI = -(nx * ix + ny * iy + nz * iz);
+        double sinT2 = ratio * ratio * (1.0 - cosI * cosI);
+
+        if (sinT2 >= 1.0) {
+
+            reflect(scratch, ix, iy, iz, nx, ny, nz);
+            return;
         }
 
-        if (totalEnergyAccounted < 0.999f) {
-            float remainingEnergy = 1.0f - totalEnergyAccounted;
-            rFinal += 0 * remainingEnergy;
-            gFinal += 0 * remainingEnergy;
-            bFinal += 0 * remainingEnergy;
+        double cosT = Math.sqrt(1.0 - sinT2);
+        double k = ratio * cosI - cosT;
+        normalizeInto(scratch, ix * ratio + nx * k, iy * ratio + ny * k, iz * ratio + nz * k);
+    }
+
+    private static void normalizeInto(TraceScratch scratch, double x, double y, double z) {
+        double len = Math.sqrt(x * x + y * y + z * z);
+        if (len > 0) {
+            scratch.outX = x / len;
+            scratch.outY = y / len;
+            scratch.outZ = z / len;
+        } else {
+            scratch.outX = 0;
+            scratch.outY = 0;
+            scratch.outZ = 0;
         }
+    }
 
-        return new Color(
-                Math.min(255, Math.max(0, Math.round(rFinal))),
-                Math.min(255, Math.max(0, Math.round(gFinal))),
-                Math.min(255, Math.max(0, Math.round(bFinal)))
-        );
+    public Color calculateColor() {
+        return new Color(color);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,62 @@
+package mc.toriset.raytracing.raycast;
+
+public class ScalarBoxKernel implements BoxKernel {
+
+    @Override
+    public void entryDistances(PackedBoxes boxes, double ox, double oy, double oz,
+                               double dx, double dy, double dz, double minDistance, double[] out) {
+        entryDistances(boxes, 0, boxes.size, ox, oy, oz, dx, dy, dz, minDistance, out);
+    }
+
+    static void entryDistances(PackedBoxes boxes, int from, int to, double ox, double oy, double oz,
+                               double dx, double dy, double dz, double minDistance, double[] out) {
+        boolean parallelX = Math.abs(dx) < EPSILON;
+        boolean parallelY = Math.abs(dy) < EPSILON;
+        boolean parallelZ = Math.abs(dz) < EPSILON;
+        double invX = 1.0 / dx, invY = 1.0 / dy, invZ = 1.0 / dz;
+
+        double[] minX = boxes.minX, minY = boxes.minY, minZ = boxes.minZ;
+        double[] maxX = boxes.maxX, maxY = boxes.maxY, maxZ = boxes.maxZ;
+
+        for (int i = from; i < to; i++) {
+            double tMin = Double.NEGATIVE_INFINITY;
+            double tMax = Double.POSITIVE_INFINITY;
+            boolean miss = false;
+
+            if (parallelX) {
+                miss = ox < minX[i] || ox > maxX[i];
+            } else {
+                double t0 = (minX[i] - ox) * invX;
+                double t1 = (maxX[i] - ox) * invX;
+                tMin = Math.min(t0, t1);
+                tMax = Math.max(t0, t1);
+            }
+
+            if (parallelY) {
+                miss |= oy < minY[i] || oy > maxY[i];
+            } else {
+                double t0 = (minY[i] - oy) * invY;
+                double t1 = (maxY[i] - oy) * invY;
+                tMin = Math.max(tMin, Math.min(t0, t1));
+                tMax = Math.min(tMax, Math.max(t0, t1));
+            }
+
+            if (parallelZ) {
+                miss |= oz < minZ[i] || oz > maxZ[i];
+            } else {
+                double t0 = (minZ[i] - oz) * invZ;
+                double t1 = (maxZ[i] - oz) * invZ;
+                tMin = Math.max(tMin, Math.min(t0, t1));
+                tMax = Math.min(tMax, Math.max(t0, t1));
+            }
+
+            miss |= tMax < tMin - EPSILON || tMax + EPSILON <= minDistance;
+            out[i] = miss ? Double.POSITIVE_INFINITY : tMin;
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "scalar";
+    }
+}
@@ -0,0 +1,85 @@
+package mc.toriset.raytracing.raycast;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link BoxKernel} on the incubating Vector API, testing {@code SPECIES.length()} boxes per
+ * iteration. Only constructed through {@link BoxKernel#select()} when the JVM was started with
+ * {@code --add-modules jdk.incubator.vector}.
+ */
+public class SimdBoxKernel implements BoxKernel {
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    @Override
+    public void entryDistances(PackedBoxes boxes, double ox, double oy, double oz,
+                               double dx, double dy, double dz, double minDistance, double[] out) {
+        boolean parallelX = Math.abs(dx) < EPSILON;
+        boolean parallelY = Math.abs(dy) < EPSILON;
+        boolean parallelZ = Math.abs(dz) < EPSILON;
+
+        DoubleVector vox = DoubleVector.broadcast(SPECIES, ox);
+        DoubleVector voy = DoubleVector.broadcast(SPECIES, oy);
+        DoubleVector voz = DoubleVector.broadcast(SPECIES, oz);
+        DoubleVector invX = DoubleVector.broadcast(SPECIES, 1.0 / dx);
+        DoubleVector invY = DoubleVector.broadcast(SPECIES, 1.0 / dy);
+        DoubleVector invZ = DoubleVector.broadcast(SPECIES, 1.0 / dz);
+        DoubleVector negInf = DoubleVector.broadcast(SPECIES, Double.NEGATIVE_INFINITY);
+        DoubleVector posInf = DoubleVector.broadcast(SPECIES, Double.POSITIVE_INFINITY);
+        double cullDistance = minDistance - EPSILON;
+
+        int bound = SPECIES.loopBound(boxes.size);
+        int i = 0;
+        for (; i < bound; i += SPECIES.length()) {
+            DoubleVector tMin = negInf;
+            DoubleVector tMax = posInf;
+            VectorMask<Double> miss = SPECIES.maskAll(false);
+
+            DoubleVector minX = DoubleVector.fromArray(SPECIES, boxes.minX, i);
+            DoubleVector maxX = DoubleVector.fromArray(SPECIES, boxes.maxX, i);
+            if (parallelX) {
+                miss = miss.or(minX.compare(VectorOperators.GT, vox)).or(maxX.compare(VectorOperators.LT, vox));
+            } else {
+                DoubleVector t0 = minX.sub(vox).mul(invX);
+                DoubleVector t1 = maxX.sub(vox).mul(invX);
+                tMin = t0.min(t1);
+                tMax = t0.max(t1);
+            }
+
+            DoubleVector minY = DoubleVector.fromArray(SPECIES, boxes.minY, i);
+            DoubleVector maxY = DoubleVector.fromArray(SPECIES, boxes.maxY, i);
+            if (parallelY) {
+                miss = miss.or(minY.compare(VectorOperators.GT, voy)).or(maxY.compare(VectorOperators.LT, voy));
+            } else {
+                DoubleVector t0 = minY.sub(voy).mul(invY);
+                DoubleVector t1 = maxY.sub(voy).mul(invY);
+                tMin = tMin.max(t0.min(t1));
+                tMax = tMax.min(t0.max(t1));
+            }
+
+            DoubleVector minZ = DoubleVector.fromArray(SPECIES, boxes.minZ, i);
+            DoubleVector maxZ = DoubleVector.fromArray(SPECIES, boxes.maxZ, i);
+            if (parallelZ) {
+                miss = miss.or(minZ.compare(VectorOperators.GT, voz)).or(maxZ.compare(VectorOperators.LT, voz));
+            } else {
+                DoubleVector t0 = minZ.sub(voz).mul(invZ);
+                DoubleVector t1 = maxZ.sub(voz).mul(invZ);
+                tMin = tMin.max(t0.min(t1));
+                tMax = tMax.min(t0.max(t1));
+            }
+
+            miss = miss.or(tMax.compare(VectorOperators.LT, tMin.sub(EPSILON)))
+                    .or(tMax.compare(VectorOperators.LE, cullDistance));
+            tMin.blend(posInf, miss).intoArray(out, i);
+        }
+
+        ScalarBoxKernel.entryDistances(boxes, i, boxes.size, ox, oy, oz, dx, dy, dz, minDistance, out);
+    }
+
+    @Override
+    public String getName() {
+        return "simd-" + SPECIES.length() + "x64";
+    }
+}
@@ -0,0 +1,154 @@
+package mc.toriset.raytracing.raycast;
+
+import mc.toriset.raytracing.data.Multisampling;
+import mc.toriset.raytracing.render.RenderMetrics;
+import mc.toriset.raytracing.sampling.Sampler;
+import mc.toriset.raytracing.util.CounterRandom;
+import mc.toriset.raytracing.world.WorldObject;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per-thread working memory for {@link RaycastPath}. Everything a sample needs is allocated once
+ * here and reused, so tracing in steady state performs no heap allocation.
+ */
+public final class TraceScratch {
+    private static final ThreadLocal<TraceScratch> LOCAL = ThreadLocal.withInitial(TraceScratch::new);
+    // Rays of all threads up to their last drainCounters(). Nothing refers back to a scratch, so
+    // it goes away with its thread.
+    private static final LongAdder drainedRays = new LongAdder();
+
+    final HitRecord hit = new HitRecord();
+    final HitRecord candidate = new HitRecord();
+    final int[] bvhStack = new int[BVH.STACK_SIZE];
+    double[] entryDistances = new double[0];
+
+    // exclusions[d] holds the objects a ray at depth d must skip; each level is derived from the
+    // one above, which replaces the HashSet copy made per bounce.
+    final WorldObject[][] exclusions = new WorldObject[RaycastPath.MAX_BOUNCES + 1][RaycastPath.MAX_BOUNCES + 1];
+    final int[] exclusionCounts = new int[RaycastPath.MAX_BOUNCES + 1];
+
+    // Hits of the current sample in traversal order; only filled for RaycastPath.start().
+    final HitRecord[] pathHits = new HitRecord[RaycastPath.MAX_PATH_HITS];
+    int pathHitCount;
+    boolean recordHits;
+    int vertexCount;
+
+    // First hit of the current sample's primary ray, if it hit anything.
+    final HitRecord primary = new HitRecord();
+    boolean primaryHit;
+
+    // Address of the current sample's random numbers, see beginSample().
+    private Sampler sampler = Multisampling.getSampler();
+    int sampleX, sampleY;
+    private int sampleFrame, sampleIndex;
+    private long pixelKey;
+
+    // Radiance of the current sample on the 0-255 scale of WorldObject.baseColor, unclamped.
+    float red, green, blue;
+
+    // Output slots for direction helpers, read back immediately by the caller.
+    double outX, outY, outZ;
+
+    // Closest-hit queries made by this thread; only its own thread writes it.
+    long rays;
+    private long raysDrained;
+
+    // Counts since the last drainCounters(), and the deepest ray of the current sample.
+    long primaryRays, secondaryRays, boxTests, misses;
+    final long[] deepestBounce = new long[RaycastPath.MAX_BOUNCES];
+    int sampleDepth;
+
+    // Samples left until this thread emits the next RenderEvents.PathEvent.
+    int pathEventCountdown;
+
+    private TraceScratch() {
+        for (int i = 0; i < pathHits.length; i++) {
+            pathHits[i] = new HitRecord();
+        }
+    }
+
+    public static TraceScratch get() {
+        return LOCAL.get();
+    }
+
+    /**
+     * Rays traced by all threads up to the end of their last tile, i.e. their last
+     * {@link #drainCounters()}. Read it after the tiles have been joined for an exact figure.
+     */
+    public static long getTotalRays() {
+        return drainedRays.sum();
+    }
+
+    // Rays traced by this thread so far.
+    public long getRays() {
+        return rays;
+    }
+
+    /**
+     * Adds this thread's ray, box test, miss and bounce counts since the previous call to
+     * {@link RenderMetrics} and restarts them from zero. Counting in plain fields and handing
+     * them over once per tile keeps shared counters out of the per-ray path.
+     */
+    public void drainCounters() {
+        RenderMetrics.addRays(primaryRays, secondaryRays, boxTests, misses, deepestBounce);
+        drainedRays.add(rays - raysDrained);
+        raysDrained = rays;
+        primaryRays = secondaryRays = boxTests = misses = 0;
+        Arrays.fill(deepestBounce, 0);
+    }
+
+    /**
+     * Starts one sample with the current {@link Multisampling#getSampler()}. Every random number
+     * the sample uses is then a pure function of (frame, pixel, sample, dimension), so a render is
+     * bit-identical no matter which thread traces which pixel. The sample index should keep
+     * counting across progressive passes so the sampler's sequence is continued, not restarted.
+     */
+    public void beginSample(int frame, int x, int y, int sample) {
+        sampler = Multisampling.getSampler();
+        sampleX = x;
+        sampleY = y;
+        sampleFrame = frame;
+        sampleIndex = sample;
+        pixelKey = CounterRandom.pixelKey(frame, (y << 16) | (x & 0xFFFF));
+    }
+
+    public double random(int dimension) {
+        return sampler.get(sampleX, sampleY, sampleFrame, sampleIndex, dimension, pixelKey);
+    }
+
+    void deposit(WorldObject object, float weight) {
+        if (weight <= 0) {
+            return;
+        }
+        red += weight * object.baseColor.getRed();
+        green += weight * object.baseColor.getGreen();
+        blue += weight * object.baseColor.getBlue();
+    }
+
+    int packRadiance() {
+        int r = Math.min(255, Math.max(0, Math.round(red)));
+        int g = Math.min(255, Math.max(0, Math.round(green)));
+        int b = Math.min(255, Math.max(0, Math.round(blue)));
+        return (r << 16) | (g << 8) | b;
+    }
+
+    // The surface the current sample's primary ray hit, or null if it missed. Overwritten by the
+    // thread's next sample.
+    public HitRecord getPrimaryHit() {
+        return primaryHit ? primary : null;
+    }
+
+    public float getRed() {
+        return red;
+    }
+
+    public float getGreen() {
+        return green;
+    }
+
+    public float getBlue() {
+        return blue;
+    }
+}
@@ -0,0 +1,191 @@
+package mc.toriset.raytracing.render;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Running per-pixel radiance sums for progressive rendering. Sums are kept unclamped in flat
+ * row-major float arrays and are only averaged and clamped to 8 bits when a pixel is presented.
+ * Alongside them each pixel keeps Welford running moments of its sample luminance, which give the
+ * noise estimate adaptive sampling stops on. That is 24 bytes per pixel, about 200 MB at 4K;
+ * while reprojection is on the renderer keeps a second buffer to reproject into, about 400 MB.
+ */
+public class AccumulationBuffer {
+    private final int width;
+    private final int height;
+    private final float[] sums;
+    private final int[] counts;
+    private final float[] luminanceMean;
+    private final float[] luminanceM2;
+
+    // Size of one pixel's state in writeRegion().
+    static final int BYTES_PER_PIXEL = 24;
+
+    public AccumulationBuffer(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.sums = new float[width * height * 3];
+        this.counts = new int[width * height];
+        this.luminanceMean = new float[width * height];
+        this.luminanceM2 = new float[width * height];
+    }
+
+    public static float luminance(float red, float green, float blue) {
+        return 0.2126f * red + 0.7152f * green + 0.0722f * blue;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getSampleCount(int x, int y) {
+        return counts[y * width + x];
+    }
+
+    /**
+     * Adds a batch of samples to a pixel: their summed radiance, and the mean and sum of squared
+     * deviations of their luminance. The batch moments are merged into the pixel's with Chan's
+     * parallel form of Welford's update.
+     */
+    public void add(int x, int y, float red, float green, float blue, int samples,
+                    float batchLuminanceMean, float batchLuminanceM2) {
+        int pixel = y * width + x;
+        int i = pixel * 3;
+        sums[i] += red;
+        sums[i + 1] += green;
+        sums[i + 2] += blue;
+
+        int previous = counts[pixel];
+        int total = previous + samples;
+        float delta = batchLuminanceMean - luminanceMean[pixel];
+        luminanceMean[pixel] += delta * samples / total;
+        luminanceM2[pixel] += batchLuminanceM2 + delta * delta * ((float) previous * samples / total);
+        counts[pixel] = total;
+    }
+
+    /**
+     * Standard error of the pixel's mean luminance relative to that mean. Dark pixels are measured
+     * against a floor so that near-black noise does not keep them sampling forever.
+     */
+    public float getRelativeError(int x, int y, float luminanceFloor) {
+        int pixel = y * width + x;
+        int count = counts[pixel];
+        if (count < 2) {
+            return Float.POSITIVE_INFINITY;
+        }
+
+        float variance = luminanceM2[pixel] / (count - 1);
+        float standardError = (float) Math.sqrt(variance / count);
+        return standardError / Math.max(luminanceMean[pixel], luminanceFloor);
+    }
+
+    /**
+     * Replaces pixel (x, y) with pixel (fromX, fromY) of {@code source}. A pixel with more than
+     * {@code maxSamples} samples is scaled down to that many, keeping its mean and variance, so
+     * carried history still gives way to new samples at a bounded rate.
+     */
+    public void copyPixel(AccumulationBuffer source, int fromX, int fromY, int x, int y, int maxSamples) {
+        int from = fromY * source.width + fromX;
+        int to = y * width + x;
+        int count = source.counts[from];
+        float scale = count > maxSamples ? (float) maxSamples / count : 1.0f;
+        int kept = Math.min(count, maxSamples);
+
+        sums[to * 3] = source.sums[from * 3] * scale;
+        sums[to * 3 + 1] = source.sums[from * 3 + 1] * scale;
+        sums[to * 3 + 2] = source.sums[from * 3 + 2] * scale;
+        counts[to] = kept;
+        luminanceMean[to] = source.luminanceMean[from];
+        luminanceM2[to] = count > 1 ? source.luminanceM2[from] * (kept - 1) / (count - 1) : 0;
+    }
+
+    // Variance of the pixel's mean luminance, or infinity with fewer than two samples.
+    public float getLuminanceVariance(int x, int y) {
+        int pixel = y * width + x;
+        int count = counts[pixel];
+        if (count < 2) {
+            return Float.POSITIVE_INFINITY;
+        }
+        return luminanceM2[pixel] / (count - 1) / count;
+    }
+
+    public float getMean(int x, int y, int channel) {
+        int pixel = y * width + x;
+        int count = counts[pixel];
+        return count == 0 ? 0 : sums[pixel * 3 + channel] / count;
+    }
+
+    // Average radiance clamped and rounded to packed 0xRRGGBB.
+    public int resolve(int x, int y) {
+        int pixel = y * width + x;
+        int count = counts[pixel];
+        if (count == 0) {
+            return 0;
+        }
+
+        float scale = 1.0f / count;
+        int i = pixel * 3;
+        int r = Math.min(255, Math.max(0, Math.round(sums[i] * scale)));
+        int g = Math.min(255, Math.max(0, Math.round(sums[i + 1] * scale)));
+        int b = Math.min(255, Math.max(0, Math.round(sums[i + 2] * scale)));
+        return (r << 16) | (g << 8) | b;
+    }
+
+    /**
+     * Copies the state of the pixels in [startX, endX) x [startY, endY) to {@code out}, little
+     * endian from its position 0: the RGB sums, then the sample counts, then the luminance means,
+     * then the M2s, each row by row. Takes {@link #BYTES_PER_PIXEL} bytes per pixel.
+     */
+    void writeRegion(ByteBuffer out, int startX, int startY, int endX, int endY) {
+        int w = endX - startX, pixels = w * (endY - startY);
+        ByteBuffer sumsOut = out.slice(0, pixels * 12).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer countsOut = out.slice(pixels * 12, pixels * 4).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer meansOut = out.slice(pixels * 16, pixels * 4).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer m2Out = out.slice(pixels * 20, pixels * 4).order(ByteOrder.LITTLE_ENDIAN);
+
+        for (int y = startY; y < endY; y++) {
+            int row = y * width + startX;
+            sumsOut.asFloatBuffer().put(sums, row * 3, w * 3);
+            countsOut.asIntBuffer().put(counts, row, w);
+            meansOut.asFloatBuffer().put(luminanceMean, row, w);
+            m2Out.asFloatBuffer().put(luminanceM2, row, w);
+            sumsOut.position(sumsOut.position() + w * 12);
+            countsOut.position(countsOut.position() + w * 4);
+            meansOut.position(meansOut.position() + w * 4);
+            m2Out.position(m2Out.position() + w * 4);
+        }
+    }
+
+    // Inverse of writeRegion().
+    void readRegion(ByteBuffer in, int startX, int startY, int endX, int endY) {
+        int w = endX - startX, pixels = w * (endY - startY);
+        ByteBuffer sumsIn = in.slice(0, pixels * 12).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer countsIn = in.slice(pixels * 12, pixels * 4).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer meansIn = in.slice(pixels * 16, pixels * 4).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer m2In = in.slice(pixels * 20, pixels * 4).order(ByteOrder.LITTLE_ENDIAN);
+
+        for (int y = startY; y < endY; y++) {
+            int row = y * width + startX;
+            sumsIn.asFloatBuffer().get(sums, row * 3, w * 3);
+            countsIn.asIntBuffer().get(counts, row, w);
+            meansIn.asFloatBuffer().get(luminanceMean, row, w);
+            m2In.asFloatBuffer().get(luminanceM2, row, w);
+            sumsIn.position(sumsIn.position() + w * 12);
+            countsIn.position(countsIn.position() + w * 4);
+            meansIn.position(meansIn.position() + w * 4);
+            m2In.position(m2In.position() + w * 4);
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(sums, 0);
+        Arrays.fill(counts, 0);
+        Arrays.fill(luminanceMean, 0);
+        Arrays.fill(luminanceM2, 0);
+    }
+}
@@ -0,0 +1,260 @@
+package mc.toriset.raytracing.render;
+
+import mc.toriset.raytracing.raycast.RaycastPath;
+import mc.toriset.raytracing.raycast.TraceScratch;
+import mc.toriset.raytracing.world.World;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Renders the frames of a {@link CameraPath} independently of the interactive renderer's buffers,
+ * on the same worker pool and scene acceleration structures. Small frames do not have enough
+ * tiles to keep every worker busy to the end, so several whole frames are rendered at once, one
+ * per worker; large frames are rendered one after another with their tiles spread over the pool.
+ * Either way frames reach the {@link FrameSink} in order, on a writer thread behind a bounded
+ * queue, so encoding overlaps rendering and a slow disk holds rendering back instead of filling
+ * memory.
+ */
+public class AnimationRenderer {
+    public enum Parallelism {
+        AUTO,
+        FRAMES,
+        TILES
+    }
+
+    public static Parallelism parallelism = Parallelism.AUTO;
+
+    // AUTO renders whole frames in parallel when a frame has fewer tiles than this per worker.
+    private static final int TILES_PER_THREAD = 8;
+    // Rendered frames that may wait for the writer before rendering blocks.
+    private static final int WRITE_QUEUE_FRAMES = 4;
+
+    public interface FrameSink {
+        void write(int frame, int[] pixels, int width, int height) throws IOException;
+    }
+
+    public static class Stats {
+        public Parallelism parallelism;
+        public int frames;
+        public long renderNanos;
+        // Time the renderer spent blocked on a full write queue.
+        public long writerStallNanos;
+        public long totalNanos;
+    }
+
+    /**
+     * Renders {@code frameCount} frames along {@code path} with {@code samples} samples per pixel
+     * and hands each to {@code sink}. Frame {@code i} uses sample seed {@code seed + i}. Blocks
+     * until every frame has been written; must not run while {@link ProgressiveRenderer} renders.
+     */
+    public static Stats render(CameraPath path, int frameCount, int width, int height, int samples, int seed,
+                               FrameSink sink) throws IOException {
+        TileScheduler scheduler = ProgressiveRenderer.getScheduler();
+        Parallelism mode = parallelism;
+        if (mode == Parallelism.AUTO) {
+            int tiles = ((width + TileScheduler.TILE_SIZE - 1) / TileScheduler.TILE_SIZE)
+                    * ((height + TileScheduler.TILE_SIZE - 1) / TileScheduler.TILE_SIZE);
+            mode = tiles < scheduler.getThreads() * TILES_PER_THREAD && frameCount > 1
+                    ? Parallelism.FRAMES : Parallelism.TILES;
+        }
+
+        // Build the shared structures once instead of having the first tiles race for the lock.
+        if (RaycastPath.traversal == RaycastPath.Traversal.PACKED) {
+            World.getPackedBoxes();
+        } else {
+            World.getBVH();
+        }
+
+        Stats stats = new Stats();
+        stats.parallelism = mode;
+        stats.frames = frameCount;
+        long start = System.nanoTime();
+
+        FrameWriter writer = new FrameWriter(sink, width, height);
+        try {
+            if (mode == Parallelism.FRAMES) {
+                renderFrames(scheduler, path, frameCount, width, height, samples, seed, writer);
+            } else {
+                for (int frame = 0; frame < frameCount; frame++) {
+                    int[] pixels = new int[width * height];
+                    FrameWork work = new FrameWork(path.poseAtFrame(frame, frameCount), seed + frame,
+                            width, height, samples, pixels);
+                    scheduler.runPass(width, height, work);
+                    writer.submit(frame, pixels);
+                }
+            }
+            stats.renderNanos = System.nanoTime() - start;
+            writer.finish();
+        } finally {
+            writer.close();
+        }
+
+        stats.writerStallNanos = writer.stallNanos;
+        stats.totalNanos = System.nanoTime() - start;
+        return stats;
+    }
+
+    // Keeps two frames per worker in flight on the pool and passes them on in frame order.
+    private static void renderFrames(TileScheduler scheduler, CameraPath path, int frameCount, int width, int height,
+                                     int samples, int seed, FrameWriter writer) throws IOException {
+        int maxInFlight = scheduler.getThreads() * 2;
+        ArrayDeque<Future<int[]>> inFlight = new ArrayDeque<>();
+        int next = 0;
+
+        try {
+            for (int frame = 0; frame < frameCount; frame++) {
+                while (next < frameCount && inFlight.size() < maxInFlight) {
+                    int[] pixels = new int[width * height];
+                    FrameWork work = new FrameWork(path.poseAtFrame(next, frameCount), seed + next,
+                            width, height, samples, pixels);
+                    inFlight.add(scheduler.getPool().submit(() -> {
+                        work.render(0, 0, width, height);
+                        return pixels;
+                    }));
+                    next++;
+                }
+
+                writer.submit(frame, await(inFlight.poll()));
+            }
+        } finally {
+            for (Future<int[]> pending : inFlight) {
+                pending.cancel(false);
+            }
+        }
+    }
+
+    private static int[] await(Future<int[]> frame) throws IOException {
+        try {
+            return frame.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while rendering", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    // Renders any region of one frame straight to its pixels; regions never overlap, so no locking.
+    private static final class FrameWork implements TileScheduler.TileWork {
+        private final CameraSnapshot camera;
+        private final int frame, width, height, samples;
+        private final int[] pixels;
+
+        FrameWork(CameraSnapshot camera, int frame, int width, int height, int samples, int[] pixels) {
+            this.camera = camera;
+            this.frame = frame;
+            this.width = width;
+            this.height = height;
+            this.samples = samples;
+            this.pixels = pixels;
+        }
+
+        @Override
+        public int render(int startX, int startY, int endX, int endY) {
+            double[] direction = new double[3];
+            TraceScratch scratch = TraceScratch.get();
+            float scale = 1.0f / samples;
+            long tileStart = System.nanoTime();
+
+            for (int y = startY; y < endY; y++) {
+                for (int x = startX; x < endX; x++) {
+                    float r = 0, g = 0, b = 0;
+                    for (int s = 0; s < samples; s++) {
+                        scratch.beginSample(frame, x, y, s);
+                        camera.rayDirection(x + scratch.random(0), y + scratch.random(1), width, height, direction);
+                        RaycastPath.traceSample(camera.x, camera.y, camera.z, direction[0], direction[1], direction[2]);
+                        r += scratch.getRed();
+                        g += scratch.getGreen();
+                        b += scratch.getBlue();
+                    }
+
+                    int red = Math.min(255, Math.max(0, Math.round(r * scale)));
+                    int green = Math.min(255, Math.max(0, Math.round(g * scale)));
+                    int blue = Math.min(255, Math.max(0, Math.round(b * scale)));
+                    pixels[y * width + x] = (red << 16) | (green << 8) | blue;
+                }
+            }
+            RenderMetrics.recordTile(scratch, System.nanoTime() - tileStart, (long) (endX - startX) * (endY - startY) * samples);
+            return 0;
+        }
+    }
+
+    /**
+     * Single thread that hands frames to the sink in the order they were submitted. submit()
+     * blocks while WRITE_QUEUE_FRAMES frames are waiting; a sink failure is rethrown from the
+     * next submit() or finish().
+     */
+    private static final class FrameWriter {
+        private static final int[] END = new int[0];
+
+        private final BlockingQueue<int[]> queue = new ArrayBlockingQueue<>(WRITE_QUEUE_FRAMES);
+        private final Thread thread;
+        private volatile IOException failure;
+        long stallNanos;
+
+        FrameWriter(FrameSink sink, int width, int height) {
+            thread = new Thread(() -> {
+                int frame = 0;
+                try {
+                    for (int[] pixels = queue.take(); pixels != END; pixels = queue.take()) {
+                        if (failure == null) {
+                            try {
+                                sink.write(frame, pixels, width, height);
+                            } catch (IOException e) {
+                                failure = e;
+                            }
+                        }
+                        frame++;
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }, "Frame Writer");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void submit(int frame, int[] pixels) throws IOException {
+            checkFailure();
+            long start = System.nanoTime();
+            try {
+                queue.put(pixels);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while queueing frame " + frame, e);
+            }
+            stallNanos += System.nanoTime() - start;
+        }
+
+        // Waits for every queued frame to be written.
+        void finish() throws IOException {
+            try {
+                queue.put(END);
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while writing frames", e);
+            }
+            checkFailure();
+        }
+
+        void close() {
+            thread.interrupt();
+        }
+
+        private void checkFailure() throws IOException {
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+}
@@ -14,4 +14,29 @@ public class Camera {
         this.pitch = pitch;
         this.location = location;
     }
+
+    // Input should go through these so render passes always snapshot a consistent pose.
+    public synchronized void move(double dx, double dy, double dz) {
+        location.x += dx;
+        location.y += dy;
+        location.z += dz;
+    }
+
+    public synchronized void rotate(double dYaw, double dPitch) {
+        yaw += dYaw;
+        pitch += dPitch;
+    }
+
+    public synchronized void setPose(double x, double y, double z, double yaw, double pitch, float fov) {
+        location.x = x;
+        location.y = y;
+        location.z = z;
+        this.yaw = yaw;
+        this.pitch = pitch;
+        this.fov = fov;
+    }
+
+    public synchronized CameraSnapshot snapshot() {
+        return new CameraSnapshot(location.x, location.y, location.z, yaw, pitch, fov);
+    }
 }
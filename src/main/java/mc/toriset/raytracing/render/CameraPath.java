@@ -0,0 +1,144 @@
+package mc.toriset.raytracing.render;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Camera keyframes over time, interpolated with a Catmull-Rom spline through every keyframe so a
+ * fly-through has no kinks at the keys. The tangents are taken over the keyframe times, so the
+ * velocity stays continuous at a key even when the intervals on either side differ. Yaw and pitch
+ * are interpolated as plain numbers, so a turn through 360 degrees is written as 350 then 370, not
+ * 350 then 10.
+ */
+public class CameraPath {
+    public static final class Keyframe {
+        public final double time;
+        public final double x, y, z, yaw, pitch;
+        public final float fov;
+
+        public Keyframe(double time, double x, double y, double z, double yaw, double pitch, float fov) {
+            this.time = time;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.yaw = yaw;
+            this.pitch = pitch;
+            this.fov = fov;
+        }
+    }
+
+    private final List<Keyframe> keyframes;
+
+    // Keyframes must be in increasing time order.
+    public CameraPath(List<Keyframe> keyframes) {
+        if (keyframes.isEmpty()) {
+            throw new IllegalArgumentException("A camera path needs at least one keyframe");
+        }
+        for (int i = 1; i < keyframes.size(); i++) {
+            if (keyframes.get(i).time <= keyframes.get(i - 1).time) {
+                throw new IllegalArgumentException("Keyframe times must increase, got "
+                        + keyframes.get(i - 1).time + " then " + keyframes.get(i).time);
+            }
+        }
+        this.keyframes = new ArrayList<>(keyframes);
+    }
+
+    /**
+     * Reads one keyframe per line as "time x y z yaw pitch [fov]", separated by spaces or commas.
+     * Empty lines and lines starting with '#' are skipped; a missing fov is {@code defaultFov}.
+     */
+    public static CameraPath load(Path file, float defaultFov) throws IOException {
+        List<Keyframe> keyframes = new ArrayList<>();
+        int lineNumber = 0;
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+
+            String[] parts = line.split("[\\s,]+");
+            if (parts.length != 6 && parts.length != 7) {
+                throw new IllegalArgumentException(file + ":" + lineNumber
+                        + ": expected 'time x y z yaw pitch [fov]'");
+            }
+            double[] values = new double[parts.length];
+            for (int i = 0; i < parts.length; i++) {
+                values[i] = Double.parseDouble(parts[i]);
+            }
+            keyframes.add(new Keyframe(values[0], values[1], values[2], values[3], values[4], values[5],
+                    parts.length == 7 ? (float) values[6] : defaultFov));
+        }
+        return new CameraPath(keyframes);
+    }
+
+    public double getStartTime() {
+        return keyframes.get(0).time;
+    }
+
+    public double getEndTime() {
+        return keyframes.get(keyframes.size() - 1).time;
+    }
+
+    /** Camera pose at {@code time}, held at the first or last keyframe outside the path. */
+    public CameraSnapshot poseAt(double time) {
+        int last = keyframes.size() - 1;
+        if (time <= getStartTime() || last == 0) {
+            return snapshot(keyframes.get(0));
+        }
+        if (time >= getEndTime()) {
+            return snapshot(keyframes.get(last));
+        }
+
+        int i = 0;
+        while (keyframes.get(i + 1).time < time) {
+            i++;
+        }
+        Keyframe k0 = keyframes.get(Math.max(0, i - 1));
+        Keyframe k1 = keyframes.get(i);
+        Keyframe k2 = keyframes.get(i + 1);
+        Keyframe k3 = keyframes.get(Math.min(last, i + 2));
+        double interval = k2.time - k1.time;
+        double t = (time - k1.time) / interval;
+        // A repeated end keyframe stands one interval beyond the end, as in the uniform spline.
+        double scale1 = interval / (k2.time - (i > 0 ? k0.time : k1.time - interval));
+        double scale2 = interval / ((i + 2 <= last ? k3.time : k2.time + interval) - k1.time);
+
+        return new CameraSnapshot(
+                catmullRom(k0.x, k1.x, k2.x, k3.x, scale1, scale2, t),
+                catmullRom(k0.y, k1.y, k2.y, k3.y, scale1, scale2, t),
+                catmullRom(k0.z, k1.z, k2.z, k3.z, scale1, scale2, t),
+                catmullRom(k0.yaw, k1.yaw, k2.yaw, k3.yaw, scale1, scale2, t),
+                catmullRom(k0.pitch, k1.pitch, k2.pitch, k3.pitch, scale1, scale2, t),
+                (float) catmullRom(k0.fov, k1.fov, k2.fov, k3.fov, scale1, scale2, t));
+    }
+
+    /** Pose of frame {@code frame} of {@code frameCount}, spread evenly from the first to the last keyframe. */
+    public CameraSnapshot poseAtFrame(int frame, int frameCount) {
+        if (frameCount <= 1) {
+            return poseAt(getStartTime());
+        }
+        return poseAt(getStartTime() + (getEndTime() - getStartTime()) * frame / (frameCount - 1));
+    }
+
+    private static CameraSnapshot snapshot(Keyframe k) {
+        return new CameraSnapshot(k.x, k.y, k.z, k.yaw, k.pitch, k.fov);
+    }
+
+    /*
+     * Catmull-Rom between p1 (t = 0) and p2 (t = 1) as a cubic Hermite segment. The tangent at each
+     * end is the chord across its neighbours, (p2 - p0) and (p3 - p1), times this segment's share of
+     * the time that chord spans. Neighbouring segments then agree on the velocity at their shared key,
+     * and evenly spaced keys give the uniform spline (both scales 1/2).
+     */
+    private static double catmullRom(double p0, double p1, double p2, double p3,
+                                     double scale1, double scale2, double t) {
+        double m1 = (p2 - p0) * scale1, m2 = (p3 - p1) * scale2;
+        double t2 = t * t, t3 = t2 * t;
+        return (2 * t3 - 3 * t2 + 1) * p1 + (t3 - 2 * t2 + t) * m1 + (3 * t2 - 2 * t3) * p2 + (t3 - t2) * m2;
+    }
+}
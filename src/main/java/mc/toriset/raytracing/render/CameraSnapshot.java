@@ -0,0 +1,83 @@
+package mc.toriset.raytracing.render;
+
+/**
+ * Immutable copy of a {@link Camera} pose taken at the start of a render pass, so tiles never see
+ * a camera that is half way through being moved by the input thread.
+ */
+public final class CameraSnapshot {
+    public final double x, y, z;
+    public final double yaw, pitch;
+    public final float fov;
+
+    public final double cosYaw, sinYaw, cosPitch, sinPitch;
+    public final double horizontalHalfTan;
+
+    public CameraSnapshot(double x, double y, double z, double yaw, double pitch, float fov) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.yaw = yaw;
+        this.pitch = pitch;
+        this.fov = fov;
+
+        double yawRad = Math.toRadians(yaw);
+        double pitchRad = Math.toRadians(pitch);
+        this.cosYaw = Math.cos(yawRad);
+        this.sinYaw = Math.sin(yawRad);
+        this.cosPitch = Math.cos(pitchRad);
+        this.sinPitch = Math.sin(pitchRad);
+        this.horizontalHalfTan = Math.tan(Math.toRadians(fov / 2.0));
+    }
+
+    /**
+     * Unit direction of the primary ray through screen position (sampleX, sampleY), in pixels, on
+     * a width x height screen. The result is written to {@code out}.
+     */
+    public void rayDirection(double sampleX, double sampleY, int width, int height, double[] out) {
+        double ndcX = (2.0 * sampleX / width) - 1.0;
+        double ndcY = 1.0 - (2.0 * sampleY / height);
+
+        double px = ndcX * horizontalHalfTan;
+        double py = ndcY * horizontalHalfTan * height / width;
+        double pz = 1.0;
+
+        double len = Math.sqrt(px * px + py * py + pz * pz);
+        double cx = px / len, cy = py / len, cz = pz / len;
+
+        double yx = cx * cosYaw - cz * sinYaw;
+        double yz = cx * sinYaw + cz * cosYaw;
+        out[0] = yx;
+        out[1] = cy * cosPitch - yz * sinPitch;
+        out[2] = cy * sinPitch + yz * cosPitch;
+    }
+
+    /**
+     * Inverse of {@link #rayDirection}: projects a world point onto a width x height screen.
+     * Returns false if the point is behind the camera; otherwise {@code out} holds its screen x and
+     * y in pixels and its distance from the eye.
+     */
+    public boolean project(double px, double py, double pz, int width, int height, double[] out) {
+        double dx = px - x, dy = py - y, dz = pz - z;
+
+        // Undo the pitch, then the yaw, to get back to camera space.
+        double cy = dy * cosPitch + dz * sinPitch;
+        double yz = -dy * sinPitch + dz * cosPitch;
+        double cx = dx * cosYaw + yz * sinYaw;
+        double cz = -dx * sinYaw + yz * cosYaw;
+        if (cz <= 1e-9) {
+            return false;
+        }
+
+        double ndcX = cx / cz / horizontalHalfTan;
+        double ndcY = cy / cz / (horizontalHalfTan * height / width);
+        out[0] = (ndcX + 1.0) * width / 2.0;
+        out[1] = (1.0 - ndcY) * height / 2.0;
+        out[2] = Math.sqrt(dx * dx + dy * dy + dz * dz);
+        return true;
+    }
+
+    public boolean samePose(CameraSnapshot other) {
+        return other != null && x == other.x && y == other.y && z == other.z
+                && yaw == other.yaw && pitch == other.pitch && fov == other.fov;
+    }
+}
@@ -13,6 +13,8 @@ import java.awt.AWTException;
 import java.awt.Toolkit;
 import java.awt.image.BufferStrategy;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.VolatileImage;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
 import java.awt.event.MouseEvent;
@@ -40,9 +42,15 @@ public class Canvas extends java.awt.Canvas implements Runnable {
 
     private JFrame frame;
     private BufferedImage virtualSurface;
+    // Backing array of virtualSurface, packed 0xRRGGBB row-major. Writing it directly makes the
+    // image unmanaged, so frames are presented through presentSurface instead.
+    private final int[] surfacePixels;
+    private VolatileImage presentSurface;
+    private volatile boolean surfaceDirty = true;
     private boolean running;
     private Thread gameThread;
     private Color clearColor = Color.BLACK;
+    private volatile FrameExchange frameSource;
 
     private final Map<Integer, Runnable> keyHandlers = new HashMap<>();
     private Consumer<Canvas> updateHandler = canvas -> {};
@@ -77,6 +85,7 @@ public class Canvas extends java.awt.Canvas implements Runnable {
         this.scaleY = windowHeight / virtualHeight;
 
         this.virtualSurface = new BufferedImage(virtualWidth, virtualHeight, BufferedImage.TYPE_INT_RGB);
+        this.surfacePixels = ((DataBufferInt) virtualSurface.getRaster().getDataBuffer()).getData();
 
         setPreferredSize(new Dimension(windowWidth, windowHeight));
         setFocusable(true);
@@ -172,9 +181,51 @@ public class Canvas extends java.awt.Canvas implements Runnable {
     }
 
     public void setPixel(int x, int y, Color color) {
+        setPixel(x, y, color.getRGB());
+    }
+
+    public void setPixel(int x, int y, int rgb) {
         if (x >= 0 && x < virtualWidth && y >= 0 && y < virtualHeight) {
-            virtualSurface.setRGB(x, y, color.getRGB());
+            surfacePixels[y * virtualWidth + x] = rgb;
+            surfaceDirty = true;
+        }
+    }
+
+    // Copies a full frame of packed RGB pixels, row-major, into the virtual surface.
+    public void setPixels(int[] rgb) {
+        System.arraycopy(rgb, 0, surfacePixels, 0, surfacePixels.length);
+        surfaceDirty = true;
+    }
+
+    /**
+     * Copies a w x h block of packed pixels, row-major with a stride of w, to (x, y) of the
+     * virtual surface, one row at a time. The block must lie inside the surface.
+     */
+    public void writeTile(int x, int y, int w, int h, int[] argb) {
+        if (x < 0 || y < 0 || x + w > virtualWidth || y + h > virtualHeight) {
+            throw new IllegalArgumentException("Tile " + w + "x" + h + " at " + x + "," + y + " is outside the surface");
         }
+        for (int row = 0; row < h; row++) {
+            System.arraycopy(argb, row * w, surfacePixels, (y + row) * virtualWidth + x, w);
+        }
+        surfaceDirty = true;
+    }
+
+    /**
+     * The virtual surface's pixels, packed 0xRRGGBB row-major, for callers that write directly.
+     * Call {@link #markDirty()} afterwards so the next frame presents them.
+     */
+    public int[] getPixelBuffer() {
+        return surfacePixels;
+    }
+
+    public void markDirty() {
+        surfaceDirty = true;
+    }
+
+    // When set, every draw presents the latest frame published to the exchange.
+    public void setFrameSource(FrameExchange frameSource) {
+        this.frameSource = frameSource;
     }
 
     public void clear() {
@@ -186,6 +237,7 @@ public class Canvas extends java.awt.Canvas implements Runnable {
         g.setColor(color);
         g.fillRect(0, 0, virtualWidth, virtualHeight);
         g.dispose();
+        surfaceDirty = true;
     }
 
     public void start() {
@@ -298,8 +350,16 @@ public class Canvas extends java.awt.Canvas implements Runnable {
             return;
         }
 
+        FrameExchange source = frameSource;
+        if (source != null) {
+            FrameExchange.Frame latest = source.acquireLatest();
+            if (latest != null) {
+                setPixels(latest.pixels);
+            }
+        }
+
         Graphics g = bs.getDrawGraphics();
-        g.drawImage(virtualSurface, 0, 0, windowWidth, windowHeight, null);
+        present(g);
 
         if (showDebugOverlay) {
             drawDebugOverlay(g);
@@ -309,6 +369,33 @@ public class Canvas extends java.awt.Canvas implements Runnable {
         bs.show();
     }
 
+    // Uploads the surface to video memory only when it changed, and scales it from there.
+    private void present(Graphics g) {
+        do {
+            if (presentSurface == null) {
+                presentSurface = createVolatileImage(virtualWidth, virtualHeight);
+                surfaceDirty = true;
+            }
+            int status = presentSurface.validate(getGraphicsConfiguration());
+            if (status == VolatileImage.IMAGE_INCOMPATIBLE) {
+                presentSurface.flush();
+                presentSurface = createVolatileImage(virtualWidth, virtualHeight);
+                surfaceDirty = true;
+            } else if (status == VolatileImage.IMAGE_RESTORED) {
+                surfaceDirty = true;
+            }
+
+            if (surfaceDirty) {
+                surfaceDirty = false;
+                Graphics2D upload = presentSurface.createGraphics();
+                upload.drawImage(virtualSurface, 0, 0, null);
+                upload.dispose();
+            }
+
+            g.drawImage(presentSurface, 0, 0, windowWidth, windowHeight, null);
+        } while (presentSurface.contentsLost());
+    }
+
     private void drawDebugOverlay(Graphics g) {
         Graphics2D g2d = (Graphics2D) g;
 
@@ -320,7 +407,7 @@ public class Canvas extends java.awt.Canvas implements Runnable {
         if (overlayStyle == 1) {
 
             g2d.setColor(new Color(0, 0, 0, 180));
-            g2d.fillRect(10, 10, 260, 95);
+            g2d.fillRect(10, 10, 260, stats.costView ? 125 : 110);
 
             g2d.setColor(Color.WHITE);
             g2d.setFont(new Font("Monospaced", Font.PLAIN, 12));
@@ -338,6 +425,16 @@ public class Canvas extends java.awt.Canvas implements Runnable {
             g2d.drawString("Mode: " + stats.renderMode + " | Samples: " + stats.averageSamples, 20, y);
             y += 15;
             g2d.drawString("Status: " + stats.statusMessage, 20, y);
+            y += 15;
+            RenderMetrics.Snapshot metrics = stats.metrics;
+            g2d.drawString(String.format("Rays: %.2fM/s | Bounces: %.2f | Tile p99: %.1fms",
+                    metrics.lastPassRaysPerSecond / 1e6, metrics.getAverageBounces(),
+                    metrics.getTileLatencyMs(0.99)), 20, y);
+            if (stats.costView) {
+                y += 15;
+                g2d.drawString(String.format("Cost view: %.1f-%.1fus/sample (blue-red)",
+                        stats.costLowMicros, stats.costHighMicros), 20, y);
+            }
         }
     }
 
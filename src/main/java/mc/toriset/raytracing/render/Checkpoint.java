@@ -0,0 +1,298 @@
+package mc.toriset.raytracing.render;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+/**
+ * An {@link AccumulationBuffer} kept on disk in a memory-mapped file, so a long render survives a
+ * restart. The file holds a header and two slots of per-tile data with a CRC per tile. Each
+ * checkpoint copies only the tiles that changed since that slot was last written into the slot
+ * that is not current. A background thread then forces the slot to disk and only afterwards
+ * switches the header to it, so a crash at any point leaves the previous checkpoint intact.
+ * The switch is a single int store; everything describing a slot, including the scene it was
+ * rendered from, lives in the slot and reaches the disk before it.
+ * The copy is a bulk memory copy done between passes; the render threads never wait for the disk.
+ * <pre>
+ * header (4 KB)  magic, version, width, height, tile size, current slot
+ * slot 0, 1      scene hash, sequence, CRC32 per tile (padded to 4 KB), then per tile the data
+ *                of AccumulationBuffer.writeRegion() in a block of TILE_SIZE^2 pixels
+ * </pre>
+ */
+public class Checkpoint implements Closeable {
+    private static final int MAGIC = 0x4A524350; // "JRCP"
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 4096;
+    private static final int TILE_SIZE = TileScheduler.TILE_SIZE;
+    private static final int TILE_BYTES = TILE_SIZE * TILE_SIZE * AccumulationBuffer.BYTES_PER_PIXEL;
+
+    private static final int MAGIC_OFFSET = 0;
+    private static final int VERSION_OFFSET = 4;
+    private static final int WIDTH_OFFSET = 8;
+    private static final int HEIGHT_OFFSET = 12;
+    private static final int TILE_SIZE_OFFSET = 16;
+    private static final int SLOT_OFFSET = 20;
+
+    // Offsets within a slot.
+    private static final int SLOT_HASH_OFFSET = 0;
+    private static final int SLOT_SEQUENCE_OFFSET = 8;
+    private static final int SLOT_CRC_OFFSET = 16;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final MappedByteBuffer map;
+    private final int width, height;
+    private final int tilesX, tilesY;
+    private final long crcBytes, slotBytes;
+
+    // stale[slot][tile]: the slot's copy of the tile is older than the buffer's.
+    private final boolean[][] stale;
+    private volatile int currentSlot;
+    private long sequence;
+    private final boolean resumable;
+
+    private final ExecutorService flusher = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Checkpoint Flush");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private Future<?> flush;
+
+    private int lastTilesWritten;
+    private long lastCopyNanos;
+    private volatile long lastFlushNanos;
+    private int skippedCheckpoints;
+    private int droppedTiles;
+
+    /**
+     * Opens or creates the checkpoint file for a width x height image. An existing file with the
+     * same size and {@code sceneHash} can be restored with {@link #restore}; any other file is
+     * overwritten by the first checkpoint.
+     */
+    public Checkpoint(Path path, int width, int height, long sceneHash) throws IOException {
+        this.path = path;
+        this.width = width;
+        this.height = height;
+        this.tilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+        this.tilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+        int tiles = tilesX * tilesY;
+        this.crcBytes = align(SLOT_CRC_OFFSET + (long) tiles * 4);
+        this.slotBytes = crcBytes + (long) tiles * TILE_BYTES;
+        long fileBytes = HEADER_BYTES + 2 * slotBytes;
+        if (fileBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(width + "x" + height + " is too large to checkpoint in one mapping");
+        }
+
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        boolean compatible = channel.size() == fileBytes;
+        if (channel.size() > fileBytes) {
+            // Left over from a larger image; mapping alone would never shrink it.
+            channel.truncate(fileBytes);
+        }
+        this.map = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileBytes);
+        map.order(ByteOrder.LITTLE_ENDIAN);
+
+        compatible = compatible && map.getInt(MAGIC_OFFSET) == MAGIC && map.getInt(VERSION_OFFSET) == VERSION
+                && map.getInt(WIDTH_OFFSET) == width && map.getInt(HEIGHT_OFFSET) == height
+                && map.getInt(TILE_SIZE_OFFSET) == TILE_SIZE;
+        int slot = compatible ? map.getInt(SLOT_OFFSET) : -1;
+        this.currentSlot = slot == 0 || slot == 1 ? slot : -1;
+        long slotStart = HEADER_BYTES + currentSlot * slotBytes;
+        this.resumable = currentSlot >= 0 && map.getLong((int) (slotStart + SLOT_HASH_OFFSET)) == sceneHash;
+        this.sequence = currentSlot >= 0 ? map.getLong((int) (slotStart + SLOT_SEQUENCE_OFFSET)) : 0;
+
+        if (!compatible) {
+            map.putInt(MAGIC_OFFSET, MAGIC);
+            map.putInt(VERSION_OFFSET, VERSION);
+            map.putInt(WIDTH_OFFSET, width);
+            map.putInt(HEIGHT_OFFSET, height);
+            map.putInt(TILE_SIZE_OFFSET, TILE_SIZE);
+            map.putInt(SLOT_OFFSET, -1);
+            map.force(0, HEADER_BYTES);
+        }
+
+        this.stale = new boolean[2][tiles];
+        markAllDirty();
+    }
+
+    private static long align(long bytes) {
+        return (bytes + HEADER_BYTES - 1) / HEADER_BYTES * HEADER_BYTES;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    // Whether the file holds a finished checkpoint of this image size and scene hash.
+    public boolean isResumable() {
+        return resumable;
+    }
+
+    /**
+     * Loads the current checkpoint into {@code target}. Tiles whose CRC does not match are left
+     * empty and counted in {@link #getDroppedTiles()}. Returns false if there is nothing to load.
+     */
+    public boolean restore(AccumulationBuffer target) {
+        if (!resumable) {
+            return false;
+        }
+        target.clear();
+        droppedTiles = 0;
+        CRC32 crc = new CRC32();
+        long slotStart = HEADER_BYTES + currentSlot * slotBytes;
+
+        for (int tile = 0; tile < tilesX * tilesY; tile++) {
+            int startX = (tile % tilesX) * TILE_SIZE, startY = (tile / tilesX) * TILE_SIZE;
+            int endX = Math.min(startX + TILE_SIZE, width), endY = Math.min(startY + TILE_SIZE, height);
+            int bytes = (endX - startX) * (endY - startY) * AccumulationBuffer.BYTES_PER_PIXEL;
+            ByteBuffer data = map.slice((int) (slotStart + crcBytes + (long) tile * TILE_BYTES), bytes);
+
+            crc.reset();
+            crc.update(data.duplicate());
+            if ((int) crc.getValue() != map.getInt((int) (slotStart + SLOT_CRC_OFFSET + tile * 4L))) {
+                droppedTiles++;
+                continue;
+            }
+            target.readRegion(data, startX, startY, endX, endY);
+            stale[currentSlot][tile] = false;
+        }
+        return true;
+    }
+
+    // Records that pixels of the tile containing (x, y) changed. Safe to call from render workers.
+    public void markDirty(int x, int y) {
+        int tile = (y / TILE_SIZE) * tilesX + x / TILE_SIZE;
+        stale[0][tile] = true;
+        stale[1][tile] = true;
+    }
+
+    public void markAllDirty() {
+        Arrays.fill(stale[0], true);
+        Arrays.fill(stale[1], true);
+    }
+
+    /**
+     * Copies the changed tiles of {@code source} into the slot that is not current and starts
+     * flushing it in the background. Must not run while a pass writes to {@code source}. If the
+     * previous checkpoint is still being flushed this one is skipped and false is returned.
+     */
+    public boolean save(AccumulationBuffer source, long sceneHash) {
+        if (flush != null && !flush.isDone()) {
+            skippedCheckpoints++;
+            return false;
+        }
+        rethrowFlushFailure();
+
+        long start = System.nanoTime();
+        int slot = currentSlot == 0 ? 1 : 0;
+        long slotStart = HEADER_BYTES + slot * slotBytes;
+        CRC32 crc = new CRC32();
+        int written = 0;
+
+        for (int tile = 0; tile < tilesX * tilesY; tile++) {
+            if (!stale[slot][tile]) {
+                continue;
+            }
+            // Cleared first, so a markDirty() racing with the copy is not lost.
+            stale[slot][tile] = false;
+
+            int startX = (tile % tilesX) * TILE_SIZE, startY = (tile / tilesX) * TILE_SIZE;
+            int endX = Math.min(startX + TILE_SIZE, width), endY = Math.min(startY + TILE_SIZE, height);
+            int bytes = (endX - startX) * (endY - startY) * AccumulationBuffer.BYTES_PER_PIXEL;
+            ByteBuffer data = map.slice((int) (slotStart + crcBytes + (long) tile * TILE_BYTES), bytes);
+            source.writeRegion(data, startX, startY, endX, endY);
+
+            crc.reset();
+            crc.update(data.duplicate());
+            map.putInt((int) (slotStart + SLOT_CRC_OFFSET + tile * 4L), (int) crc.getValue());
+            written++;
+        }
+        lastTilesWritten = written;
+        lastCopyNanos = System.nanoTime() - start;
+
+        map.putLong((int) (slotStart + SLOT_HASH_OFFSET), sceneHash);
+        map.putLong((int) (slotStart + SLOT_SEQUENCE_OFFSET), ++sequence);
+        flush = flusher.submit(() -> {
+            long flushStart = System.nanoTime();
+            map.force((int) slotStart, (int) slotBytes);
+            map.putInt(SLOT_OFFSET, slot);
+            map.force(0, HEADER_BYTES);
+            currentSlot = slot;
+            lastFlushNanos = System.nanoTime() - flushStart;
+        });
+        return true;
+    }
+
+    // Waits until the last checkpoint is on disk.
+    public void awaitFlush() {
+        if (flush == null) {
+            return;
+        }
+        try {
+            flush.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            throw new UncheckedIOException(new IOException("Checkpoint flush failed", e.getCause()));
+        }
+    }
+
+    private void rethrowFlushFailure() {
+        if (flush != null && flush.isDone()) {
+            Future<?> done = flush;
+            flush = null;
+            try {
+                done.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                throw new UncheckedIOException(new IOException("Checkpoint flush failed", e.getCause()));
+            }
+        }
+    }
+
+    public int getLastTilesWritten() {
+        return lastTilesWritten;
+    }
+
+    public long getLastCopyNanos() {
+        return lastCopyNanos;
+    }
+
+    public long getLastFlushNanos() {
+        return lastFlushNanos;
+    }
+
+    // Checkpoints skipped because the one before was still being flushed.
+    public int getSkippedCheckpoints() {
+        return skippedCheckpoints;
+    }
+
+    public int getDroppedTiles() {
+        return droppedTiles;
+    }
+
+    /** Waits for the last flush and closes the file. Does not take a final checkpoint. */
+    @Override
+    public void close() throws IOException {
+        try {
+            awaitFlush();
+        } finally {
+            flusher.shutdown();
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package mc.toriset.raytracing.render;
+
+import java.util.Arrays;
+
+/**
+ * How long each pixel took to trace per sample in its recent full-resolution passes,
+ * and a false-colour view of it that shows which objects dominate the frame time. Costs are
+ * wall-clock nanoseconds measured around a pixel's samples, so they include everything the
+ * pixel's paths did: object and voxel tests, shading and every bounce. The renderer only reads
+ * the clock while {@link #recording} is set, which it is while the heatmap is shown
+ * ({@link #enabled}) or when a headless render asked for it; otherwise rendering a pixel costs
+ * no clock reads or stores at all.
+ * <p>
+ * The colours run from dark blue for the cheapest pixels through cyan, green and yellow to red
+ * and white for the most expensive ones, on a log scale between the 2nd and 98th percentile of
+ * the map so a few outliers do not flatten the rest. Pixels never traced are black.
+ */
+public class CostMap {
+    public static boolean enabled = false;
+    public static boolean recording = false;
+
+    private static final int[] RAMP = {0x000033, 0x2040FF, 0x00E0E0, 0x40E040, 0xFFE000, 0xFF2000, 0xFFFFFF};
+    private static final int[] PALETTE = buildPalette(256);
+
+    // Percentiles are found in a histogram of log2(nanoseconds) with this many buckets per octave.
+    private static final int BUCKETS_PER_OCTAVE = 4;
+    private static final int OCTAVES = 40;
+    private static final double LOW_QUANTILE = 0.02, HIGH_QUANTILE = 0.98;
+    private static final float NEW_PASS_WEIGHT = 0.5f;
+
+    private final int width;
+    private final int height;
+    private final float[] nanosPerSample;
+    private final int[] histogram = new int[OCTAVES * BUCKETS_PER_OCTAVE];
+    private volatile float lowNanos, highNanos;
+
+    public CostMap(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.nanosPerSample = new float[width * height];
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    // Blends into the pixel's earlier passes, so passes that ran before the JIT warmed up fade out.
+    public void record(int x, int y, long nanos, int samples) {
+        int pixel = y * width + x;
+        float cost = (float) nanos / samples;
+        float previous = nanosPerSample[pixel];
+        nanosPerSample[pixel] = previous > 0 ? previous + (cost - previous) * NEW_PASS_WEIGHT : cost;
+    }
+
+    public float getNanosPerSample(int x, int y) {
+        return nanosPerSample[y * width + x];
+    }
+
+    // Bounds of the colour scale used by the last toHeatmap().
+    public float getLowNanos() {
+        return lowNanos;
+    }
+
+    public float getHighNanos() {
+        return highNanos;
+    }
+
+    /** Writes the false-colour map to {@code output} as packed 0xRRGGBB. */
+    public void toHeatmap(int[] output) {
+        Arrays.fill(histogram, 0);
+        int traced = 0;
+        for (float cost : nanosPerSample) {
+            if (cost > 0) {
+                histogram[bucket(cost)]++;
+                traced++;
+            }
+        }
+        if (traced == 0) {
+            Arrays.fill(output, 0, nanosPerSample.length, 0);
+            return;
+        }
+
+        double low = log2(bucketValue(quantileBucket(traced, LOW_QUANTILE)));
+        double high = log2(bucketValue(quantileBucket(traced, HIGH_QUANTILE) + 1));
+        lowNanos = (float) Math.pow(2, low);
+        highNanos = (float) Math.pow(2, high);
+        double scale = (PALETTE.length - 1) / Math.max(high - low, 1e-6);
+
+        for (int i = 0; i < nanosPerSample.length; i++) {
+            float cost = nanosPerSample[i];
+            if (cost <= 0) {
+                output[i] = 0;
+                continue;
+            }
+            int index = (int) ((log2(cost) - low) * scale);
+            output[i] = PALETTE[Math.max(0, Math.min(PALETTE.length - 1, index))];
+        }
+    }
+
+    private int quantileBucket(int traced, double quantile) {
+        long target = (long) Math.ceil(traced * quantile);
+        long seen = 0;
+        for (int i = 0; i < histogram.length; i++) {
+            seen += histogram[i];
+            if (seen >= target) {
+                return i;
+            }
+        }
+        return histogram.length - 1;
+    }
+
+    private static int bucket(float nanos) {
+        int bucket = (int) (log2(nanos) * BUCKETS_PER_OCTAVE);
+        return Math.max(0, Math.min(OCTAVES * BUCKETS_PER_OCTAVE - 1, bucket));
+    }
+
+    private static double bucketValue(int bucket) {
+        return Math.pow(2, (double) bucket / BUCKETS_PER_OCTAVE);
+    }
+
+    private static double log2(double value) {
+        return Math.log(value) * (1 / Math.log(2));
+    }
+
+    private static int[] buildPalette(int size) {
+        int[] palette = new int[size];
+        for (int i = 0; i < size; i++) {
+            double t = (double) i / (size - 1) * (RAMP.length - 1);
+            int stop = Math.min((int) t, RAMP.length - 2);
+            double f = t - stop;
+            int from = RAMP[stop], to = RAMP[stop + 1];
+            int color = 0;
+            for (int shift = 16; shift >= 0; shift -= 8) {
+                int a = (from >> shift) & 0xFF, b = (to >> shift) & 0xFF;
+                color |= (int) Math.round(a + (b - a) * f) << shift;
+            }
+            palette[i] = color;
+        }
+        return palette;
+    }
+}
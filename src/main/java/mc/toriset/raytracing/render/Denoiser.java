@@ -0,0 +1,280 @@
+package mc.toriset.raytracing.render;
+
+/**
+ * Edge-avoiding a-trous wavelet filter for presenting a partly converged image. Each iteration
+ * blurs with a 5x5 B3-spline kernel whose taps are spread twice as far apart as in the previous
+ * one, and every tap is weighted down where the {@link SurfaceBuffer} shows another surface
+ * (normal, depth, albedo) or where the luminance differs by more than the pixel's noise explains.
+ * The noise estimate starts from the accumulation's per-pixel variance, or for pixels with only a
+ * few samples from the spread of their neighbours, and is filtered along with the colour, so
+ * converged pixels are left almost untouched. Pixels on a silhouette mix several surfaces while
+ * the guides describe only one, so they are neither filtered nor used as taps. The accumulation
+ * itself is never modified.
+ */
+public class Denoiser {
+    public static boolean enabled = false;
+    public static int iterations = 5;
+
+    private static final float[] KERNEL = {1 / 16f, 1 / 4f, 3 / 8f, 1 / 4f, 1 / 16f};
+
+    // Luminance may differ by this many standard errors before a tap loses most of its weight.
+    private static final float LUMINANCE_SIGMA = 2.0f;
+    // Relative depth difference allowed per pixel of distance between the taps.
+    private static final float DEPTH_SIGMA = 0.05f;
+    private static final float ALBEDO_SIGMA = 0.1f;
+    // Stands in for the unknown variance of pixels with fewer than two samples.
+    private static final float MAX_VARIANCE = 1e8f;
+    // Taps whose edge-stopping exponent exceeds this get a negligible weight and are skipped.
+    private static final float MAX_EXPONENT = 10.0f;
+    // Below this many samples a pixel's own variance is too unreliable and the spread of the
+    // neighbouring pixels' means within SPATIAL_RADIUS is used if larger.
+    private static final int SPATIAL_VARIANCE_SAMPLES = 8;
+    private static final int SPATIAL_RADIUS = 2;
+
+    private final int width;
+    private final int height;
+    private float[] color, nextColor;
+    private float[] variance, nextVariance;
+    // Variance blurred by 3x3 before each iteration; steers the luminance weight only.
+    private final float[] blurredVariance;
+    // Pixels with a 4-neighbour on another surface.
+    private final boolean[] edge;
+
+    public Denoiser(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.color = new float[width * height * 3];
+        this.nextColor = new float[width * height * 3];
+        this.variance = new float[width * height];
+        this.nextVariance = new float[width * height];
+        this.blurredVariance = new float[width * height];
+        this.edge = new boolean[width * height];
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /** Filters the accumulated image and writes it to {@code output} as packed 0xRRGGBB. */
+    public void denoise(TileScheduler scheduler, AccumulationBuffer accumulation, SurfaceBuffer surfaces,
+                        int[] output) {
+        scheduler.runTiles(width, height, (startX, startY, endX, endY) -> {
+            for (int y = startY; y < endY; y++) {
+                for (int x = startX; x < endX; x++) {
+                    int pixel = y * width + x;
+                    color[pixel * 3] = accumulation.getMean(x, y, 0);
+                    color[pixel * 3 + 1] = accumulation.getMean(x, y, 1);
+                    color[pixel * 3 + 2] = accumulation.getMean(x, y, 2);
+                }
+            }
+            return 0;
+        });
+        scheduler.runTiles(width, height, (startX, startY, endX, endY) -> {
+            estimateVariance(accumulation, surfaces, startX, startY, endX, endY);
+            return 0;
+        });
+
+        for (int i = 0; i < iterations; i++) {
+            int step = 1 << i;
+            scheduler.runTiles(width, height, (startX, startY, endX, endY) -> {
+                blurVariance(startX, startY, endX, endY);
+                return 0;
+            });
+            scheduler.runTiles(width, height, (startX, startY, endX, endY) -> {
+                filterTile(surfaces, step, startX, startY, endX, endY);
+                return 0;
+            });
+
+            float[] swap = color;
+            color = nextColor;
+            nextColor = swap;
+            swap = variance;
+            variance = nextVariance;
+            nextVariance = swap;
+        }
+
+        scheduler.runTiles(width, height, (startX, startY, endX, endY) -> {
+            for (int y = startY; y < endY; y++) {
+                for (int x = startX; x < endX; x++) {
+                    int pixel = y * width + x;
+                    int r = Math.min(255, Math.max(0, Math.round(color[pixel * 3])));
+                    int g = Math.min(255, Math.max(0, Math.round(color[pixel * 3 + 1])));
+                    int b = Math.min(255, Math.max(0, Math.round(color[pixel * 3 + 2])));
+                    output[pixel] = (r << 16) | (g << 8) | b;
+                }
+            }
+            return 0;
+        });
+    }
+
+    private void estimateVariance(AccumulationBuffer accumulation, SurfaceBuffer surfaces,
+                                  int startX, int startY, int endX, int endY) {
+        for (int y = startY; y < endY; y++) {
+            for (int x = startX; x < endX; x++) {
+                int pixel = y * width + x;
+                edge[pixel] = x > 0 && !isSameSurface(surfaces, x, y, x - 1, y)
+                        || x < width - 1 && !isSameSurface(surfaces, x, y, x + 1, y)
+                        || y > 0 && !isSameSurface(surfaces, x, y, x, y - 1)
+                        || y < height - 1 && !isSameSurface(surfaces, x, y, x, y + 1);
+
+                float own = Math.min(MAX_VARIANCE, accumulation.getLuminanceVariance(x, y));
+                if (accumulation.getSampleCount(x, y) >= SPATIAL_VARIANCE_SAMPLES
+                        || surfaces.getDepth(x, y) == Float.POSITIVE_INFINITY) {
+                    variance[pixel] = own;
+                    continue;
+                }
+
+                // Spread of the means of neighbours on the same surface; each is a noisy estimate
+                // of about the same value, so this measures the noise of one pixel's mean.
+                float sum = 0, sumSquares = 0;
+                int n = 0;
+                for (int qy = Math.max(0, y - SPATIAL_RADIUS); qy <= Math.min(height - 1, y + SPATIAL_RADIUS); qy++) {
+                    for (int qx = Math.max(0, x - SPATIAL_RADIUS); qx <= Math.min(width - 1, x + SPATIAL_RADIUS); qx++) {
+                        if (!isSameSurface(surfaces, x, y, qx, qy)) {
+                            continue;
+                        }
+                        int q = qy * width + qx;
+                        float l = AccumulationBuffer.luminance(color[q * 3], color[q * 3 + 1], color[q * 3 + 2]);
+                        sum += l;
+                        sumSquares += l * l;
+                        n++;
+                    }
+                }
+                float spatial = n > 1 ? Math.max(0, (sumSquares - sum * sum / n) / (n - 1)) : MAX_VARIANCE;
+                variance[pixel] = Math.max(own == MAX_VARIANCE ? 0 : own, spatial);
+            }
+        }
+    }
+
+    private static boolean isSameSurface(SurfaceBuffer surfaces, int x, int y, int qx, int qy) {
+        float depth = surfaces.getDepth(x, y), otherDepth = surfaces.getDepth(qx, qy);
+        if (depth == Float.POSITIVE_INFINITY || otherDepth == Float.POSITIVE_INFINITY) {
+            return depth == otherDepth;
+        }
+        if (Math.abs(depth - otherDepth) > DEPTH_SIGMA * depth * SPATIAL_RADIUS) {
+            return false;
+        }
+        for (int axis = 0; axis < 3; axis++) {
+            if (surfaces.getNormal(x, y, axis) != surfaces.getNormal(qx, qy, axis)
+                    || surfaces.getAlbedo(x, y, axis) != surfaces.getAlbedo(qx, qy, axis)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void blurVariance(int startX, int startY, int endX, int endY) {
+        for (int y = startY; y < endY; y++) {
+            for (int x = startX; x < endX; x++) {
+                float sum = 0, sumWeight = 0;
+                for (int j = -1; j <= 1; j++) {
+                    int qy = y + j;
+                    if (qy < 0 || qy >= height) {
+                        continue;
+                    }
+                    for (int i = -1; i <= 1; i++) {
+                        int qx = x + i;
+                        if (qx < 0 || qx >= width) {
+                            continue;
+                        }
+                        float weight = KERNEL[i + 2] * KERNEL[j + 2];
+                        sum += weight * variance[qy * width + qx];
+                        sumWeight += weight;
+                    }
+                }
+                blurredVariance[y * width + x] = sum / sumWeight;
+            }
+        }
+    }
+
+    private void filterTile(SurfaceBuffer surfaces, int step, int startX, int startY, int endX, int endY) {
+        float[] depths = surfaces.depthData();
+        float[] normals = surfaces.normalData();
+        float[] albedo = surfaces.albedoData();
+        float albedoScale = 1.0f / (ALBEDO_SIGMA * ALBEDO_SIGMA);
+
+        for (int y = startY; y < endY; y++) {
+            for (int x = startX; x < endX; x++) {
+                int pixel = y * width + x;
+                int p3 = pixel * 3;
+                float depth = depths[pixel];
+
+                // Background has nothing to smooth, and silhouettes nothing reliable to guide the filter.
+                if (depth == Float.POSITIVE_INFINITY || edge[pixel]) {
+                    nextColor[p3] = color[p3];
+                    nextColor[p3 + 1] = color[p3 + 1];
+                    nextColor[p3 + 2] = color[p3 + 2];
+                    nextVariance[pixel] = variance[pixel];
+                    continue;
+                }
+
+                float luminance = AccumulationBuffer.luminance(color[p3], color[p3 + 1], color[p3 + 2]);
+                float luminanceScale = 1.0f / (LUMINANCE_SIGMA * (float) Math.sqrt(blurredVariance[pixel]) + 1e-4f);
+                float depthScale = 1.0f / (DEPTH_SIGMA * depth * step);
+
+                float sumR = 0, sumG = 0, sumB = 0, sumWeight = 0, sumVariance = 0;
+
+                for (int j = -2; j <= 2; j++) {
+                    int qy = y + j * step;
+                    if (qy < 0 || qy >= height) {
+                        continue;
+                    }
+
+                    for (int i = -2; i <= 2; i++) {
+                        int qx = x + i * step;
+                        if (qx < 0 || qx >= width) {
+                            continue;
+                        }
+
+                        int q = qy * width + qx;
+                        int q3 = q * 3;
+                        float weight = KERNEL[i + 2] * KERNEL[j + 2];
+
+                        if (q != pixel) {
+                            float otherDepth = depths[q];
+                            float dot = normals[p3] * normals[q3] + normals[p3 + 1] * normals[q3 + 1]
+                                    + normals[p3 + 2] * normals[q3 + 2];
+                            if (otherDepth == Float.POSITIVE_INFINITY || edge[q] || dot <= 0) {
+                                continue;
+                            }
+
+                            float dr = albedo[p3] - albedo[q3];
+                            float dg = albedo[p3 + 1] - albedo[q3 + 1];
+                            float db = albedo[p3 + 2] - albedo[q3 + 2];
+                            float otherLuminance = AccumulationBuffer.luminance(color[q3], color[q3 + 1], color[q3 + 2]);
+
+                            float exponent = Math.abs(luminance - otherLuminance) * luminanceScale
+                                    + Math.abs(depth - otherDepth) * depthScale / Math.max(Math.abs(i), Math.abs(j))
+                                    + (dr * dr + dg * dg + db * db) * albedoScale;
+                            if (exponent > MAX_EXPONENT) {
+                                continue;
+                            }
+
+                            // dot^128 by repeated squaring.
+                            float normalWeight = dot;
+                            for (int k = 0; k < 7; k++) {
+                                normalWeight *= normalWeight;
+                            }
+                            weight *= normalWeight * (float) Math.exp(-exponent);
+                        }
+
+                        sumR += weight * color[q3];
+                        sumG += weight * color[q3 + 1];
+                        sumB += weight * color[q3 + 2];
+                        sumWeight += weight;
+                        sumVariance += weight * weight * variance[q];
+                    }
+                }
+
+                nextColor[p3] = sumR / sumWeight;
+                nextColor[p3 + 1] = sumG / sumWeight;
+                nextColor[p3 + 2] = sumB / sumWeight;
+                nextVariance[pixel] = Math.min(MAX_VARIANCE, sumVariance / (sumWeight * sumWeight));
+            }
+        }
+    }
+}
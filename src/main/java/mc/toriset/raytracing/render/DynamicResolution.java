@@ -0,0 +1,109 @@
+package mc.toriset.raytracing.render;
+
+import mc.toriset.raytracing.raycast.RaycastPath;
+
+/**
+ * Picks the internal resolution, and if needed the bounce limit, of preview passes so that they
+ * take about {@link #targetFrameMs}. The controller keeps a moving average of the cost of one
+ * pixel and sizes the next pass from it, in steps of {@link #SCALE_STEP} so the image does not
+ * shimmer between nearly equal sizes. Bounces are only given up once the resolution is at its
+ * floor, and are given back before the resolution goes up again.
+ */
+public class DynamicResolution {
+    public static boolean enabled = true;
+    public static double targetFrameMs = 33.0;
+    public static boolean reduceBounces = true;
+
+    private static final double MIN_SCALE = 0.25;
+    private static final double SCALE_STEP = 1.0 / 16;
+    // Weight of the newest pass in the moving average of the cost per pixel.
+    private static final double SMOOTHING = 0.3;
+    private static final int MIN_BOUNCES = 2;
+    // Bounces come back once a pass would take less than this fraction of the target.
+    private static final double RESTORE_BOUNCE_HEADROOM = 0.6;
+
+    private static double nanosPerPixel = 0;
+    private static double scale = 1.0;
+    private static int bounces = RaycastPath.MAX_BOUNCES;
+
+    public static double getScale() {
+        return scale;
+    }
+
+    public static int getBounces() {
+        return bounces;
+    }
+
+    public static int scaledSize(int fullSize) {
+        return Math.max(1, (int) Math.round(fullSize * scale));
+    }
+
+    /**
+     * Feeds back the time a preview pass of {@code renderedPixels} took and chooses the scale and
+     * bounce limit of the next one for a screen of {@code fullPixels}.
+     */
+    public static void update(long passNanos, int renderedPixels, int fullPixels) {
+        double cost = (double) passNanos / renderedPixels;
+        nanosPerPixel = nanosPerPixel == 0 ? cost : nanosPerPixel + SMOOTHING * (cost - nanosPerPixel);
+
+        double budgetNanos = targetFrameMs * 1_000_000.0;
+        double fullFrameNanos = nanosPerPixel * fullPixels;
+        double wanted = Math.sqrt(budgetNanos / fullFrameNanos);
+
+        if (wanted < MIN_SCALE && reduceBounces && bounces > MIN_BOUNCES) {
+            // The average still describes the old bounce limit; let the next passes measure the new one.
+            bounces--;
+        } else if (wanted > scale && bounces < RaycastPath.MAX_BOUNCES
+                && fullFrameNanos * scale * scale < RESTORE_BOUNCE_HEADROOM * budgetNanos) {
+            bounces++;
+            return;
+        }
+
+        scale = Math.max(MIN_SCALE, Math.min(1.0, Math.floor(wanted / SCALE_STEP) * SCALE_STEP));
+    }
+
+    /**
+     * Bilinearly upscales the packed 0xRRGGBB rows [startY, endY) and columns [startX, endX) of a
+     * width x height target from a sourceWidth x sourceHeight image. Weights are 8-bit fixed
+     * point and red and blue are blended together in one int, as they cannot carry into each other.
+     */
+    public static void upscale(int[] source, int sourceWidth, int sourceHeight,
+                               int[] target, int width, int height,
+                               int startX, int startY, int endX, int endY) {
+        double stepX = (double) sourceWidth / width;
+        double stepY = (double) sourceHeight / height;
+
+        int columns = endX - startX;
+        int[] left = new int[columns], right = new int[columns], weightX = new int[columns];
+        for (int i = 0; i < columns; i++) {
+            double sx = Math.max(0, Math.min(sourceWidth - 1, (startX + i + 0.5) * stepX - 0.5));
+            left[i] = (int) sx;
+            right[i] = Math.min(sourceWidth - 1, left[i] + 1);
+            weightX[i] = (int) ((sx - left[i]) * 256);
+        }
+
+        for (int y = startY; y < endY; y++) {
+            double sy = Math.max(0, Math.min(sourceHeight - 1, (y + 0.5) * stepY - 0.5));
+            int y0 = (int) sy;
+            int row0 = y0 * sourceWidth;
+            int row1 = Math.min(sourceHeight - 1, y0 + 1) * sourceWidth;
+            int fy = (int) ((sy - y0) * 256);
+
+            int out = y * width + startX;
+            for (int i = 0; i < columns; i++) {
+                int fx = weightX[i];
+                int top = blend(source[row0 + left[i]], source[row0 + right[i]], fx);
+                int bottom = blend(source[row1 + left[i]], source[row1 + right[i]], fx);
+                target[out + i] = blend(top, bottom, fy);
+            }
+        }
+    }
+
+    // a + (b - a) * weight / 256 per channel of two packed 0xRRGGBB colours.
+    private static int blend(int a, int b, int weight) {
+        int inverse = 256 - weight;
+        int redBlue = (((a & 0xFF00FF) * inverse + (b & 0xFF00FF) * weight) >>> 8) & 0xFF00FF;
+        int green = (((a & 0x00FF00) * inverse + (b & 0x00FF00) * weight) >>> 8) & 0x00FF00;
+        return redBlue | green;
+    }
+}
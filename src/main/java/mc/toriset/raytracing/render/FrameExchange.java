@@ -0,0 +1,57 @@
+package mc.toriset.raytracing.render;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lock-free triple buffer between one producer (the render pipeline) and one consumer (the
+ * presenting thread). The producer fills its back frame and publishes it by swapping it with the
+ * middle slot; the consumer takes the middle slot only when something new was published. Neither
+ * side ever waits for the other, and the consumer always gets the latest complete frame.
+ */
+public class FrameExchange {
+    private static final int INDEX_MASK = 0b11;
+    private static final int FRESH = 0b100;
+
+    public static final class Frame {
+        public final int width;
+        public final int height;
+        // Packed 0xRRGGBB, row-major.
+        public final int[] pixels;
+
+        Frame(int width, int height) {
+            this.width = width;
+            this.height = height;
+            this.pixels = new int[width * height];
+        }
+    }
+
+    private final Frame[] frames = new Frame[3];
+    private final AtomicInteger middle = new AtomicInteger(1);
+    private int back = 0;
+    private int front = 2;
+
+    public FrameExchange(int width, int height) {
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = new Frame(width, height);
+        }
+    }
+
+    // Producer side: the frame to draw into next.
+    public Frame getBackFrame() {
+        return frames[back];
+    }
+
+    // Producer side: makes the back frame the latest and hands a free one back.
+    public void publish() {
+        back = middle.getAndSet(back | FRESH) & INDEX_MASK;
+    }
+
+    // Consumer side: the latest published frame, or null if nothing new since the last call.
+    public Frame acquireLatest() {
+        if ((middle.get() & FRESH) == 0) {
+            return null;
+        }
+        front = middle.getAndSet(front) & INDEX_MASK;
+        return frames[front];
+    }
+}
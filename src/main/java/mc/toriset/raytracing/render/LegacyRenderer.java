@@ -2,11 +2,10 @@ package mc.toriset.raytracing.render;
 
 import mc.toriset.raytracing.data.Multisampling;
 import mc.toriset.raytracing.raycast.RaycastPath;
+import mc.toriset.raytracing.raycast.TraceScratch;
 import mc.toriset.raytracing.math.Vector3D;
 import mc.toriset.raytracing.world.World;
 
-import java.awt.*;
-
 public class LegacyRenderer {
 
     private static final int SAMPLES_PER_PIXEL = 3;
@@ -38,6 +37,9 @@ public class LegacyRenderer {
         double verticalHalfTan = horizontalHalfTan / aspect;
 
         Multisampling.Pattern pattern = Multisampling.currentPattern;
+        TraceScratch scratch = TraceScratch.get();
+        double[] offset = new double[2];
+        int[] column = new int[(int) height];
 
         for (int x = 0; x < width; x++) {
             for (int y = 0; y < height; y++) {
@@ -45,11 +47,12 @@ public class LegacyRenderer {
                 int r = 0, g = 0, b = 0;
 
                 for (int s = 0; s < SAMPLES_PER_PIXEL; s++) {
+                    scratch.beginSample(0, x, y, s);
 
-                    Multisampling.Point2D offset = Multisampling.getSampleOffset(s, SAMPLES_PER_PIXEL);
+                    Multisampling.getSampleOffset(s, SAMPLES_PER_PIXEL, offset);
 
-                    double ndcX = (2.0 * (x + offset.x) / width) - 1.0;
-                    double ndcY = 1.0 - (2.0 * (y + offset.y) / height);
+                    double ndcX = (2.0 * (x + offset[0]) / width) - 1.0;
+                    double ndcY = 1.0 - (2.0 * (y + offset[1]) / height);
 
                     double px = ndcX * horizontalHalfTan;
                     double py = ndcY * verticalHalfTan;
@@ -58,26 +61,21 @@ public class LegacyRenderer {
                     Vector3D dirCam = new Vector3D(px, py, pz).normalize();
                     Vector3D dirWorld = rotateByYawPitch(dirCam, World.camera.yaw, World.camera.pitch);
 
-                    RaycastPath raycastPath = RaycastPath.start(World.camera.location, dirWorld);
-                    Color sampleColor;
-
-                    if (raycastPath.hits.isEmpty()) {
-                        sampleColor = Color.BLACK;
-                    } else {
-                        sampleColor = raycastPath.calculateColor();
-                    }
+                    int sample = RaycastPath.traceSample(World.camera.location.x, World.camera.location.y,
+                            World.camera.location.z, dirWorld.x, dirWorld.y, dirWorld.z);
 
-                    r += sampleColor.getRed();
-                    g += sampleColor.getGreen();
-                    b += sampleColor.getBlue();
+                    r += (sample >> 16) & 0xFF;
+                    g += (sample >> 8) & 0xFF;
+                    b += sample & 0xFF;
                 }
 
                 r /= SAMPLES_PER_PIXEL;
                 g /= SAMPLES_PER_PIXEL;
                 b /= SAMPLES_PER_PIXEL;
 
-                canvas.setPixel(x, y, new Color(r, g, b));
+                column[y] = (r << 16) | (g << 8) | b;
             }
+            canvas.writeTile(x, 0, 1, column.length, column);
         }
     }
 
@@ -1,67 +1,149 @@
 package mc.toriset.raytracing.render;
 
+import mc.toriset.raytracing.data.Multisampling;
 import mc.toriset.raytracing.raycast.RaycastPath;
-import mc.toriset.raytracing.math.Vector3D;
+import mc.toriset.raytracing.raycast.TraceScratch;
+import mc.toriset.raytracing.util.CounterRandom;
 import mc.toriset.raytracing.world.World;
 
-import java.awt.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.io.IOException;
+import java.nio.file.Path;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
 
 public class ProgressiveRenderer {
 
     private static final int MIN_SAMPLES_PER_FRAME = 1;
     private static final int MAX_TOTAL_SAMPLES = 256;
 
+    // Adaptive mode: every pixel takes this many samples before its noise estimate is trusted, a
+    // pass spends about ADAPTIVE_PASS_BUDGET samples per screen pixel on the pixels still noisy,
+    // and no pixel goes past ADAPTIVE_MAX_SAMPLES.
+    private static final int ADAPTIVE_MIN_SAMPLES = 16;
+    private static final int ADAPTIVE_PASS_BUDGET = 4;
+    private static final int ADAPTIVE_MAX_PASS_SAMPLES = 64;
+    private static final int ADAPTIVE_MAX_SAMPLES = 4096;
+    private static final float ADAPTIVE_LUMINANCE_FLOOR = 16.0f;
+
     private static final int NUM_THREADS = Runtime.getRuntime().availableProcessors();
-    private static ExecutorService threadPool = Executors.newFixedThreadPool(NUM_THREADS);
+    private static TileScheduler scheduler = new TileScheduler(NUM_THREADS);
 
     private static int currentIteration = 0;
-    private static int[][] sampleCounts;
-    private static Color[][] accumulatedColors;
+    private static AccumulationBuffer accumulation;
+    private static SurfaceBuffer surfaces;
+    // Second set of buffers that reprojection fills before the two sets are swapped; null while
+    // reprojection has not run or is off, as they double the per-pixel memory.
+    private static AccumulationBuffer spareAccumulation;
+    private static SurfaceBuffer spareSurfaces;
+    // Pose the accumulated samples were taken from.
+    private static CameraSnapshot historyCamera;
+    private static int lastReprojectedPixels = 0;
+    // Latest resolved colour of every pixel, packed 0xRRGGBB; copied out by the presenter.
+    private static int[] raster;
+    // Denoised copy of the accumulation, presented instead of the raster while it is current.
+    private static Denoiser denoiser;
+    private static int[] denoisedRaster;
+    private static boolean denoisedCurrent = false;
+    // The denoiser or the cost view was toggled; the next render() presents that change first.
+    private static volatile boolean presentationChanged = false;
+    // Per-pixel trace time; recorded while CostMap.recording, presented while CostMap.enabled.
+    private static CostMap costs;
+    private static int[] costRaster;
+    // Reduced-resolution image of the last preview pass, see renderPreview().
+    private static int[] previewRaster = new int[0];
     private static boolean isFirstFrame = true;
     private static boolean isRendering = false;
-    private static long lastMoveTime = 0;
+    private static volatile long lastMoveTime = 0;
+    private static volatile boolean resetRequested = false;
+
+    // Bumped by every reset and camera move. A pass remembers the generation it started in, and
+    // its tiles stop between rows as soon as a newer one appears.
+    private static final AtomicInteger generation = new AtomicInteger();
+    private static volatile long cancelRequestNanos = 0;
+    private static final LongAdder passSamples = new LongAdder();
+    private static int cancelledPasses = 0;
+    private static long discardedSamples = 0;
+    private static double lastCancelLatencyMs = 0;
     private static int stabilityDelay = 500;
     private static AtomicInteger completedTiles = new AtomicInteger(0);
-    private static int totalTilesToRender = 0;
+    private static int lastNoisyPixels = 0;
 
     private static int currentSampleCount = 0;
-    private static int totalSamples = 0;
+    private static final LongAdder totalSamples = new LongAdder();
     private static int totalPixels = 0;
     private static long renderStartTime = 0;
     private static String renderStatusMessage = "Initializing...";
 
+    // Decorrelates the samplers between frames of an animation. It stays fixed while a frame
+    // accumulates, so each pass continues every pixel's sample sequence.
+    private static int frameSeed = 0;
+
+    // Written every checkpointIntervalMillis after a completed pass, see enableCheckpoints().
+    private static Checkpoint checkpoint;
+    private static long checkpointIntervalMillis;
+    private static long lastCheckpointMillis;
+
     public enum Mode {
         FAST,
         PROGRESSIVE,
+        ADAPTIVE,
         HIGH_QUALITY
     }
 
-    private static Mode currentMode = Mode.PROGRESSIVE;
+    private static volatile Mode currentMode = Mode.PROGRESSIVE;
+
+    // Relative standard error of a pixel's mean luminance at which ADAPTIVE stops sampling it.
+    private static volatile float noiseThreshold = 0.01f;
+    private static float passNoiseThreshold = noiseThreshold;
 
     public static void init(int width, int height) {
-        sampleCounts = new int[width][height];
-        accumulatedColors = new Color[width][height];
+        if (checkpoint != null) {
+            // The file is laid out for the old size.
+            disableCheckpoints();
+        }
+        accumulation = new AccumulationBuffer(width, height);
+        spareAccumulation = null;
+        surfaces = new SurfaceBuffer(width, height);
+        spareSurfaces = null;
+        denoiser = new Denoiser(width, height);
+        raster = new int[width * height];
+        denoisedRaster = new int[width * height];
+        costs = new CostMap(width, height);
+        costRaster = new int[width * height];
         totalPixels = width * height;
-        reset();
+        applyReset();
     }
 
+    /**
+     * Asks for the accumulated image to be discarded. Safe to call from any thread; the reset is
+     * applied by the rendering thread at the start of its next pass.
+     */
     public static void reset() {
+        resetRequested = true;
+        cancelPass();
+    }
+
+    // Stops the running pass, if any, without discarding what was accumulated before it.
+    public static void cancelPass() {
+        cancelRequestNanos = System.nanoTime();
+        generation.incrementAndGet();
+    }
+
+    private static void applyReset() {
+        resetRequested = false;
         currentIteration = 0;
         isFirstFrame = true;
-        totalSamples = 0;
+        totalSamples.reset();
         currentSampleCount = 0;
+        lastNoisyPixels = totalPixels;
+        denoisedCurrent = false;
 
-        if (sampleCounts != null) {
-            for (int x = 0; x < sampleCounts.length; x++) {
-                for (int y = 0; y < sampleCounts[0].length; y++) {
-                    sampleCounts[x][y] = 0;
-                    accumulatedColors[x][y] = null;
-                }
-            }
+        if (accumulation != null) {
+            accumulation.clear();
+            surfaces.clear();
+        }
+        if (checkpoint != null) {
+            checkpoint.markAllDirty();
         }
 
         renderStatusMessage = "Ready";
@@ -69,12 +151,33 @@ public class ProgressiveRenderer {
 
     public static void notifyMovement() {
         lastMoveTime = System.currentTimeMillis();
-        if (currentMode == Mode.PROGRESSIVE) {
+        if ((currentMode == Mode.PROGRESSIVE || currentMode == Mode.ADAPTIVE) && !Reprojection.enabled) {
 
             reset();
+        } else {
+            // The next pass reprojects what was accumulated so far into the new view.
+            cancelPass();
         }
     }
 
+    /**
+     * Replaces the worker pool with one of {@code threads} workers. Must not be called while a
+     * pass is running.
+     */
+    public static void setThreads(int threads) {
+        scheduler.shutdown();
+        scheduler = new TileScheduler(threads);
+    }
+
+    public static int getThreads() {
+        return scheduler.getThreads();
+    }
+
+    // The worker pool, for other renderers that share it while this one is idle.
+    static TileScheduler getScheduler() {
+        return scheduler;
+    }
+
     public static void setMode(Mode mode) {
         currentMode = mode;
         reset();
@@ -84,14 +187,63 @@ public class ProgressiveRenderer {
         RenderStats stats = new RenderStats();
         stats.renderMode = currentMode;
         stats.averageSamples = currentSampleCount;
-        stats.percentComplete = totalTilesToRender > 0 ?
-                (completedTiles.get() * 100 / totalTilesToRender) : 0;
+        stats.percentComplete = (int) (scheduler.getProgress() * 100);
         stats.elapsedTimeMs = System.currentTimeMillis() - renderStartTime;
         stats.statusMessage = renderStatusMessage;
         stats.isRendering = isRendering;
+        stats.lastPassMs = scheduler.getLastPassNanos() / 1_000_000.0;
+        stats.workerUtilization = scheduler.getLastUtilization();
+        stats.loadImbalance = scheduler.getLastImbalance();
+        stats.splitTiles = scheduler.getLastSplitTiles();
+        stats.cancelledPasses = cancelledPasses;
+        stats.discardedSamples = discardedSamples;
+        stats.lastCancelLatencyMs = lastCancelLatencyMs;
+        stats.reprojectedPixels = lastReprojectedPixels;
+        stats.totalSamples = totalSamples.sum();
+        stats.metrics = RenderMetrics.snapshot();
+        stats.costView = CostMap.enabled;
+        if (costs != null) {
+            stats.costLowMicros = costs.getLowNanos() / 1000.0;
+            stats.costHighMicros = costs.getHighNanos() / 1000.0;
+        }
         return stats;
     }
 
+    public static float getNoiseThreshold() {
+        return noiseThreshold;
+    }
+
+    public static void setNoiseThreshold(float threshold) {
+        noiseThreshold = threshold;
+    }
+
+    // Takes effect on the next call to render(), even if the image is already complete.
+    public static void setDenoise(boolean enabled) {
+        Denoiser.enabled = enabled;
+        presentationChanged = true;
+    }
+
+    // Shows the per-pixel cost heatmap instead of the image, timing pixels while it is shown; see CostMap.
+    public static void setCostView(boolean enabled) {
+        if (enabled && !CostMap.recording) {
+            // Nothing was timed so far; render the image again so every pixel gets a cost.
+            reset();
+        }
+        CostMap.enabled = enabled;
+        CostMap.recording = enabled;
+        presentationChanged = true;
+    }
+
+    // Times every pixel rendered from now on without showing the heatmap, e.g. for copyCostMap().
+    public static void setCostRecording(boolean recording) {
+        CostMap.recording = recording;
+    }
+
+    public static void setFrameSeed(int seed) {
+        frameSeed = seed;
+        reset();
+    }
+
     public static void setStabilityDelay(int milliseconds) {
         stabilityDelay = milliseconds;
     }
@@ -100,37 +252,260 @@ public class ProgressiveRenderer {
         return System.currentTimeMillis() - lastMoveTime > stabilityDelay;
     }
 
+    // Renders one pass synchronously and copies the result into the canvas.
     public static void render(Canvas canvas) {
-        if (isRendering) {
+        if (render(canvas.getVirtualWidth(), canvas.getVirtualHeight(), null, 0)) {
+            canvas.setPixels(presentedRaster());
+        }
+    }
+
+    /**
+     * Adds {@code samples} samples to every pixel of a width x height image seen from the current
+     * camera, on the calling thread and regardless of mode or camera movement, and returns the
+     * pass time in nanoseconds. For offline rendering: the sample count is not capped, and the
+     * result is read with {@link #copyRaster} and {@link #copyRadiance}.
+     */
+    public static long accumulate(int width, int height, int samples) {
+        return accumulate(width, height, samples, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Like {@link #accumulate(int, int, int)}, but pixels stop at {@code sampleLimit} samples and
+     * pixels already there are skipped. After a resume with dropped tiles this brings every
+     * pixel to the same count without re-rendering the restored ones.
+     */
+    public static long accumulate(int width, int height, int samples, int sampleLimit) {
+        if (accumulation == null || accumulation.getWidth() != width || accumulation.getHeight() != height) {
+            init(width, height);
+        }
+        if (resetRequested) {
+            applyReset();
+        }
+
+        CameraSnapshot camera = World.camera.snapshot();
+        int frame = frameSeed;
+        int passGeneration = generation.get();
+        long start = System.nanoTime();
+        scheduler.runPass(width, height, (startX, startY, endX, endY) -> renderTile(camera, startX, startY, endX, endY,
+                width, height, samples, frame, false, sampleLimit, passGeneration));
+        long elapsed = System.nanoTime() - start;
+
+        historyCamera = camera;
+        isFirstFrame = false;
+        denoisedCurrent = false;
+        checkpointIfDue(camera);
+        return elapsed;
+    }
+
+    /**
+     * Checkpoints the accumulation to {@code file} every {@code intervalMillis} after a completed
+     * pass, see {@link Checkpoint}. If the file holds a checkpoint of the current image size,
+     * scene, camera pose and sampler settings it is loaded first, so rendering continues where it
+     * stopped. Returns the fewest samples any pixel got back from it, or -1 if nothing was loaded.
+     * Must be called after {@link #init} and not while a pass is running.
+     */
+    public static int enableCheckpoints(Path file, long intervalMillis) throws IOException {
+        disableCheckpoints();
+        CameraSnapshot camera = World.camera.snapshot();
+        int width = accumulation.getWidth(), height = accumulation.getHeight();
+        checkpoint = new Checkpoint(file, width, height, sceneHash(camera));
+        checkpointIntervalMillis = intervalMillis;
+        lastCheckpointMillis = System.currentTimeMillis();
+
+        if (!checkpoint.restore(accumulation)) {
+            return -1;
+        }
+
+        // Only the accumulation is stored; the guide buffers and the raster are cheap to rebuild.
+        scheduler.runTiles(width, height, (startX, startY, endX, endY) -> {
+            double[] direction = new double[3];
+            TraceScratch scratch = TraceScratch.get();
+            for (int y = startY; y < endY; y++) {
+                for (int x = startX; x < endX; x++) {
+                    camera.rayDirection(x + 0.5, y + 0.5, width, height, direction);
+                    RaycastPath.tracePrimary(camera.x, camera.y, camera.z, direction[0], direction[1], direction[2]);
+                    surfaces.set(x, y, scratch.getPrimaryHit(), camera.x, camera.y, camera.z);
+                    raster[y * width + x] = accumulation.resolve(x, y);
+                }
+            }
+            scratch.drainCounters();
+            return 0;
+        });
+
+        int fewest = Integer.MAX_VALUE;
+        long sum = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int count = accumulation.getSampleCount(x, y);
+                fewest = Math.min(fewest, count);
+                sum += count;
+            }
+        }
+        resetRequested = false;
+        isFirstFrame = false;
+        denoisedCurrent = false;
+        historyCamera = camera;
+        currentIteration = 1;
+        currentSampleCount = (int) (sum / ((long) width * height));
+        lastNoisyPixels = totalPixels;
+        renderStatusMessage = String.format("Resumed %d samples per pixel from %s", currentSampleCount, file);
+        return fewest;
+    }
+
+    /** Writes a last checkpoint, waits for it to reach the disk and stops checkpointing. */
+    public static void disableCheckpoints() {
+        if (checkpoint == null) {
             return;
         }
+        Checkpoint closing = checkpoint;
+        checkpoint = null;
+        try {
+            closing.awaitFlush();
+            if (!isFirstFrame && historyCamera != null) {
+                closing.save(accumulation, sceneHash(historyCamera));
+            }
+            closing.close();
+        } catch (IOException e) {
+            System.err.println("Could not close checkpoint " + closing.getPath() + ": " + e.getMessage());
+        }
+    }
+
+    public static Checkpoint getCheckpoint() {
+        return checkpoint;
+    }
 
-        int width = canvas.getVirtualWidth();
-        int height = canvas.getVirtualHeight();
+    private static void checkpointIfDue(CameraSnapshot camera) {
+        long now = System.currentTimeMillis();
+        if (checkpoint != null && now - lastCheckpointMillis >= checkpointIntervalMillis
+                && checkpoint.save(accumulation, sceneHash(camera))) {
+            lastCheckpointMillis = now;
+        }
+    }
+
+    // Identifies what the accumulated samples are samples of.
+    private static long sceneHash(CameraSnapshot camera) {
+        double[] values = {camera.x, camera.y, camera.z, camera.yaw, camera.pitch, camera.fov,
+                frameSeed, Multisampling.currentPattern.ordinal(), RaycastPath.estimator.ordinal()};
+        long hash = World.contentHash();
+        for (double value : values) {
+            hash = CounterRandom.mix(hash ^ Double.doubleToLongBits(value));
+        }
+        return hash;
+    }
+
+    // Unclamped mean radiance of every pixel, three floats per pixel on the 0-255 scale of WorldObject.baseColor.
+    public static void copyRadiance(float[] target) {
+        int width = accumulation.getWidth();
+        for (int y = 0; y < accumulation.getHeight(); y++) {
+            for (int x = 0; x < width; x++) {
+                int i = (y * width + x) * 3;
+                target[i] = accumulation.getMean(x, y, 0);
+                target[i + 1] = accumulation.getMean(x, y, 1);
+                target[i + 2] = accumulation.getMean(x, y, 2);
+            }
+        }
+    }
+
+    public static void copyRaster(int[] target) {
+        int[] source = presentedRaster();
+        System.arraycopy(source, 0, target, 0, Math.min(source.length, target.length));
+    }
+
+    // False-colour map of the time each pixel took per sample, see CostMap.
+    public static void copyCostMap(int[] target) {
+        costs.toHeatmap(target);
+    }
 
-        if (sampleCounts == null || sampleCounts.length != width || sampleCounts[0].length != height) {
+    // The cost heatmap if enabled, else the denoised image if it matches the accumulation, else the raw one.
+    private static int[] presentedRaster() {
+        if (CostMap.enabled) {
+            costs.toHeatmap(costRaster);
+            return costRaster;
+        }
+        return Denoiser.enabled && denoisedCurrent ? denoisedRaster : raster;
+    }
+
+    /**
+     * Renders one pass on the calling thread, which blocks until the pass is done. While waiting
+     * it calls {@code onProgress} every {@code progressIntervalMillis} so partial frames can be
+     * presented. Returns false if there was nothing left to render.
+     */
+    public static boolean render(int width, int height, Runnable onProgress, long progressIntervalMillis) {
+        if (isRendering) {
+            return false;
+        }
+
+        int passGeneration = generation.get();
+        if (accumulation == null || accumulation.getWidth() != width || accumulation.getHeight() != height) {
             init(width, height);
         }
+        if (resetRequested) {
+            applyReset();
+        }
+        if (noiseThreshold != passNoiseThreshold) {
+            // Pixels that stopped under the old threshold may need more samples now.
+            passNoiseThreshold = noiseThreshold;
+            lastNoisyPixels = totalPixels;
+        }
+
+        Mode mode = currentMode;
+        boolean stable = isSceneStable();
+        boolean keepHistory = Reprojection.enabled && (mode == Mode.PROGRESSIVE || mode == Mode.ADAPTIVE);
+        if (!Reprojection.enabled) {
+            spareAccumulation = null;
+            spareSurfaces = null;
+        }
+
+        CameraSnapshot camera = World.camera.snapshot();
+        if (!camera.samePose(historyCamera)) {
+            if (keepHistory && historyCamera != null && !isFirstFrame) {
+                reprojectHistory(historyCamera, camera);
+            }
+            historyCamera = camera;
+        }
+
+        if (presentationChanged || Denoiser.enabled && !denoisedCurrent && !isFirstFrame) {
+            // A view was toggled or the history was just reprojected: present that first.
+            presentationChanged = false;
+            if (Denoiser.enabled && !isFirstFrame) {
+                denoise();
+            }
+            return true;
+        }
 
         int samplesThisFrame;
 
-        if (currentMode == Mode.FAST || !isSceneStable()) {
+        if (mode == Mode.FAST || !stable) {
             samplesThisFrame = MIN_SAMPLES_PER_FRAME;
-            if (!isFirstFrame && isSceneStable() && currentMode == Mode.PROGRESSIVE) {
+            if (keepHistory) {
 
-                renderStatusMessage = "Fast mode (moving)";
+                renderStatusMessage = String.format("Moving: %d%% of pixels reprojected",
+                        100L * lastReprojectedPixels / totalPixels);
             } else {
 
-                reset();
+                applyReset();
+                if (DynamicResolution.enabled && !stable) {
+                    return renderPreview(camera, width, height, passGeneration, onProgress, progressIntervalMillis);
+                }
                 renderStatusMessage = "Fast mode";
             }
-        } else if (currentMode == Mode.HIGH_QUALITY) {
+        } else if (mode == Mode.HIGH_QUALITY) {
             samplesThisFrame = MAX_TOTAL_SAMPLES;
             if (!isFirstFrame) {
                 renderStatusMessage = "High quality render complete";
-                return;
+                return false;
             }
             renderStatusMessage = "Rendering in high quality...";
+        } else if (mode == Mode.ADAPTIVE) {
+
+            if (currentIteration == 0) {
+                samplesThisFrame = 1;
+                renderStatusMessage = "Adaptive: Initial pass";
+            } else {
+                int budget = ADAPTIVE_PASS_BUDGET * totalPixels / Math.max(1, lastNoisyPixels);
+                samplesThisFrame = Math.max(1, Math.min(ADAPTIVE_MAX_PASS_SAMPLES, budget));
+                renderStatusMessage = String.format("Adaptive: %d noisy pixels", lastNoisyPixels);
+            }
         } else {
 
             if (currentIteration == 0) {
@@ -148,10 +523,15 @@ public class ProgressiveRenderer {
             }
         }
 
-        boolean isMaxSamplesReached = true;
-        for (int x = 0; x < width; x += 10) {
+        if (mode == Mode.ADAPTIVE && stable && !isFirstFrame && lastNoisyPixels == 0) {
+            renderStatusMessage = String.format("Noise threshold %.3f reached", passNoiseThreshold);
+            return false;
+        }
+
+        boolean isMaxSamplesReached = mode != Mode.ADAPTIVE;
+        for (int x = 0; x < width && isMaxSamplesReached; x += 10) {
             for (int y = 0; y < height; y += 10) {
-                if (sampleCounts[x][y] < MAX_TOTAL_SAMPLES) {
+                if (accumulation.getSampleCount(x, y) < MAX_TOTAL_SAMPLES) {
                     isMaxSamplesReached = false;
                     break;
                 }
@@ -161,68 +541,161 @@ public class ProgressiveRenderer {
 
         if (isMaxSamplesReached && !isFirstFrame) {
             renderStatusMessage = "Maximum quality reached";
-            return;
+            return false;
         }
 
         isRendering = true;
         renderStartTime = System.currentTimeMillis();
 
-        double aspect = (double)width / height;
-        double horizontalHalfTan = Math.tan(Math.toRadians(World.camera.fov / 2.0));
-        double verticalHalfTan = horizontalHalfTan / aspect;
-
-        int tileSize = 32;
-        int tilesX = (width + tileSize - 1) / tileSize;
-        int tilesY = (height + tileSize - 1) / tileSize;
-        totalTilesToRender = tilesX * tilesY;
-
         completedTiles.set(0);
-        CountDownLatch latch = new CountDownLatch(totalTilesToRender);
-
-        for (int tileY = 0; tileY < tilesY; tileY++) {
-            for (int tileX = 0; tileX < tilesX; tileX++) {
-                final int tx = tileX;
-                final int ty = tileY;
-
-                threadPool.submit(() -> {
-                    try {
-                        renderTile(canvas, tx, ty, tileSize, width, height,
-                                horizontalHalfTan, verticalHalfTan, samplesThisFrame);
-
-                        int completed = completedTiles.incrementAndGet();
-                        if (completed % 10 == 0 || completed == totalTilesToRender) {
-                            int percent = completed * 100 / totalTilesToRender;
-                            renderStatusMessage = String.format("%s: %d%% complete",
-                                    getModeString(), percent);
-                        }
-                    } finally {
-                        latch.countDown();
-                    }
-                });
+        passSamples.reset();
+        int frame = frameSeed;
+        boolean adaptive = mode == Mode.ADAPTIVE && stable;
+
+        int noisy = scheduler.runPass(width, height, (startX, startY, endX, endY) -> {
+            int tileNoisy = renderTile(camera, startX, startY, endX, endY, width, height,
+                    samplesThisFrame, frame, adaptive, adaptive ? ADAPTIVE_MAX_SAMPLES : MAX_TOTAL_SAMPLES,
+                    passGeneration);
+
+            if (completedTiles.incrementAndGet() % 10 == 0) {
+                renderStatusMessage = String.format("%s: %d%% complete",
+                        getModeString(), (int) (scheduler.getProgress() * 100));
             }
+            return tileNoisy;
+        }, onProgress, progressIntervalMillis, () -> generation.get() != passGeneration);
+
+        if (generation.get() != passGeneration) {
+            // A reset throws away everything this pass added; after a plain move its samples are
+            // still valid for this pose and get reprojected with the rest.
+            cancelledPasses++;
+            if (resetRequested) {
+                discardedSamples += passSamples.sum();
+            }
+            lastCancelLatencyMs = (System.nanoTime() - cancelRequestNanos) / 1_000_000.0;
+            isRendering = false;
+            renderStatusMessage = String.format("%s: pass cancelled after %d samples (stopped in %.1fms)",
+                    getModeString(), passSamples.sum(), lastCancelLatencyMs);
+            return true;
         }
 
-        try {
-            latch.await();
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
+        if (adaptive) {
+            lastNoisyPixels = noisy;
         }
-
         currentIteration++;
         isFirstFrame = false;
         isRendering = false;
+        if (Denoiser.enabled) {
+            denoise();
+        }
+        checkpointIfDue(camera);
 
         int totalSampleCount = 0;
         for (int x = 0; x < width; x += 10) {
             for (int y = 0; y < height; y += 10) {
-                totalSampleCount += sampleCounts[x][y];
+                totalSampleCount += accumulation.getSampleCount(x, y);
             }
         }
         currentSampleCount = totalSampleCount / ((width / 10) * (height / 10));
 
         long renderTime = System.currentTimeMillis() - renderStartTime;
-        renderStatusMessage = String.format("%s: %d samples, rendered in %.1fs",
-                getModeString(), currentSampleCount, renderTime/1000.0);
+        renderStatusMessage = String.format("%s: %d samples, rendered in %.1fs (%d%% busy, %d%% imbalance)",
+                getModeString(), currentSampleCount, renderTime/1000.0,
+                Math.round(scheduler.getLastUtilization() * 100), Math.round(scheduler.getLastImbalance() * 100));
+        return true;
+    }
+
+    /**
+     * One sample per pixel at the resolution and bounce limit {@link DynamicResolution} chose to
+     * stay within its frame time, upscaled into the raster. Nothing is accumulated.
+     */
+    private static boolean renderPreview(CameraSnapshot camera, int width, int height, int passGeneration,
+                                         Runnable onProgress, long progressIntervalMillis) {
+        int previewWidth = DynamicResolution.scaledSize(width);
+        int previewHeight = DynamicResolution.scaledSize(height);
+        if (previewRaster.length < previewWidth * previewHeight) {
+            previewRaster = new int[width * height];
+        }
+        int[] preview = previewRaster;
+        int frame = frameSeed;
+        int bounces = DynamicResolution.getBounces();
+
+        isRendering = true;
+        renderStartTime = System.currentTimeMillis();
+        RaycastPath.bounceLimit = bounces;
+        denoisedCurrent = false;
+        long start = System.nanoTime();
+        try {
+            scheduler.runPass(previewWidth, previewHeight, (startX, startY, endX, endY) -> {
+                TraceScratch scratch = TraceScratch.get();
+                double[] direction = new double[3];
+                long tileStart = System.nanoTime();
+                long tileSamples = 0;
+                for (int y = startY; y < endY; y++) {
+                    if (generation.get() != passGeneration) {
+                        break;
+                    }
+                    for (int x = startX; x < endX; x++) {
+                        scratch.beginSample(frame, x, y, 0);
+                        camera.rayDirection(x + scratch.random(0), y + scratch.random(1),
+                                previewWidth, previewHeight, direction);
+                        preview[y * previewWidth + x] = RaycastPath.traceSample(camera.x, camera.y, camera.z,
+                                direction[0], direction[1], direction[2]);
+                    }
+                    tileSamples += endX - startX;
+                }
+                RenderMetrics.recordTile(scratch, System.nanoTime() - tileStart, tileSamples);
+                return 0;
+            }, onProgress, progressIntervalMillis, () -> generation.get() != passGeneration);
+        } finally {
+            RaycastPath.bounceLimit = RaycastPath.MAX_BOUNCES;
+            isRendering = false;
+        }
+        long passNanos = System.nanoTime() - start;
+
+        if (generation.get() == passGeneration) {
+            DynamicResolution.update(passNanos, previewWidth * previewHeight, width * height);
+            if (previewWidth == width && previewHeight == height) {
+                System.arraycopy(preview, 0, raster, 0, width * height);
+            } else {
+                scheduler.runTiles(width, height, (startX, startY, endX, endY) -> {
+                    DynamicResolution.upscale(preview, previewWidth, previewHeight, raster, width, height,
+                            startX, startY, endX, endY);
+                    return 0;
+                });
+            }
+        }
+
+        renderStatusMessage = String.format("Fast mode (moving): %dx%d, %d bounces, %.1fms",
+                previewWidth, previewHeight, bounces, passNanos / 1_000_000.0);
+        return true;
+    }
+
+    private static void denoise() {
+        denoiser.denoise(scheduler, accumulation, surfaces, denoisedRaster);
+        denoisedCurrent = true;
+    }
+
+    private static void reprojectHistory(CameraSnapshot from, CameraSnapshot to) {
+        if (spareAccumulation == null) {
+            spareAccumulation = new AccumulationBuffer(accumulation.getWidth(), accumulation.getHeight());
+            spareSurfaces = new SurfaceBuffer(surfaces.getWidth(), surfaces.getHeight());
+        }
+        lastReprojectedPixels = Reprojection.reproject(scheduler, from, accumulation, surfaces,
+                to, spareAccumulation, spareSurfaces, raster);
+
+        AccumulationBuffer accumulationSwap = accumulation;
+        accumulation = spareAccumulation;
+        spareAccumulation = accumulationSwap;
+        SurfaceBuffer surfacesSwap = surfaces;
+        surfaces = spareSurfaces;
+        spareSurfaces = surfacesSwap;
+        denoisedCurrent = false;
+        if (checkpoint != null) {
+            checkpoint.markAllDirty();
+        }
+
+        // Noise estimates of the carried pixels were made from another view; check them all again.
+        lastNoisyPixels = totalPixels;
     }
 
     private static String getModeString() {
@@ -230,83 +703,120 @@ public class ProgressiveRenderer {
             case FAST: return "Fast mode";
             case HIGH_QUALITY: return "High quality";
             case PROGRESSIVE: return "Progressive";
+            case ADAPTIVE: return "Adaptive";
             default: return "Unknown mode";
         }
     }
 
-    private static void renderTile(Canvas canvas, int tileX, int tileY, int tileSize,
-                                   int width, int height, double horizontalHalfTan,
-                                   double verticalHalfTan, int samplesThisFrame) {
-
-        int startX = tileX * tileSize;
-        int startY = tileY * tileSize;
-        int endX = Math.min(startX + tileSize, width);
-        int endY = Math.min(startY + tileSize, height);
+    // One region of a non-adaptive pass from the current camera, outside the scheduler; for benchmarks.
+    static int renderTile(int startX, int startY, int endX, int endY, int samples) {
+        return renderTile(World.camera.snapshot(), startX, startY, endX, endY, accumulation.getWidth(),
+                accumulation.getHeight(), samples, frameSeed, false, Integer.MAX_VALUE, generation.get());
+    }
 
-        for (int x = startX; x < endX; x++) {
-            for (int y = startY; y < endY; y++) {
+    // Returns how many of the region's pixels are still above the noise threshold after this pass.
+    private static int renderTile(CameraSnapshot camera, int startX, int startY, int endX, int endY,
+                                  int width, int height, int samplesThisFrame, int frame,
+                                  boolean adaptive, int sampleLimit, int passGeneration) {
+
+        double[] direction = new double[3];
+        double originX = camera.x;
+        double originY = camera.y;
+        double originZ = camera.z;
+        TraceScratch scratch = TraceScratch.get();
+        int noisy = 0;
+        long tileSamples = 0;
+        long tileStart = System.nanoTime();
+        long raysBefore = scratch.getRays();
+        boolean timed = CostMap.recording;
+        RenderEvents.TileEvent event = RenderEvents.enabled ? new RenderEvents.TileEvent() : null;
+        if (event != null) {
+            event.begin();
+        }
 
-                if (sampleCounts[x][y] >= MAX_TOTAL_SAMPLES) {
-                    continue;
-                }
+        for (int y = startY; y < endY; y++) {
+            if (generation.get() != passGeneration) {
+                break;
+            }
 
-                int r = 0, g = 0, b = 0;
+            for (int x = startX; x < endX; x++) {
 
-                if (accumulatedColors[x][y] != null) {
-                    r = accumulatedColors[x][y].getRed() * sampleCounts[x][y];
-                    g = accumulatedColors[x][y].getGreen() * sampleCounts[x][y];
-                    b = accumulatedColors[x][y].getBlue() * sampleCounts[x][y];
+                int sampleCount = accumulation.getSampleCount(x, y);
+                if (sampleCount >= sampleLimit || adaptive && isConverged(x, y, sampleCount)) {
+                    continue;
                 }
 
-                for (int s = 0; s < samplesThisFrame; s++) {
-
-                    double offsetX = (double)s / samplesThisFrame + Math.random() / samplesThisFrame;
-                    double offsetY = (double)(s % 2) / 2 + Math.random() / 2;
-
-                    double sampleX = x + offsetX;
-                    double sampleY = y + offsetY;
-
-                    double ndcX = (2.0 * sampleX / width) - 1.0;
-                    double ndcY = 1.0 - (2.0 * sampleY / height);
+                // No pixel goes past sampleLimit, e.g. when it was resumed with more samples than its neighbours.
+                int samples = Math.min(samplesThisFrame, sampleLimit - sampleCount);
+                long pixelStart = timed ? System.nanoTime() : 0;
+                float r = 0, g = 0, b = 0;
+                float luminanceMean = 0, luminanceM2 = 0;
 
-                    double px = ndcX * horizontalHalfTan;
-                    double py = ndcY * verticalHalfTan;
-                    double pz = 1.0;
+                for (int s = 0; s < samples; s++) {
+                    scratch.beginSample(frame, x, y, sampleCount + s);
 
-                    Vector3D dirCam = new Vector3D(px, py, pz).normalize();
-                    Vector3D dirWorld = LegacyRenderer.rotateByYawPitch(dirCam, World.camera.yaw, World.camera.pitch);
+                    double sampleX = x + scratch.random(0);
+                    double sampleY = y + scratch.random(1);
+                    camera.rayDirection(sampleX, sampleY, width, height, direction);
 
-                    RaycastPath raycastPath = RaycastPath.start(World.camera.location, dirWorld);
-                    Color sampleColor = raycastPath.hits.isEmpty() ? Color.BLACK : raycastPath.calculateColor();
+                    RaycastPath.traceSample(originX, originY, originZ, direction[0], direction[1], direction[2]);
+                    if (sampleCount + s == 0) {
+                        surfaces.set(x, y, scratch.getPrimaryHit(), originX, originY, originZ);
+                    }
 
-                    r += sampleColor.getRed();
-                    g += sampleColor.getGreen();
-                    b += sampleColor.getBlue();
+                    float sampleRed = scratch.getRed();
+                    float sampleGreen = scratch.getGreen();
+                    float sampleBlue = scratch.getBlue();
+                    r += sampleRed;
+                    g += sampleGreen;
+                    b += sampleBlue;
+
+                    float luminance = AccumulationBuffer.luminance(sampleRed, sampleGreen, sampleBlue);
+                    float delta = luminance - luminanceMean;
+                    luminanceMean += delta / (s + 1);
+                    luminanceM2 += delta * (luminance - luminanceMean);
                 }
 
-                int newSampleCount = sampleCounts[x][y] + samplesThisFrame;
-                sampleCounts[x][y] = newSampleCount;
-                totalSamples += samplesThisFrame;
-
-                r = r / newSampleCount;
-                g = g / newSampleCount;
-                b = b / newSampleCount;
-
-                Color newColor = new Color(
-                        Math.min(255, Math.max(0, r)),
-                        Math.min(255, Math.max(0, g)),
-                        Math.min(255, Math.max(0, b))
-                );
+                accumulation.add(x, y, r, g, b, samples, luminanceMean, luminanceM2);
+                tileSamples += samples;
+                if (timed) {
+                    costs.record(x, y, System.nanoTime() - pixelStart, samples);
+                }
 
-                accumulatedColors[x][y] = newColor;
+                if (adaptive && sampleCount + samples < sampleLimit && !isConverged(x, y, sampleCount + samples)) {
+                    noisy++;
+                }
 
-                canvas.setPixel(x, y, newColor);
+                raster[y * width + x] = accumulation.resolve(x, y);
             }
         }
+        passSamples.add(tileSamples);
+        totalSamples.add(tileSamples);
+        RenderMetrics.recordTile(scratch, System.nanoTime() - tileStart, tileSamples);
+        if (event != null && event.shouldCommit()) {
+            event.startX = startX;
+            event.startY = startY;
+            event.endX = endX;
+            event.endY = endY;
+            event.samples = tileSamples;
+            event.rays = scratch.getRays() - raysBefore;
+            event.noisyPixels = noisy;
+            event.commit();
+        }
+        Checkpoint target = checkpoint;
+        if (target != null && tileSamples > 0) {
+            target.markDirty(startX, startY);
+        }
+        return noisy;
+    }
+
+    private static boolean isConverged(int x, int y, int sampleCount) {
+        return sampleCount >= ADAPTIVE_MIN_SAMPLES
+                && accumulation.getRelativeError(x, y, ADAPTIVE_LUMINANCE_FLOOR) < passNoiseThreshold;
     }
 
     public static void shutdown() {
-        threadPool.shutdown();
+        scheduler.shutdown();
     }
 
     public static class RenderStats {
@@ -316,5 +826,20 @@ public class ProgressiveRenderer {
         public long elapsedTimeMs;
         public String statusMessage;
         public boolean isRendering;
+        public double lastPassMs;
+        public double workerUtilization;
+        public double loadImbalance;
+        public int splitTiles;
+        public int cancelledPasses;
+        public long discardedSamples;
+        public double lastCancelLatencyMs;
+        public int reprojectedPixels;
+        // Samples added to the image since the last reset.
+        public long totalSamples;
+        public RenderMetrics.Snapshot metrics;
+        // Whether the cost heatmap is shown, and the per-sample trace times its colour scale spans.
+        public boolean costView;
+        public double costLowMicros;
+        public double costHighMicros;
     }
 }
\ No newline at end of file
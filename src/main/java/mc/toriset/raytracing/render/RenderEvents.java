@@ -0,0 +1,111 @@
+package mc.toriset.raytracing.render;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Java Flight Recorder events for render passes, tiles and a sample of traced paths, so a
+ * recording shows which passes, screen regions and materials the time went to. Nothing is
+ * emitted unless {@link #enabled} is set (or the JVM was started with {@code -Draytracing.jfr=true})
+ * and a recording has the events enabled; while {@link #enabled} is false the render code does
+ * not even allocate them. Record with e.g.
+ * {@code -XX:StartFlightRecording=filename=render.jfr -Draytracing.jfr=true} and look for the
+ * "Raytracing" category.
+ */
+public class RenderEvents {
+    public static boolean enabled = Boolean.getBoolean("raytracing.jfr");
+
+    // Each render thread emits a PathEvent for one in this many samples.
+    public static int pathSampleInterval = 4096;
+
+    @Name("mc.toriset.raytracing.Pass")
+    @Label("Render Pass")
+    @Category("Raytracing")
+    public static class PassEvent extends Event {
+        @Label("Width")
+        public int width;
+
+        @Label("Height")
+        public int height;
+
+        @Label("Tiles")
+        public int tiles;
+
+        @Label("Split Tiles")
+        public int splitTiles;
+
+        @Label("Worker Utilization")
+        @Description("Share of the pass the workers spent rendering")
+        public double utilization;
+
+        @Label("Cancelled")
+        public boolean cancelled;
+    }
+
+    // Tile and path events always come from the same call path; leaving the stack out keeps them cheap.
+    @Name("mc.toriset.raytracing.Tile")
+    @StackTrace(false)
+    @Label("Render Tile")
+    @Category("Raytracing")
+    public static class TileEvent extends Event {
+        @Label("Start X")
+        public int startX;
+
+        @Label("Start Y")
+        public int startY;
+
+        @Label("End X")
+        public int endX;
+
+        @Label("End Y")
+        public int endY;
+
+        @Label("Samples")
+        @Description("Samples added to the tile's pixels")
+        public long samples;
+
+        @Label("Rays")
+        public long rays;
+
+        @Label("Noisy Pixels")
+        @Description("Pixels still above the noise threshold in an adaptive pass")
+        public int noisyPixels;
+    }
+
+    @Name("mc.toriset.raytracing.Path")
+    @StackTrace(false)
+    @Label("Traced Path")
+    @Category("Raytracing")
+    @Description("One sampled camera path, every pathSampleInterval samples per thread")
+    public static class PathEvent extends Event {
+        @Label("Pixel X")
+        public int x;
+
+        @Label("Pixel Y")
+        public int y;
+
+        @Label("Depth")
+        @Description("Depth of the deepest ray of the path")
+        public int depth;
+
+        @Label("Box Tests")
+        public long boxTests;
+
+        @Label("Hit Object")
+        @Description("Index of the first object hit in World.objects, or -1 for voxels and the sky")
+        public int object;
+
+        @Label("Reflectivity")
+        public float reflectivity;
+
+        @Label("Transparency")
+        public float transparency;
+
+        @Label("Refractive Index")
+        public float refractiveIndex;
+    }
+}
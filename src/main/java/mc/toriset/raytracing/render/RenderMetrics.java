@@ -0,0 +1,312 @@
+package mc.toriset.raytracing.render;
+
+import mc.toriset.raytracing.raycast.RaycastPath;
+import mc.toriset.raytracing.raycast.TraceScratch;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.JMException;
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of everything traced in this process since start or {@link #reset()}: primary and
+ * secondary rays, box tests, misses, the deepest bounce of each sample and how long tiles take.
+ * Render threads count in their {@link TraceScratch} and hand the counts over once per tile, so
+ * the shared counters here are touched a few times per tile rather than per ray. Readers get a
+ * consistent-enough {@link Snapshot}, and {@link #register()} publishes the same values over JMX
+ * for jconsole or a metrics agent.
+ */
+public class RenderMetrics {
+    public static final String OBJECT_NAME = "mc.toriset.raytracing:type=RenderMetrics";
+
+    // Tile latency bucket i holds tiles that took [2^i, 2^(i+1)) microseconds; the last is open.
+    public static final int LATENCY_BUCKETS = 28;
+
+    private static final LongAdder primaryRays = new LongAdder();
+    private static final LongAdder secondaryRays = new LongAdder();
+    private static final LongAdder boxTests = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+    private static final LongAdder samples = new LongAdder();
+    private static final LongAdder tiles = new LongAdder();
+    private static final LongAdder tileNanos = new LongAdder();
+    private static final LongAdder[] bounces = adders(RaycastPath.MAX_BOUNCES);
+    private static final LongAdder[] tileLatency = adders(LATENCY_BUCKETS);
+
+    // Rays per second of the last finished pass.
+    private static volatile long passStartNanos, passStartRays;
+    private static volatile double lastPassRaysPerSecond;
+    private static volatile long startNanos = System.nanoTime();
+
+    private static LongAdder[] adders(int count) {
+        LongAdder[] result = new LongAdder[count];
+        for (int i = 0; i < count; i++) {
+            result[i] = new LongAdder();
+        }
+        return result;
+    }
+
+    /**
+     * Records a finished tile of {@code tileSamples} samples that took {@code nanos}, and takes
+     * over the counts the calling thread's scratch gathered while tracing it.
+     */
+    public static void recordTile(TraceScratch scratch, long nanos, long tileSamples) {
+        scratch.drainCounters();
+        samples.add(tileSamples);
+        tiles.increment();
+        tileNanos.add(nanos);
+        tileLatency[latencyBucket(nanos)].increment();
+    }
+
+    // Called by TraceScratch.drainCounters().
+    public static void addRays(long primary, long secondary, long boxes, long missed, long[] deepestBounce) {
+        primaryRays.add(primary);
+        secondaryRays.add(secondary);
+        boxTests.add(boxes);
+        misses.add(missed);
+        for (int i = 0; i < deepestBounce.length; i++) {
+            if (deepestBounce[i] != 0) {
+                bounces[i].add(deepestBounce[i]);
+            }
+        }
+    }
+
+    static int latencyBucket(long nanos) {
+        long micros = nanos / 1000;
+        int bucket = micros <= 0 ? 0 : 63 - Long.numberOfLeadingZeros(micros);
+        return Math.min(bucket, LATENCY_BUCKETS - 1);
+    }
+
+    // Around a pass of the scheduler; gives the rays per second of the last pass.
+    static void beginPass() {
+        passStartRays = primaryRays.sum() + secondaryRays.sum();
+        passStartNanos = System.nanoTime();
+    }
+
+    static void endPass() {
+        long nanos = System.nanoTime() - passStartNanos;
+        long rays = primaryRays.sum() + secondaryRays.sum() - passStartRays;
+        if (nanos > 0) {
+            lastPassRaysPerSecond = rays * 1e9 / nanos;
+        }
+    }
+
+    /** Zeroes every counter. Counts still held by render threads are kept for their next tile. */
+    public static void reset() {
+        primaryRays.reset();
+        secondaryRays.reset();
+        boxTests.reset();
+        misses.reset();
+        samples.reset();
+        tiles.reset();
+        tileNanos.reset();
+        for (LongAdder adder : bounces) {
+            adder.reset();
+        }
+        for (LongAdder adder : tileLatency) {
+            adder.reset();
+        }
+        lastPassRaysPerSecond = 0;
+        startNanos = System.nanoTime();
+    }
+
+    /**
+     * Current values. Each counter is read once; counters updated while the snapshot is taken may
+     * be one tile apart, which is fine for monitoring but not for exact accounting.
+     */
+    public static Snapshot snapshot() {
+        return new Snapshot();
+    }
+
+    /**
+     * Registers the metrics with the platform MBean server under {@link #OBJECT_NAME}. Calling it
+     * again is harmless; a failure is reported and rendering carries on without JMX.
+     */
+    public static void register() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(new Bean(), new ObjectName(OBJECT_NAME));
+        } catch (InstanceAlreadyExistsException e) {
+            // Already registered.
+        } catch (MalformedObjectNameException e) {
+            throw new IllegalStateException(e);
+        } catch (JMException e) {
+            System.err.println("Could not register render metrics with JMX: " + e.getMessage());
+        }
+    }
+
+    private static long[] sums(LongAdder[] adders) {
+        long[] result = new long[adders.length];
+        for (int i = 0; i < adders.length; i++) {
+            result[i] = adders[i].sum();
+        }
+        return result;
+    }
+
+    public static class Snapshot {
+        public final long primaryRays = RenderMetrics.primaryRays.sum();
+        public final long secondaryRays = RenderMetrics.secondaryRays.sum();
+        public final long boxTests = RenderMetrics.boxTests.sum();
+        public final long misses = RenderMetrics.misses.sum();
+        public final long samples = RenderMetrics.samples.sum();
+        public final long tiles = RenderMetrics.tiles.sum();
+        public final long tileNanos = RenderMetrics.tileNanos.sum();
+        // bounceHistogram[d]: samples whose deepest ray was at depth d.
+        public final long[] bounceHistogram = sums(bounces);
+        public final long[] tileLatencyHistogram = sums(tileLatency);
+        public final double lastPassRaysPerSecond = RenderMetrics.lastPassRaysPerSecond;
+        public final long uptimeNanos = System.nanoTime() - startNanos;
+
+        private Snapshot() {
+        }
+
+        public long getRays() {
+            return primaryRays + secondaryRays;
+        }
+
+        public double getAverageRaysPerSecond() {
+            return uptimeNanos > 0 ? getRays() * 1e9 / uptimeNanos : 0;
+        }
+
+        public double getAverageBounces() {
+            long count = 0, sum = 0;
+            for (int d = 0; d < bounceHistogram.length; d++) {
+                count += bounceHistogram[d];
+                sum += d * bounceHistogram[d];
+            }
+            return count > 0 ? (double) sum / count : 0;
+        }
+
+        public double getBoxTestsPerRay() {
+            return getRays() > 0 ? (double) boxTests / getRays() : 0;
+        }
+
+        public double getMeanTileMs() {
+            return tiles > 0 ? tileNanos / 1e6 / tiles : 0;
+        }
+
+        /**
+         * Tile latency at {@code quantile} in milliseconds, read from the histogram: the upper
+         * edge of the bucket the quantile falls in, so at most twice the true value.
+         */
+        public double getTileLatencyMs(double quantile) {
+            long target = (long) Math.ceil(tiles * quantile);
+            long seen = 0;
+            for (int i = 0; i < tileLatencyHistogram.length; i++) {
+                seen += tileLatencyHistogram[i];
+                if (seen >= target && seen > 0) {
+                    return (1L << (i + 1)) / 1000.0;
+                }
+            }
+            return 0;
+        }
+    }
+
+    /** Management interface of the values in {@link Snapshot}. */
+    public interface RenderMetricsMXBean {
+        long getPrimaryRays();
+        long getSecondaryRays();
+        long getBoxTests();
+        long getMisses();
+        long getSamples();
+        long getTiles();
+        double getLastPassRaysPerSecond();
+        double getAverageRaysPerSecond();
+        double getAverageBounces();
+        double getBoxTestsPerRay();
+        double getMeanTileMs();
+        double getTileLatencyP50Ms();
+        double getTileLatencyP90Ms();
+        double getTileLatencyP99Ms();
+        long[] getBounceHistogram();
+        long[] getTileLatencyHistogram();
+        void reset();
+    }
+
+    private static class Bean implements RenderMetricsMXBean {
+        @Override
+        public long getPrimaryRays() {
+            return primaryRays.sum();
+        }
+
+        @Override
+        public long getSecondaryRays() {
+            return secondaryRays.sum();
+        }
+
+        @Override
+        public long getBoxTests() {
+            return boxTests.sum();
+        }
+
+        @Override
+        public long getMisses() {
+            return misses.sum();
+        }
+
+        @Override
+        public long getSamples() {
+            return samples.sum();
+        }
+
+        @Override
+        public long getTiles() {
+            return tiles.sum();
+        }
+
+        @Override
+        public double getLastPassRaysPerSecond() {
+            return lastPassRaysPerSecond;
+        }
+
+        @Override
+        public double getAverageRaysPerSecond() {
+            return snapshot().getAverageRaysPerSecond();
+        }
+
+        @Override
+        public double getAverageBounces() {
+            return snapshot().getAverageBounces();
+        }
+
+        @Override
+        public double getBoxTestsPerRay() {
+            return snapshot().getBoxTestsPerRay();
+        }
+
+        @Override
+        public double getMeanTileMs() {
+            return snapshot().getMeanTileMs();
+        }
+
+        @Override
+        public double getTileLatencyP50Ms() {
+            return snapshot().getTileLatencyMs(0.5);
+        }
+
+        @Override
+        public double getTileLatencyP90Ms() {
+            return snapshot().getTileLatencyMs(0.9);
+        }
+
+        @Override
+        public double getTileLatencyP99Ms() {
+            return snapshot().getTileLatencyMs(0.99);
+        }
+
+        @Override
+        public long[] getBounceHistogram() {
+            return sums(bounces);
+        }
+
+        @Override
+        public long[] getTileLatencyHistogram() {
+            return sums(tileLatency);
+        }
+
+        @Override
+        public void reset() {
+            RenderMetrics.reset();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package mc.toriset.raytracing.render;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives {@link ProgressiveRenderer} on its own thread and publishes frames through a
+ * {@link FrameExchange}, so presentation and input never wait for a pass. While a pass is running
+ * the current state of the image is published every {@link #PARTIAL_FRAME_INTERVAL_MS}; when
+ * there is nothing left to refine the thread sleeps until {@link #wakeUp()} or a short timeout.
+ */
+public class RenderPipeline implements Runnable {
+    private static final long PARTIAL_FRAME_INTERVAL_MS = 33;
+    private static final long IDLE_WAIT_NANOS = 50_000_000L;
+
+    private final int width;
+    private final int height;
+    private final FrameExchange frames;
+
+    private volatile boolean running;
+    private Thread thread;
+
+    public RenderPipeline(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.frames = new FrameExchange(width, height);
+    }
+
+    public FrameExchange getFrames() {
+        return frames;
+    }
+
+    public void start() {
+        running = true;
+        thread = new Thread(this, "render-pipeline");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() {
+        running = false;
+        wakeUp();
+        try {
+            if (thread != null) {
+                thread.join();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Called after input so an idle pipeline starts the next pass right away.
+    public void wakeUp() {
+        Thread current = thread;
+        if (current != null) {
+            LockSupport.unpark(current);
+        }
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            boolean rendered = ProgressiveRenderer.render(width, height, this::publish, PARTIAL_FRAME_INTERVAL_MS);
+            if (rendered) {
+                publish();
+            } else {
+                LockSupport.parkNanos(this, IDLE_WAIT_NANOS);
+            }
+        }
+    }
+
+    private void publish() {
+        ProgressiveRenderer.copyRaster(frames.getBackFrame().pixels);
+        frames.publish();
+    }
+}
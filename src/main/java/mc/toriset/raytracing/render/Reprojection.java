@@ -0,0 +1,85 @@
+package mc.toriset.raytracing.render;
+
+import mc.toriset.raytracing.raycast.HitRecord;
+import mc.toriset.raytracing.raycast.RaycastPath;
+import mc.toriset.raytracing.raycast.TraceScratch;
+
+/**
+ * Carries accumulated samples from one camera pose to the next. Every pixel of the new view
+ * traces its primary ray, projects the surface it hits back into the old view and takes over the
+ * old pixel's samples if that pixel saw the same surface: a depth within {@link #DEPTH_TOLERANCE}
+ * and a normal within {@link #NORMAL_TOLERANCE}. Disoccluded pixels start again from zero.
+ */
+public class Reprojection {
+    public static boolean enabled = true;
+
+    // Carried pixels keep at most this many samples. Surfaces that reflect or refract look
+    // different from every position, so they keep far fewer.
+    public static int maxHistory = 64;
+    private static final int SPECULAR_MAX_HISTORY = 4;
+
+    // Relative depth difference, and minimum dot product of the normals, to count as one surface.
+    private static final double DEPTH_TOLERANCE = 0.05;
+    private static final double NORMAL_TOLERANCE = 0.9;
+
+    /**
+     * Rebuilds {@code target} and {@code targetSurfaces} for the view {@code to} from the history
+     * accumulated in view {@code from}, resolving every pixel into {@code raster}. Returns the
+     * number of pixels whose samples were carried over.
+     */
+    public static int reproject(TileScheduler scheduler, CameraSnapshot from, AccumulationBuffer history,
+                                SurfaceBuffer historySurfaces, CameraSnapshot to, AccumulationBuffer target,
+                                SurfaceBuffer targetSurfaces, int[] raster) {
+        int width = target.getWidth(), height = target.getHeight();
+        target.clear();
+
+        return scheduler.runTiles(width, height, (startX, startY, endX, endY) -> {
+            TraceScratch scratch = TraceScratch.get();
+            double[] direction = new double[3];
+            double[] projected = new double[3];
+            int carried = 0;
+
+            for (int y = startY; y < endY; y++) {
+                for (int x = startX; x < endX; x++) {
+                    to.rayDirection(x + 0.5, y + 0.5, width, height, direction);
+                    RaycastPath.tracePrimary(to.x, to.y, to.z, direction[0], direction[1], direction[2]);
+                    HitRecord hit = scratch.getPrimaryHit();
+                    targetSurfaces.set(x, y, hit, to.x, to.y, to.z);
+
+                    if (hit != null && from.project(hit.x, hit.y, hit.z, width, height, projected)) {
+                        int oldX = (int) Math.floor(projected[0]);
+                        int oldY = (int) Math.floor(projected[1]);
+                        if (oldX >= 0 && oldX < width && oldY >= 0 && oldY < height
+                                && history.getSampleCount(oldX, oldY) > 0
+                                && isSameSurface(historySurfaces, oldX, oldY, projected[2], hit)) {
+                            target.copyPixel(history, oldX, oldY, x, y, historyLimit(hit));
+                            carried++;
+                        }
+                    }
+
+                    raster[y * width + x] = target.resolve(x, y);
+                }
+            }
+            return carried;
+        });
+    }
+
+    private static boolean isSameSurface(SurfaceBuffer surfaces, int x, int y, double depth, HitRecord hit) {
+        double oldDepth = surfaces.getDepth(x, y);
+        if (Math.abs(oldDepth - depth) > DEPTH_TOLERANCE * depth) {
+            return false;
+        }
+
+        double dot = surfaces.getNormal(x, y, 0) * hit.normalX
+                + surfaces.getNormal(x, y, 1) * hit.normalY
+                + surfaces.getNormal(x, y, 2) * hit.normalZ;
+        return dot >= NORMAL_TOLERANCE;
+    }
+
+    private static int historyLimit(HitRecord hit) {
+        if (hit.object != null && hit.object.reflectivity + hit.object.transparency > 0) {
+            return Math.min(maxHistory, SPECULAR_MAX_HISTORY);
+        }
+        return maxHistory;
+    }
+}
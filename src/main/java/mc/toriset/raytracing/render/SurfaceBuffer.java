@@ -0,0 +1,93 @@
+package mc.toriset.raytracing.render;
+
+import mc.toriset.raytracing.raycast.HitRecord;
+
+import java.util.Arrays;
+
+/**
+ * What each pixel's primary ray hit: the distance from the eye, the surface normal and the
+ * surface's base colour, kept in flat row-major arrays next to the {@link AccumulationBuffer}.
+ * Reprojection uses it to tell whether a pixel still sees the same surface after the camera
+ * moves, and the {@link Denoiser} to find edges. Pixels whose primary ray missed have infinite
+ * depth and zero normal and albedo.
+ */
+public class SurfaceBuffer {
+    private final int width;
+    private final int height;
+    private final float[] depth;
+    private final float[] normals;
+    // Base colour of the hit surface, 0-1 per channel.
+    private final float[] albedo;
+
+    public SurfaceBuffer(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.depth = new float[width * height];
+        this.normals = new float[width * height * 3];
+        this.albedo = new float[width * height * 3];
+        clear();
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    // Records the hit seen from (eyeX, eyeY, eyeZ), or a miss if hit is null.
+    public void set(int x, int y, HitRecord hit, double eyeX, double eyeY, double eyeZ) {
+        int pixel = y * width + x;
+        int i = pixel * 3;
+        if (hit == null) {
+            depth[pixel] = Float.POSITIVE_INFINITY;
+            normals[i] = normals[i + 1] = normals[i + 2] = 0;
+            albedo[i] = albedo[i + 1] = albedo[i + 2] = 0;
+            return;
+        }
+
+        double dx = hit.x - eyeX, dy = hit.y - eyeY, dz = hit.z - eyeZ;
+        depth[pixel] = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+        normals[i] = (float) hit.normalX;
+        normals[i + 1] = (float) hit.normalY;
+        normals[i + 2] = (float) hit.normalZ;
+        if (hit.object != null) {
+            albedo[i] = hit.object.baseColor.getRed() / 255.0f;
+            albedo[i + 1] = hit.object.baseColor.getGreen() / 255.0f;
+            albedo[i + 2] = hit.object.baseColor.getBlue() / 255.0f;
+        }
+    }
+
+    public float getDepth(int x, int y) {
+        return depth[y * width + x];
+    }
+
+    public float getNormal(int x, int y, int axis) {
+        return normals[(y * width + x) * 3 + axis];
+    }
+
+    public float getAlbedo(int x, int y, int channel) {
+        return albedo[(y * width + x) * 3 + channel];
+    }
+
+    // Backing arrays for filters in this package: row-major, three floats per pixel for the
+    // normals and albedo.
+    float[] depthData() {
+        return depth;
+    }
+
+    float[] normalData() {
+        return normals;
+    }
+
+    float[] albedoData() {
+        return albedo;
+    }
+
+    public void clear() {
+        Arrays.fill(depth, Float.POSITIVE_INFINITY);
+        Arrays.fill(normals, 0);
+        Arrays.fill(albedo, 0);
+    }
+}
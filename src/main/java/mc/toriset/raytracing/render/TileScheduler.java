@@ -0,0 +1,403 @@
+package mc.toriset.raytracing.render;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Runs render passes on a work-stealing {@link ForkJoinPool}. The screen is cut into fixed tiles
+ * that are ordered by priority and handed out by recursive halving of that list, so each worker
+ * starts on the most important tiles it owns while idle workers steal the rest. Tiles that were
+ * expensive in the previous pass are split into quadrants until each piece is a small fraction of
+ * a worker's share, which keeps every core busy up to the end of the pass.
+ */
+public class TileScheduler {
+    public static final int TILE_SIZE = 32;
+    private static final int MIN_SPLIT_SIZE = 8;
+    // A tile is split while its estimated cost exceeds 1 / (threads * SPLIT_FACTOR) of the pass.
+    private static final int SPLIT_FACTOR = 8;
+
+    public enum Order {
+        RASTER,
+        CENTER_OUT,
+        COST
+    }
+
+    public static Order order = Order.CENTER_OUT;
+
+    public interface TileWork {
+        // Renders the pixels in [startX, endX) x [startY, endY) and returns a count to be summed.
+        int render(int startX, int startY, int endX, int endY);
+    }
+
+    private final ForkJoinPool pool;
+    private final int threads;
+
+    private int tilesX, tilesY;
+    private long[] tileCost = new long[0];
+    private AtomicLongArray nextTileCost = new AtomicLongArray(0);
+    private final AtomicInteger completedPixels = new AtomicInteger();
+    private volatile int passPixels;
+
+    private static final class WorkerClock {
+        long busyNanos;
+        int pass;
+    }
+
+    // Clocks of the workers that ran in the current pass. The pool retires idle workers and starts
+    // new ones, so the list is rebuilt every pass rather than kept for every thread ever seen.
+    private final List<WorkerClock> workerClocks = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<WorkerClock> localClock = ThreadLocal.withInitial(WorkerClock::new);
+    private volatile int passNumber;
+
+    private BooleanSupplier cancelled = () -> false;
+
+    private final AtomicInteger splitTiles = new AtomicInteger();
+    private long lastPassNanos;
+    private double lastUtilization;
+    private double lastImbalance;
+    private int lastSplitTiles;
+
+    public TileScheduler(int threads) {
+        this.threads = threads;
+        this.pool = new ForkJoinPool(threads);
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    /** Renders one pass over a width x height screen and returns the sum of the tile results. */
+    public int runPass(int width, int height, TileWork work) {
+        return runPass(width, height, work, null, 0, null);
+    }
+
+    /**
+     * Like {@link #runPass(int, int, TileWork)}, but the calling thread wakes every
+     * {@code progressIntervalMillis} while the pass runs and calls {@code onProgress}. Once
+     * {@code cancelled} returns true no further regions are started, and the pass's costs are not
+     * used to plan the next one.
+     * <p>
+     * The pass keeps its state (tile costs, progress, worker clocks, the cancel check) in this
+     * scheduler, so passes are not re-entrant: calls from several threads run one after another,
+     * and {@code work} must not start another pass on the same scheduler.
+     */
+    public synchronized int runPass(int width, int height, TileWork work, Runnable onProgress, long progressIntervalMillis,
+                       BooleanSupplier cancelled) {
+        this.cancelled = cancelled != null ? cancelled : () -> false;
+
+        int newTilesX = (width + TILE_SIZE - 1) / TILE_SIZE;
+        int newTilesY = (height + TILE_SIZE - 1) / TILE_SIZE;
+        if (newTilesX != tilesX || newTilesY != tilesY) {
+            tilesX = newTilesX;
+            tilesY = newTilesY;
+            tileCost = new long[tilesX * tilesY];
+        }
+        nextTileCost = new AtomicLongArray(tilesX * tilesY);
+
+        Integer[] ordered = orderTiles(width, height);
+        long totalCost = 0;
+        for (long cost : tileCost) {
+            totalCost += cost;
+        }
+        long splitThreshold = totalCost / ((long) threads * SPLIT_FACTOR);
+
+        workerClocks.clear();
+        passNumber++;
+        completedPixels.set(0);
+        passPixels = width * height;
+        splitTiles.set(0);
+
+        RenderEvents.PassEvent event = RenderEvents.enabled ? new RenderEvents.PassEvent() : null;
+        if (event != null) {
+            event.begin();
+        }
+        RenderMetrics.beginPass();
+        long start = System.nanoTime();
+        TileListTask root = new TileListTask(ordered, 0, ordered.length, width, height, splitThreshold, work);
+        int result = onProgress == null ? pool.invoke(root) : awaitWithProgress(pool.submit(root), onProgress, progressIntervalMillis);
+        lastPassNanos = System.nanoTime() - start;
+        RenderMetrics.endPass();
+
+        if (!this.cancelled.getAsBoolean()) {
+            for (int i = 0; i < tileCost.length; i++) {
+                tileCost[i] = nextTileCost.get(i);
+            }
+        }
+        summarizePass();
+
+        if (event != null && event.shouldCommit()) {
+            event.width = width;
+            event.height = height;
+            event.tiles = ordered.length;
+            event.splitTiles = lastSplitTiles;
+            event.utilization = lastUtilization;
+            event.cancelled = this.cancelled.getAsBoolean();
+            event.commit();
+        }
+        return result;
+    }
+
+    /**
+     * Runs {@code work} over fixed tiles of a width x height screen on the pool and returns the
+     * sum of the results. Meant for image stages whose cost is even across the screen, such as
+     * filters; unlike {@link #runPass} it neither splits tiles nor touches the pass statistics.
+     */
+    public int runTiles(int width, int height, TileWork work) {
+        int columns = (width + TILE_SIZE - 1) / TILE_SIZE;
+        int rows = (height + TILE_SIZE - 1) / TILE_SIZE;
+        return pool.invoke(new TileRangeTask(0, columns * rows, columns, width, height, work));
+    }
+
+    private static int awaitWithProgress(ForkJoinTask<Integer> task, Runnable onProgress, long intervalMillis) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return task.get(intervalMillis, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    onProgress.run();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) {
+                        throw (RuntimeException) cause;
+                    }
+                    throw new IllegalStateException(cause);
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // The calling worker's clock, joining this pass's list on its first tile of the pass.
+    private WorkerClock workerClock() {
+        WorkerClock clock = localClock.get();
+        if (clock.pass != passNumber) {
+            clock.pass = passNumber;
+            clock.busyNanos = 0;
+            workerClocks.add(clock);
+        }
+        return clock;
+    }
+
+    private Integer[] orderTiles(int width, int height) {
+        Integer[] tiles = new Integer[tilesX * tilesY];
+        for (int i = 0; i < tiles.length; i++) {
+            tiles[i] = i;
+        }
+
+        boolean haveCosts = false;
+        for (long cost : tileCost) {
+            if (cost > 0) {
+                haveCosts = true;
+                break;
+            }
+        }
+
+        if (order == Order.COST && haveCosts) {
+            Arrays.sort(tiles, (a, b) -> Long.compare(tileCost[b], tileCost[a]));
+        } else if (order != Order.RASTER) {
+            double centerX = width / 2.0, centerY = height / 2.0;
+            double[] distance = new double[tiles.length];
+            for (int i = 0; i < tiles.length; i++) {
+                double dx = (i % tilesX + 0.5) * TILE_SIZE - centerX;
+                double dy = (i / tilesX + 0.5) * TILE_SIZE - centerY;
+                distance[i] = dx * dx + dy * dy;
+            }
+            Arrays.sort(tiles, (a, b) -> Double.compare(distance[a], distance[b]));
+        }
+        return tiles;
+    }
+
+    private void summarizePass() {
+        long busySum = 0, busyMax = 0;
+        for (WorkerClock clock : workerClocks) {
+            busySum += clock.busyNanos;
+            busyMax = Math.max(busyMax, clock.busyNanos);
+        }
+        double busyMean = (double) busySum / threads;
+
+        lastUtilization = lastPassNanos > 0 ? busySum / ((double) threads * lastPassNanos) : 0;
+        lastImbalance = busyMean > 0 ? busyMax / busyMean - 1.0 : 0;
+        lastSplitTiles = splitTiles.get();
+    }
+
+    // Fraction of the running (or last) pass's pixels that are done.
+    public double getProgress() {
+        int pixels = passPixels;
+        return pixels > 0 ? (double) completedPixels.get() / pixels : 0;
+    }
+
+    public long getLastPassNanos() {
+        return lastPassNanos;
+    }
+
+    // Busy time summed over workers divided by threads x wall time of the pass.
+    public double getLastUtilization() {
+        return lastUtilization;
+    }
+
+    // Busiest worker's time over the mean worker's time, minus one; 0 means perfectly even.
+    public double getLastImbalance() {
+        return lastImbalance;
+    }
+
+    public int getLastSplitTiles() {
+        return lastSplitTiles;
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    // Fork/join tasks are never serialized, so the tasks below declare no serialVersionUID.
+
+    // Hands out a priority-ordered slice of tiles: the first half is kept, the second half forked.
+    @SuppressWarnings("serial")
+    private final class TileListTask extends RecursiveTask<Integer> {
+        private final Integer[] tiles;
+        private final int from, to, width, height;
+        private final long splitThreshold;
+        private final TileWork work;
+
+        TileListTask(Integer[] tiles, int from, int to, int width, int height, long splitThreshold, TileWork work) {
+            this.tiles = tiles;
+            this.from = from;
+            this.to = to;
+            this.width = width;
+            this.height = height;
+            this.splitThreshold = splitThreshold;
+            this.work = work;
+        }
+
+        @Override
+        protected Integer compute() {
+            if (to == from || cancelled.getAsBoolean()) {
+                return 0;
+            }
+            if (to - from == 1) {
+                int tile = tiles[from];
+                int startX = (tile % tilesX) * TILE_SIZE;
+                int startY = (tile / tilesX) * TILE_SIZE;
+                RegionTask region = new RegionTask(tile, startX, startY,
+                        Math.min(startX + TILE_SIZE, width), Math.min(startY + TILE_SIZE, height),
+                        tileCost[tile], splitThreshold, work);
+                region.compute();
+                return region.result;
+            }
+
+            int mid = (from + to) >>> 1;
+            TileListTask later = new TileListTask(tiles, mid, to, width, height, splitThreshold, work);
+            later.fork();
+            int result = new TileListTask(tiles, from, mid, width, height, splitThreshold, work).compute();
+            return result + later.join();
+        }
+    }
+
+    // Contiguous range of raster-ordered tiles for runTiles(), halved until one tile is left.
+    @SuppressWarnings("serial")
+    private static final class TileRangeTask extends RecursiveTask<Integer> {
+        private final int from, to, columns, width, height;
+        private final TileWork work;
+
+        TileRangeTask(int from, int to, int columns, int width, int height, TileWork work) {
+            this.from = from;
+            this.to = to;
+            this.columns = columns;
+            this.width = width;
+            this.height = height;
+            this.work = work;
+        }
+
+        @Override
+        protected Integer compute() {
+            if (to == from) {
+                return 0;
+            }
+            if (to - from == 1) {
+                int startX = (from % columns) * TILE_SIZE;
+                int startY = (from / columns) * TILE_SIZE;
+                return work.render(startX, startY, Math.min(startX + TILE_SIZE, width), Math.min(startY + TILE_SIZE, height));
+            }
+
+            int mid = (from + to) >>> 1;
+            TileRangeTask later = new TileRangeTask(mid, to, columns, width, height, work);
+            later.fork();
+            int result = new TileRangeTask(from, mid, columns, width, height, work).compute();
+            return result + later.join();
+        }
+    }
+
+    // One tile or a quadrant of one, split further while its estimated cost is too large.
+    @SuppressWarnings("serial")
+    private final class RegionTask extends RecursiveAction {
+        private final int tile, startX, startY, endX, endY;
+        private final long estimatedCost, splitThreshold;
+        private final TileWork work;
+        int result;
+
+        RegionTask(int tile, int startX, int startY, int endX, int endY,
+                   long estimatedCost, long splitThreshold, TileWork work) {
+            this.tile = tile;
+            this.startX = startX;
+            this.startY = startY;
+            this.endX = endX;
+            this.endY = endY;
+            this.estimatedCost = estimatedCost;
+            this.splitThreshold = splitThreshold;
+            this.work = work;
+        }
+
+        @Override
+        protected void compute() {
+            int w = endX - startX, h = endY - startY;
+            if (splitThreshold > 0 && estimatedCost > splitThreshold && w >= 2 * MIN_SPLIT_SIZE && h >= 2 * MIN_SPLIT_SIZE) {
+                int midX = startX + w / 2, midY = startY + h / 2;
+                long quarter = estimatedCost / 4;
+                RegionTask[] parts = {
+                        new RegionTask(tile, startX, startY, midX, midY, quarter, splitThreshold, work),
+                        new RegionTask(tile, midX, startY, endX, midY, quarter, splitThreshold, work),
+                        new RegionTask(tile, startX, midY, midX, endY, quarter, splitThreshold, work),
+                        new RegionTask(tile, midX, midY, endX, endY, quarter, splitThreshold, work)
+                };
+                splitTiles.incrementAndGet();
+                invokeAll(parts);
+                for (RegionTask part : parts) {
+                    result += part.result;
+                }
+                return;
+            }
+
+            if (cancelled.getAsBoolean()) {
+                return;
+            }
+
+            long start = System.nanoTime();
+            result = work.render(startX, startY, endX, endY);
+            long elapsed = System.nanoTime() - start;
+
+            workerClock().busyNanos += elapsed;
+            nextTileCost.addAndGet(tile, elapsed);
+            completedPixels.addAndGet(w * h);
+        }
+    }
+}
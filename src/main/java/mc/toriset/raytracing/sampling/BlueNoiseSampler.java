@@ -0,0 +1,136 @@
+package mc.toriset.raytracing.sampling;
+
+import mc.toriset.raytracing.util.CounterRandom;
+
+/**
+ * Blue-noise sampler: every pixel follows the same Sobol sequence, rotated per dimension and
+ * frame by a toroidally shifted copy of one 64x64 void-and-cluster tile. Each pixel's own samples stay
+ * stratified, while the error left between neighbouring pixels is high-frequency noise that the
+ * eye and any spatial filter average out quickly.
+ */
+public final class BlueNoiseSampler implements Sampler {
+    public static final BlueNoiseSampler INSTANCE = new BlueNoiseSampler();
+
+    private static final int TILE_BITS = 6;
+    private static final int TILE_SIZE = 1 << TILE_BITS;
+    private static final int TILE_MASK = TILE_SIZE - 1;
+
+    private BlueNoiseSampler() {
+    }
+
+    @Override
+    public double get(int x, int y, int frame, int index, int dimension, long pixelKey) {
+        // The shift changes per frame too, or every frame of an animation would show the same noise.
+        long shift = CounterRandom.mix(((long) frame << 32) + dimension + 1L);
+        int tileX = (x + (int) shift) & TILE_MASK;
+        int tileY = (y + (int) (shift >>> 32)) & TILE_MASK;
+
+        double value = Tile.VALUES[(tileY << TILE_BITS) | tileX]
+                + SobolSampler.INSTANCE.get(0, 0, 0, index, dimension, 0);
+        return value >= 1.0 ? value - 1.0 : value;
+    }
+
+    @Override
+    public String getName() {
+        return "blue-noise";
+    }
+
+    // Built on first use; generating the tile takes a few tens of milliseconds.
+    private static final class Tile {
+        static final float[] VALUES = generate(TILE_SIZE, 1.5);
+    }
+
+    /**
+     * Ulichney's void-and-cluster method. Points repel each other through a Gaussian energy; ranks
+     * are assigned by removing the tightest clusters from a relaxed initial pattern and then
+     * filling the largest voids until the tile is full. Returns (rank + 0.5) / size^2 per cell.
+     */
+    private static float[] generate(int size, double sigma) {
+        int cells = size * size;
+        int radius = (int) Math.ceil(3 * sigma);
+        int kernelWidth = 2 * radius + 1;
+        double[] kernel = new double[kernelWidth * kernelWidth];
+        for (int dy = -radius; dy <= radius; dy++) {
+            for (int dx = -radius; dx <= radius; dx++) {
+                kernel[(dy + radius) * kernelWidth + dx + radius] = Math.exp(-(dx * dx + dy * dy) / (2 * sigma * sigma));
+            }
+        }
+
+        boolean[] pattern = new boolean[cells];
+        double[] energy = new double[cells];
+
+        int initialCount = cells / 10;
+        for (int placed = 0, attempt = 0; placed < initialCount; attempt++) {
+            int cell = (int) (CounterRandom.uniform(0, attempt) * cells);
+            if (!pattern[cell]) {
+                pattern[cell] = true;
+                splat(energy, kernel, radius, size, cell, 1);
+                placed++;
+            }
+        }
+
+        // Move the tightest cluster into the largest void until that no longer changes anything.
+        for (int iteration = 0; iteration < cells; iteration++) {
+            int cluster = extreme(pattern, energy, true);
+            pattern[cluster] = false;
+            splat(energy, kernel, radius, size, cluster, -1);
+
+            int candidate = extreme(pattern, energy, false);
+            pattern[candidate] = true;
+            splat(energy, kernel, radius, size, candidate, 1);
+            if (candidate == cluster) {
+                break;
+            }
+        }
+
+        int[] rank = new int[cells];
+
+        boolean[] shrinking = pattern.clone();
+        double[] shrinkingEnergy = energy.clone();
+        for (int r = initialCount - 1; r >= 0; r--) {
+            int cluster = extreme(shrinking, shrinkingEnergy, true);
+            shrinking[cluster] = false;
+            splat(shrinkingEnergy, kernel, radius, size, cluster, -1);
+            rank[cluster] = r;
+        }
+
+        for (int r = initialCount; r < cells; r++) {
+            int candidate = extreme(pattern, energy, false);
+            pattern[candidate] = true;
+            splat(energy, kernel, radius, size, candidate, 1);
+            rank[candidate] = r;
+        }
+
+        float[] values = new float[cells];
+        for (int i = 0; i < cells; i++) {
+            values[i] = (rank[i] + 0.5f) / cells;
+        }
+        return values;
+    }
+
+    // Highest-energy set cell (tightest cluster) or lowest-energy empty cell (largest void).
+    private static int extreme(boolean[] pattern, double[] energy, boolean cluster) {
+        int best = -1;
+        for (int i = 0; i < energy.length; i++) {
+            if (pattern[i] != cluster) continue;
+            if (best < 0 || (cluster ? energy[i] > energy[best] : energy[i] < energy[best])) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private static void splat(double[] energy, double[] kernel, int radius, int size, int cell, int sign) {
+        int kernelWidth = 2 * radius + 1;
+        int mask = size - 1;
+        int cx = cell % size;
+        int cy = cell / size;
+
+        for (int dy = -radius; dy <= radius; dy++) {
+            int row = ((cy + dy) & mask) * size;
+            for (int dx = -radius; dx <= radius; dx++) {
+                energy[row + ((cx + dx) & mask)] += sign * kernel[(dy + radius) * kernelWidth + dx + radius];
+            }
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package mc.toriset.raytracing.sampling;
+
+import mc.toriset.raytracing.util.CounterRandom;
+
+/**
+ * Halton sequence, one prime base per dimension, with a per-pixel Cranley-Patterson rotation so
+ * neighbouring pixels do not share the same points. Higher bases correlate badly, so dimensions
+ * past {@link #PRIMES} fall back to {@link RandomSampler}.
+ */
+public final class HaltonSampler implements Sampler {
+    public static final HaltonSampler INSTANCE = new HaltonSampler();
+
+    private static final int[] PRIMES = {
+            2, 3, 5, 7, 11, 13, 17, 19, 23, 29, 31, 37, 41, 43, 47, 53,
+            59, 61, 67, 71, 73, 79, 83, 89, 97, 101, 103, 107, 109, 113, 127, 131
+    };
+
+    private HaltonSampler() {
+    }
+
+    @Override
+    public double get(int x, int y, int frame, int index, int dimension, long pixelKey) {
+        if (dimension >= PRIMES.length) {
+            return RandomSampler.INSTANCE.get(x, y, frame, index, dimension, pixelKey);
+        }
+
+        double value = radicalInverse(index, PRIMES[dimension]) + CounterRandom.uniform(pixelKey, dimension);
+        return value >= 1.0 ? value - 1.0 : value;
+    }
+
+    private static double radicalInverse(int index, int base) {
+        double inverseBase = 1.0 / base;
+        double scale = inverseBase;
+        double result = 0;
+
+        while (index > 0) {
+            result += (index % base) * scale;
+            index /= base;
+            scale *= inverseBase;
+        }
+        return result;
+    }
+
+    @Override
+    public String getName() {
+        return "halton";
+    }
+}
@@ -0,0 +1,24 @@
+package mc.toriset.raytracing.sampling;
+
+import mc.toriset.raytracing.util.CounterRandom;
+
+/**
+ * Independent uniform numbers from {@link CounterRandom}. Also the fallback for dimensions the
+ * structured samplers do not cover.
+ */
+public final class RandomSampler implements Sampler {
+    public static final RandomSampler INSTANCE = new RandomSampler();
+
+    private RandomSampler() {
+    }
+
+    @Override
+    public double get(int x, int y, int frame, int index, int dimension, long pixelKey) {
+        return CounterRandom.uniform(CounterRandom.sampleKey(pixelKey, index), dimension);
+    }
+
+    @Override
+    public String getName() {
+        return "random";
+    }
+}
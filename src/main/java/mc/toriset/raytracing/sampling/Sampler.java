@@ -0,0 +1,23 @@
+package mc.toriset.raytracing.sampling;
+
+/**
+ * Source of the random numbers a sample consumes. Values are addressed rather than drawn: the
+ * same pixel, sample index and dimension always give the same value, so progressive passes that
+ * continue a pixel's sample index extend one well-distributed sequence instead of starting over.
+ */
+public interface Sampler {
+
+    /**
+     * Returns a value in [0, 1).
+     *
+     * @param x         pixel column
+     * @param y         pixel row
+     * @param frame     frame seed, see {@code ProgressiveRenderer.setFrameSeed}; also part of pixelKey
+     * @param index     index of the sample within the pixel, counted across passes
+     * @param dimension which number of the sample is wanted; see {@code RaycastPath} for the layout
+     * @param pixelKey  per-pixel hash used to scramble or decorrelate the sequence
+     */
+    double get(int x, int y, int frame, int index, int dimension, long pixelKey);
+
+    String getName();
+}
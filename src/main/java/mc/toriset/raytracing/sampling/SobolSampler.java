@@ -0,0 +1,65 @@
+package mc.toriset.raytracing.sampling;
+
+import mc.toriset.raytracing.util.CounterRandom;
+
+/**
+ * Owen-scrambled Sobol points, padded in pairs of dimensions (Burley, "Practical Hash-based Owen
+ * Scrambling", 2020). Each pair of dimensions is the first two Sobol dimensions, with the sample
+ * index shuffled and the values scrambled by hashes of the pixel and the pair. Every power-of-two
+ * prefix of a pixel's samples is therefore stratified in each pair, and pairs stay decorrelated
+ * without a table of direction numbers per dimension.
+ */
+public final class SobolSampler implements Sampler {
+    public static final SobolSampler INSTANCE = new SobolSampler();
+
+    // Direction numbers of the second Sobol dimension (primitive polynomial x + 1).
+    private static final int[] SECOND_DIMENSION = new int[32];
+
+    static {
+        int v = 1 << 31;
+        for (int i = 0; i < SECOND_DIMENSION.length; i++) {
+            SECOND_DIMENSION[i] = v;
+            v ^= v >>> 1;
+        }
+    }
+
+    private SobolSampler() {
+    }
+
+    @Override
+    public double get(int x, int y, int frame, int index, int dimension, long pixelKey) {
+        long pairKey = CounterRandom.mix(pixelKey + ((dimension >>> 1) + 1L) * CounterRandom.GOLDEN_GAMMA);
+        int shuffled = nestedUniformScramble(index, (int) pairKey);
+
+        int value = (dimension & 1) == 0 ? Integer.reverse(shuffled) : secondDimension(shuffled);
+        value = nestedUniformScramble(value, (int) (pairKey >>> 32) + (dimension & 1) * 0x68E31DA4);
+
+        return (value & 0xFFFFFFFFL) * 0x1.0p-32;
+    }
+
+    private static int secondDimension(int index) {
+        int result = 0;
+        for (int bit = 0; index != 0; bit++, index >>>= 1) {
+            if ((index & 1) != 0) {
+                result ^= SECOND_DIMENSION[bit];
+            }
+        }
+        return result;
+    }
+
+    // An Owen scramble: each output bit is flipped by a hash of the bits above it.
+    private static int nestedUniformScramble(int value, int seed) {
+        value = Integer.reverse(value);
+        value ^= value * 0x3D20ADEA;
+        value += seed;
+        value *= (seed >>> 16) | 1;
+        value ^= value * 0x05526C56;
+        value ^= value * 0x53A22864;
+        return Integer.reverse(value);
+    }
+
+    @Override
+    public String getName() {
+        return "sobol";
+    }
+}
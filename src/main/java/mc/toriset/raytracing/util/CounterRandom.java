@@ -0,0 +1,32 @@
+package mc.toriset.raytracing.util;
+
+/**
+ * Stateless counter-based random numbers. A value is a pure hash of a sample key and a dimension
+ * index, so there is no shared generator state: any thread can draw any sample's numbers in any
+ * order and always gets the same result. The mixer is the SplitMix64 finalizer.
+ */
+public final class CounterRandom {
+    public static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+    private CounterRandom() {
+    }
+
+    public static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    public static long pixelKey(int frame, int pixel) {
+        return mix(((long) frame << 32) | (pixel & 0xFFFFFFFFL));
+    }
+
+    public static long sampleKey(long pixelKey, int sample) {
+        return mix(pixelKey + (sample + 1L) * GOLDEN_GAMMA);
+    }
+
+    // Uniform in [0, 1) with 53 random bits.
+    public static double uniform(long key, int dimension) {
+        return (mix(key + (dimension + 1L) * GOLDEN_GAMMA) >>> 11) * 0x1.0p-53;
+    }
+}
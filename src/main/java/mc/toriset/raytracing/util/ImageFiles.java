@@ -0,0 +1,53 @@
+package mc.toriset.raytracing.util;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes rendered images to disk. Only image encoding is used from java.awt, so this works with
+ * java.awt.headless=true and without a display.
+ */
+public final class ImageFiles {
+    private ImageFiles() {
+    }
+
+    /** Writes packed 0xRRGGBB pixels, row by row from the top, as an 8-bit PNG. */
+    public static void writePng(int[] rgb, int width, int height, File file) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        System.arraycopy(rgb, 0, pixels, 0, width * height);
+        if (!ImageIO.write(image, "png", file)) {
+            throw new IOException("No PNG writer available");
+        }
+    }
+
+    /**
+     * Writes three floats per pixel, row by row from the top, as a little-endian colour PFM.
+     * Values are divided by 255 so that the 0-255 colour scale of the renderer maps to 0-1; the
+     * file keeps everything brighter than white.
+     */
+    public static void writePfm(float[] rgb, int width, int height, File file) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            out.write(("PF\n" + width + " " + height + "\n-1.0\n").getBytes(StandardCharsets.US_ASCII));
+
+            // PFM stores the bottom row first.
+            ByteBuffer row = ByteBuffer.allocate(width * 3 * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            for (int y = height - 1; y >= 0; y--) {
+                row.clear();
+                for (int i = y * width * 3; i < (y + 1) * width * 3; i++) {
+                    row.putFloat(rgb[i] / 255.0f);
+                }
+                out.write(row.array());
+            }
+        }
+    }
+}
@@ -1,6 +1,8 @@
 package mc.toriset.raytracing.util;
 
+import mc.toriset.raytracing.math.AABB;
 import mc.toriset.raytracing.math.Vector3D;
+import mc.toriset.raytracing.raycast.HitRecord;
 import mc.toriset.raytracing.raycast.RaycastResult;
 import mc.toriset.raytracing.world.WorldObject;
 
@@ -12,120 +14,149 @@ public class RaycastUtil {
     }
 
     public static RaycastResult rayIntersectsAABBWithDistance(Vector3D origin, Vector3D dir, WorldObject object) {
-        Vector3D min = object.boundingBox.getMin();
-        Vector3D max = object.boundingBox.getMax();
+        HitRecord hit = new HitRecord();
+        if (!rayIntersectsAABB(origin.x, origin.y, origin.z, dir.x, dir.y, dir.z, object, hit)) {
+            return null;
+        }
+        return hit.toResult();
+    }
+
+    /**
+     * Allocation-free form of {@link #rayIntersectsAABBWithDistance}. On a hit the record is filled
+     * and true is returned; on a miss the record is left untouched.
+     */
+    public static boolean rayIntersectsAABB(double ox, double oy, double oz, double dx, double dy, double dz,
+                                            WorldObject object, HitRecord out) {
+        AABB box = object.boundingBox;
+        double minX = box.getMinX(), minY = box.getMinY(), minZ = box.getMinZ();
+        double maxX = box.getMaxX(), maxY = box.getMaxY(), maxZ = box.getMaxZ();
+
         double tMin = Double.NEGATIVE_INFINITY;
         double tMax = Double.POSITIVE_INFINITY;
 
         int hitFace = -1;
 
-        for (int i = 0; i < 3; i++) {
-            double d = 0;
-            double minVal = 0;
-            double maxVal = 0;
-
-            switch (i) {
-                case 0:
-                    d = dir.getX();
-                    minVal = min.getX();
-                    maxVal = max.getX();
-                    break;
-                case 1:
-                    d = dir.getY();
-                    minVal = min.getY();
-                    maxVal = max.getY();
-                    break;
-                case 2:
-                    d = dir.getZ();
-                    minVal = min.getZ();
-                    maxVal = max.getZ();
-                    break;
+        // The three slabs are unrolled so the box is read once and no per-axis switch is needed.
+        if (Math.abs(dx) < EPSILON) {
+            if (ox < minX || ox > maxX) {
+                return false;
             }
-
-            if (Math.abs(d) < EPSILON) {
-
-                if (getOriginComponent(origin, i) < minVal || getOriginComponent(origin, i) > maxVal) {
-                    return null;
-                }
-                continue;
+        } else {
+            double invD = 1.0 / dx;
+            double t0 = (minX - ox) * invD;
+            double t1 = (maxX - ox) * invD;
+            if (t0 > t1) {
+                double temp = t0;
+                t0 = t1;
+                t1 = temp;
             }
+            if (t0 > tMin) {
+                tMin = t0;
+                hitFace = dx < 0 ? 1 : 0;
+            }
+            tMax = Math.min(tMax, t1);
+            if (tMax < tMin - EPSILON) {
+                return false;
+            }
+        }
 
-            double invD = 1.0 / d;
-            double t0 = (minVal - getOriginComponent(origin, i)) * invD;
-            double t1 = (maxVal - getOriginComponent(origin, i)) * invD;
-
+        if (Math.abs(dy) < EPSILON) {
+            if (oy < minY || oy > maxY) {
+                return false;
+            }
+        } else {
+            double invD = 1.0 / dy;
+            double t0 = (minY - oy) * invD;
+            double t1 = (maxY - oy) * invD;
             if (t0 > t1) {
                 double temp = t0;
                 t0 = t1;
                 t1 = temp;
             }
-
             if (t0 > tMin) {
                 tMin = t0;
-
-                hitFace = 2 * i + (d < 0 ? 1 : 0);
+                hitFace = dy < 0 ? 3 : 2;
             }
-
             tMax = Math.min(tMax, t1);
+            if (tMax < tMin - EPSILON) {
+                return false;
+            }
+        }
 
+        if (Math.abs(dz) < EPSILON) {
+            if (oz < minZ || oz > maxZ) {
+                return false;
+            }
+        } else {
+            double invD = 1.0 / dz;
+            double t0 = (minZ - oz) * invD;
+            double t1 = (maxZ - oz) * invD;
+            if (t0 > t1) {
+                double temp = t0;
+                t0 = t1;
+                t1 = temp;
+            }
+            if (t0 > tMin) {
+                tMin = t0;
+                hitFace = dz < 0 ? 5 : 4;
+            }
+            tMax = Math.min(tMax, t1);
             if (tMax < tMin - EPSILON) {
-                return null;
+                return false;
             }
         }
 
         double hitDistance = tMin > EPSILON ? tMin : tMax;
 
         if (hitDistance < EPSILON) {
-            return null;
+            return false;
         }
 
-        Vector3D hitPoint = getPointOnRay(origin, dir, hitDistance);
+        double hx = ox + dx * hitDistance;
+        double hy = oy + dy * hitDistance;
+        double hz = oz + dz * hitDistance;
+
+        out.distance = hitDistance;
+        out.x = hx;
+        out.y = hy;
+        out.z = hz;
+        out.object = object;
 
-        Vector3D normal;
         switch (hitFace) {
-            case 0: normal = new Vector3D(-1, 0, 0); break;
-            case 1: normal = new Vector3D(1, 0, 0); break;
-            case 2: normal = new Vector3D(0, -1, 0); break;
-            case 3: normal = new Vector3D(0, 1, 0); break;
-            case 4: normal = new Vector3D(0, 0, -1); break;
-            case 5: normal = new Vector3D(0, 0, 1); break;
+            case 0: out.setNormal(-1, 0, 0); break;
+            case 1: out.setNormal(1, 0, 0); break;
+            case 2: out.setNormal(0, -1, 0); break;
+            case 3: out.setNormal(0, 1, 0); break;
+            case 4: out.setNormal(0, 0, -1); break;
+            case 5: out.setNormal(0, 0, 1); break;
             default:
 
-                normal = calculateNormalFromPoint(hitPoint, min, max);
+                setNormalFromPoint(out, hx, hy, hz, minX, minY, minZ, maxX, maxY, maxZ);
                 break;
         }
 
-        return new RaycastResult(hitPoint, normal, object, hitDistance);
+        return true;
     }
 
-    private static double getOriginComponent(Vector3D origin, int component) {
-        switch (component) {
-            case 0: return origin.getX();
-            case 1: return origin.getY();
-            case 2: return origin.getZ();
-            default: return 0;
-        }
-    }
-
-    private static Vector3D calculateNormalFromPoint(Vector3D hitPoint, Vector3D min, Vector3D max) {
+    private static void setNormalFromPoint(HitRecord out, double hx, double hy, double hz,
+                                           double minX, double minY, double minZ,
+                                           double maxX, double maxY, double maxZ) {
 
-        double distToXMin = Math.abs(hitPoint.getX() - min.getX());
-        double distToXMax = Math.abs(hitPoint.getX() - max.getX());
-        double distToYMin = Math.abs(hitPoint.getY() - min.getY());
-        double distToYMax = Math.abs(hitPoint.getY() - max.getY());
-        double distToZMin = Math.abs(hitPoint.getZ() - min.getZ());
-        double distToZMax = Math.abs(hitPoint.getZ() - max.getZ());
+        double distToXMin = Math.abs(hx - minX);
+        double distToXMax = Math.abs(hx - maxX);
+        double distToYMin = Math.abs(hy - minY);
+        double distToYMax = Math.abs(hy - maxY);
+        double distToZMin = Math.abs(hz - minZ);
+        double distToZMax = Math.abs(hz - maxZ);
 
         double minDist = Double.MAX_VALUE;
-        Vector3D normal = new Vector3D(0, 0, 0);
-
-        if (distToXMin < minDist) { minDist = distToXMin; normal = new Vector3D(-1, 0, 0); }
-        if (distToXMax < minDist) { minDist = distToXMax; normal = new Vector3D(1, 0, 0); }
-        if (distToYMin < minDist) { minDist = distToYMin; normal = new Vector3D(0, -1, 0); }
-        if (distToYMax < minDist) { minDist = distToYMax; normal = new Vector3D(0, 1, 0); }
-        if (distToZMin < minDist) { minDist = distToZMin; normal = new Vector3D(0, 0, -1); }
-        if (distToZMax < minDist) { normal = new Vector3D(0, 0, 1); }
-
-        return normal;
+        out.setNormal(0, 0, 0);
+
+        if (distToXMin < minDist) { minDist = distToXMin; out.setNormal(-1, 0, 0); }
+        if (distToXMax < minDist) { minDist = distToXMax; out.setNormal(1, 0, 0); }
+        if (distToYMin < minDist) { minDist = distToYMin; out.setNormal(0, -1, 0); }
+        if (distToYMax < minDist) { minDist = distToYMax; out.setNormal(0, 1, 0); }
+        if (distToZMin < minDist) { minDist = distToZMin; out.setNormal(0, 0, -1); }
+        if (distToZMax < minDist) { out.setNormal(0, 0, 1); }
     }
 }
\ No newline at end of file
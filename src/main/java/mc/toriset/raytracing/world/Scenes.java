@@ -0,0 +1,112 @@
+package mc.toriset.raytracing.world;
+
+import mc.toriset.raytracing.math.AABB;
+
+import java.awt.*;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Named scenes that replace the contents of {@link World}, for tools that render without the
+ * interactive window. "stairs" is the scene the window starts with.
+ */
+public class Scenes {
+    public static final String DEFAULT = "stairs";
+    private static final List<String> NAMES = Arrays.asList("stairs", "glass", "grid", "voxels");
+
+    // Boxes in the "grid" scene; grid(int) builds other sizes.
+    private static final int DEFAULT_GRID_OBJECTS = 400;
+
+    private static int voxelStone = -1, voxelGlass;
+
+    public static List<String> getNames() {
+        return NAMES;
+    }
+
+    /** Clears the world and loads the named scene. */
+    public static void load(String name) {
+        switch (name) {
+            case "stairs":
+                clear();
+                addStairs(World.objects);
+                break;
+            case "glass":
+                clear();
+                addStairs(World.objects);
+                World.objects.add(new WorldObject(0.1f, 0.9f, 0.05f, 1.5f,
+                        new Color(220, 240, 255), new AABB(-4, 0.5, 0, -2.5, 2, 1.5)));
+                World.objects.add(new WorldObject(0.1f, 0.8f, 0.7f, 1.33f,
+                        new Color(200, 200, 255), new AABB(-4, 0.5, 1.7, -2.5, 2, 3)));
+                break;
+            case "grid":
+                grid(DEFAULT_GRID_OBJECTS);
+                break;
+            case "voxels":
+                voxels();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown scene '" + name + "', expected one of " + NAMES);
+        }
+        World.invalidateAccelerationStructures();
+    }
+
+    static void addStairs(List<WorldObject> objects) {
+        objects.add(new WorldObject(0.1f, 0, 0.3f, 1, Color.GRAY, new AABB(-5, 0, -5, 5, 0.01, 5)));
+        objects.add(new WorldObject(0.2f, 0.5f, 0.1f, 1.5f, Color.BLUE, new AABB(0, 0.5, 0, 3, 1.5, 0.1)));
+        objects.add(new WorldObject(0.4f, 0.3f, 0.3f, 1.5f, Color.BLUE, new AABB(0, 1.5, 0, 2, 2.5, 0.1)));
+        objects.add(new WorldObject(0.7f, 0.1f, 0.7f, 1.5f, Color.BLUE, new AABB(0, 2.5, 0, 1, 3.5, 0.1)));
+        objects.add(new WorldObject(0.1f, 0, 0.05f, 1, Color.RED, new AABB(-5, 0, 3, 5, 3, 3.1)));
+    }
+
+    /**
+     * A floor with {@code count} small boxes in a square grid around the origin, mixing matte,
+     * mirror-like and glass materials. Used to see how a render scales with the object count.
+     */
+    public static void grid(int count) {
+        clear();
+        World.objects.add(new WorldObject(0.1f, 0, 0.3f, 1, Color.GRAY, new AABB(-20, 0, -20, 20, 0.01, 20)));
+
+        int side = (int) Math.ceil(Math.sqrt(count));
+        double spacing = 0.6;
+        double origin = -side * spacing / 2;
+        for (int i = 0; i < count; i++) {
+            double x = origin + (i % side) * spacing;
+            double z = origin + (i / side) * spacing;
+            double height = 0.2 + (i * 37 % 11) * 0.05;
+            AABB box = new AABB(x, 0.01, z, x + 0.4, 0.01 + height, z + 0.4);
+            switch (i % 3) {
+                case 0:
+                    World.objects.add(new WorldObject(0.1f, 0, 0.3f, 1, Color.ORANGE, box));
+                    break;
+                case 1:
+                    World.objects.add(new WorldObject(0.6f, 0, 0.2f, 1, Color.LIGHT_GRAY, box));
+                    break;
+                default:
+                    World.objects.add(new WorldObject(0.1f, 0.7f, 0.05f, 1.5f, Color.CYAN, box));
+                    break;
+            }
+        }
+        World.invalidateAccelerationStructures();
+    }
+
+    private static void voxels() {
+        clear();
+        if (voxelStone < 0) {
+            voxelStone = World.voxels.registerMaterial(0.05f, 0, 0.5f, 1, Color.GRAY);
+            voxelGlass = World.voxels.registerMaterial(0.1f, 0.8f, 0.05f, 1.5f, new Color(180, 220, 255));
+        }
+
+        World.voxels.fill(-16, 0, -16, 15, 0, 15, voxelStone);
+        for (int x = -12; x <= 12; x += 4) {
+            for (int z = -12; z <= 12; z += 4) {
+                int height = 1 + Math.floorMod(x * 7 + z * 3, 5);
+                World.voxels.fill(x, 1, z, x + 1, height, z + 1, (x + z) % 8 == 0 ? voxelGlass : voxelStone);
+            }
+        }
+    }
+
+    private static void clear() {
+        World.objects.clear();
+        World.voxels.clear();
+    }
+}
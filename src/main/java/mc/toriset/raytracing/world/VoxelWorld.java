@@ -0,0 +1,428 @@
+package mc.toriset.raytracing.world;
+
+import mc.toriset.raytracing.math.AABB;
+import mc.toriset.raytracing.math.Vector3D;
+import mc.toriset.raytracing.raycast.HitRecord;
+import mc.toriset.raytracing.raycast.RaycastResult;
+import mc.toriset.raytracing.util.CounterRandom;
+
+import java.awt.*;
+import java.util.Arrays;
+
+/**
+ * Unit-sized blocks stored as material ids in a sparse grid of 16x16x16 chunks. Empty chunks
+ * are null and cost one reference. Rays are traced with a two-level Amanatides-Woo DDA: the
+ * outer walk steps over chunks and the inner walk steps over voxels only inside populated ones.
+ *
+ * Material 0 is air; every other id maps to a palette {@link WorldObject} that supplies the
+ * surface properties of its blocks. Edits are not synchronized with rendering.
+ */
+public class VoxelWorld {
+    public static final int AIR = 0;
+    public static final int CHUNK_SIZE = 16;
+    private static final int CHUNK_SHIFT = 4;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+    private static final int MAX_MATERIALS = 256;
+
+    private final WorldObject[] materials = new WorldObject[MAX_MATERIALS];
+    private int materialCount = 1;
+
+    private byte[][] chunks = new byte[0][];
+    private int[] chunkBlockCounts = new int[0];
+    private int minChunkX, minChunkY, minChunkZ;
+    private int sizeX, sizeY, sizeZ;
+    private long blockCount;
+
+    public int registerMaterial(WorldObject material) {
+        if (materialCount >= MAX_MATERIALS) {
+            throw new IllegalStateException("Voxel material palette is full");
+        }
+        materials[materialCount] = material;
+        return materialCount++;
+    }
+
+    public int registerMaterial(float reflectivity, float transparency, float roughness,
+                                float refractiveIndex, Color baseColor) {
+        return registerMaterial(new WorldObject(reflectivity, transparency, roughness, refractiveIndex,
+                baseColor, new AABB(0, 0, 0, 1, 1, 1)));
+    }
+
+    public WorldObject getMaterial(int id) {
+        return materials[id];
+    }
+
+    public boolean isEmpty() {
+        return blockCount == 0;
+    }
+
+    public long getBlockCount() {
+        return blockCount;
+    }
+
+    public int getBlock(int x, int y, int z) {
+        int index = chunkIndex(x >> CHUNK_SHIFT, y >> CHUNK_SHIFT, z >> CHUNK_SHIFT);
+        if (index < 0 || chunks[index] == null) {
+            return AIR;
+        }
+        return chunks[index][localIndex(x, y, z)] & 0xFF;
+    }
+
+    public void setBlock(int x, int y, int z, int materialId) {
+        if (materialId < 0 || materialId >= materialCount) {
+            throw new IllegalArgumentException("Unknown voxel material: " + materialId);
+        }
+
+        int cx = x >> CHUNK_SHIFT, cy = y >> CHUNK_SHIFT, cz = z >> CHUNK_SHIFT;
+        int index = chunkIndex(cx, cy, cz);
+        if (index < 0) {
+            if (materialId == AIR) {
+                return;
+            }
+            growToInclude(cx, cy, cz);
+            index = chunkIndex(cx, cy, cz);
+        }
+
+        byte[] chunk = chunks[index];
+        if (chunk == null) {
+            if (materialId == AIR) {
+                return;
+            }
+            chunk = new byte[CHUNK_SIZE * CHUNK_SIZE * CHUNK_SIZE];
+            chunks[index] = chunk;
+        }
+
+        int local = localIndex(x, y, z);
+        int previous = chunk[local] & 0xFF;
+        if (previous == materialId) {
+            return;
+        }
+        chunk[local] = (byte) materialId;
+
+        if (previous == AIR) {
+            chunkBlockCounts[index]++;
+            blockCount++;
+        } else if (materialId == AIR) {
+            chunkBlockCounts[index]--;
+            blockCount--;
+            if (chunkBlockCounts[index] == 0) {
+                chunks[index] = null;
+            }
+        }
+    }
+
+    public void fill(int x0, int y0, int z0, int x1, int y1, int z1, int materialId) {
+        for (int y = Math.min(y0, y1); y <= Math.max(y0, y1); y++) {
+            for (int z = Math.min(z0, z1); z <= Math.max(z0, z1); z++) {
+                for (int x = Math.min(x0, x1); x <= Math.max(x0, x1); x++) {
+                    setBlock(x, y, z, materialId);
+                }
+            }
+        }
+    }
+
+    /**
+     * Changes whenever a block or the material of a placed block differs; see World.contentHash().
+     * Materials no block uses and the grid left over from before a clear() do not count, so the
+     * same scene hashes the same whatever else this process loaded before.
+     */
+    public long contentHash() {
+        if (isEmpty()) {
+            return 0;
+        }
+        long hash = CounterRandom.mix(((long) minChunkX << 42) ^ ((long) minChunkY << 21) ^ minChunkZ);
+        hash = CounterRandom.mix(hash ^ ((long) sizeX << 42) ^ ((long) sizeY << 21) ^ sizeZ);
+        boolean[] used = new boolean[materialCount];
+        for (byte[] chunk : chunks) {
+            hash = CounterRandom.mix(hash ^ Arrays.hashCode(chunk));
+            if (chunk != null) {
+                for (byte block : chunk) {
+                    used[block & 0xFF] = true;
+                }
+            }
+        }
+        for (int i = 1; i < materialCount; i++) {
+            if (used[i]) {
+                hash = World.hashObject(hash, materials[i]);
+            }
+        }
+        return hash;
+    }
+
+    public void clear() {
+        chunks = new byte[0][];
+        chunkBlockCounts = new int[0];
+        sizeX = sizeY = sizeZ = 0;
+        blockCount = 0;
+    }
+
+    private int chunkIndex(int cx, int cy, int cz) {
+        int lx = cx - minChunkX, ly = cy - minChunkY, lz = cz - minChunkZ;
+        if (lx < 0 || ly < 0 || lz < 0 || lx >= sizeX || ly >= sizeY || lz >= sizeZ) {
+            return -1;
+        }
+        return (ly * sizeZ + lz) * sizeX + lx;
+    }
+
+    private static int localIndex(int x, int y, int z) {
+        return ((y & CHUNK_MASK) << (2 * CHUNK_SHIFT)) | ((z & CHUNK_MASK) << CHUNK_SHIFT) | (x & CHUNK_MASK);
+    }
+
+    private void growToInclude(int cx, int cy, int cz) {
+        int newMinX, newMinY, newMinZ, newMaxX, newMaxY, newMaxZ;
+        if (sizeX == 0) {
+            newMinX = newMaxX = cx;
+            newMinY = newMaxY = cy;
+            newMinZ = newMaxZ = cz;
+        } else {
+            newMinX = Math.min(minChunkX, cx);
+            newMinY = Math.min(minChunkY, cy);
+            newMinZ = Math.min(minChunkZ, cz);
+            newMaxX = Math.max(minChunkX + sizeX - 1, cx);
+            newMaxY = Math.max(minChunkY + sizeY - 1, cy);
+            newMaxZ = Math.max(minChunkZ + sizeZ - 1, cz);
+        }
+
+        int newSizeX = newMaxX - newMinX + 1;
+        int newSizeY = newMaxY - newMinY + 1;
+        int newSizeZ = newMaxZ - newMinZ + 1;
+        byte[][] newChunks = new byte[newSizeX * newSizeY * newSizeZ][];
+        int[] newCounts = new int[newChunks.length];
+
+        for (int y = 0; y < sizeY; y++) {
+            for (int z = 0; z < sizeZ; z++) {
+                for (int x = 0; x < sizeX; x++) {
+                    int oldIndex = (y * sizeZ + z) * sizeX + x;
+                    int nx = x + minChunkX - newMinX;
+                    int ny = y + minChunkY - newMinY;
+                    int nz = z + minChunkZ - newMinZ;
+                    int newIndex = (ny * newSizeZ + nz) * newSizeX + nx;
+                    newChunks[newIndex] = chunks[oldIndex];
+                    newCounts[newIndex] = chunkBlockCounts[oldIndex];
+                }
+            }
+        }
+
+        chunks = newChunks;
+        chunkBlockCounts = newCounts;
+        minChunkX = newMinX;
+        minChunkY = newMinY;
+        minChunkZ = newMinZ;
+        sizeX = newSizeX;
+        sizeY = newSizeY;
+        sizeZ = newSizeZ;
+    }
+
+    /**
+     * Finds the first boundary along the ray where the material changes, ignoring crossings at or
+     * below {@code minDistance} and stopping at {@code maxDistance}. Entering a block reports that
+     * block with a normal facing the ray; leaving a block into air reports the block being left
+     * with a normal along the ray, which {@code RaycastPath} treats as an exit.
+     */
+    public RaycastResult raycast(Vector3D origin, Vector3D direction, double minDistance, double maxDistance) {
+        HitRecord hit = new HitRecord();
+        if (!raycast(origin.x, origin.y, origin.z, direction.x, direction.y, direction.z,
+                minDistance, maxDistance, hit)) {
+            return null;
+        }
+        return hit.toResult();
+    }
+
+    /**
+     * Allocation-free form of {@link #raycast(Vector3D, Vector3D, double, double)}: fills {@code out}
+     * and returns true on a hit.
+     */
+    public boolean raycast(double ox, double oy, double oz, double dx, double dy, double dz,
+                           double minDistance, double maxDistance, HitRecord out) {
+        if (blockCount == 0) {
+            return false;
+        }
+
+        double gridMinX = (double) minChunkX * CHUNK_SIZE;
+        double gridMinY = (double) minChunkY * CHUNK_SIZE;
+        double gridMinZ = (double) minChunkZ * CHUNK_SIZE;
+        double gridMaxX = gridMinX + (double) sizeX * CHUNK_SIZE;
+        double gridMaxY = gridMinY + (double) sizeY * CHUNK_SIZE;
+        double gridMaxZ = gridMinZ + (double) sizeZ * CHUNK_SIZE;
+
+        double tEnter = 0;
+        double tGridExit = Double.POSITIVE_INFINITY;
+        int entryAxis = -1, exitAxis = -1;
+
+        if (dx == 0) {
+            if (ox < gridMinX || ox >= gridMaxX) return false;
+        } else {
+            double t0 = (gridMinX - ox) / dx, t1 = (gridMaxX - ox) / dx;
+            if (Math.min(t0, t1) > tEnter) { tEnter = Math.min(t0, t1); entryAxis = 0; }
+            if (Math.max(t0, t1) < tGridExit) { tGridExit = Math.max(t0, t1); exitAxis = 0; }
+        }
+        if (dy == 0) {
+            if (oy < gridMinY || oy >= gridMaxY) return false;
+        } else {
+            double t0 = (gridMinY - oy) / dy, t1 = (gridMaxY - oy) / dy;
+            if (Math.min(t0, t1) > tEnter) { tEnter = Math.min(t0, t1); entryAxis = 1; }
+            if (Math.max(t0, t1) < tGridExit) { tGridExit = Math.max(t0, t1); exitAxis = 1; }
+        }
+        if (dz == 0) {
+            if (oz < gridMinZ || oz >= gridMaxZ) return false;
+        } else {
+            double t0 = (gridMinZ - oz) / dz, t1 = (gridMaxZ - oz) / dz;
+            if (Math.min(t0, t1) > tEnter) { tEnter = Math.min(t0, t1); entryAxis = 2; }
+            if (Math.max(t0, t1) < tGridExit) { tGridExit = Math.max(t0, t1); exitAxis = 2; }
+        }
+
+        double tExit = Math.min(maxDistance, tGridExit);
+        if (tEnter >= tExit) {
+            return false;
+        }
+
+        int medium = entryAxis == -1
+                ? getBlock((int) Math.floor(ox), (int) Math.floor(oy), (int) Math.floor(oz))
+                : AIR;
+
+        int stepX = dx > 0 ? 1 : -1, stepY = dy > 0 ? 1 : -1, stepZ = dz > 0 ? 1 : -1;
+        double invX = 1.0 / Math.abs(dx), invY = 1.0 / Math.abs(dy), invZ = 1.0 / Math.abs(dz);
+
+        // Outer walk over chunks. Chunk coordinates are derived from the entry point, then
+        // clamped so rounding at the grid boundary never starts outside the grid.
+        double px = ox + dx * tEnter, py = oy + dy * tEnter, pz = oz + dz * tEnter;
+        int cx = clamp((int) Math.floor(px) >> CHUNK_SHIFT, minChunkX, minChunkX + sizeX - 1);
+        int cy = clamp((int) Math.floor(py) >> CHUNK_SHIFT, minChunkY, minChunkY + sizeY - 1);
+        int cz = clamp((int) Math.floor(pz) >> CHUNK_SHIFT, minChunkZ, minChunkZ + sizeZ - 1);
+
+        double cMaxX = dx == 0 ? Double.POSITIVE_INFINITY
+                : ((double) ((stepX > 0 ? cx + 1 : cx) * CHUNK_SIZE) - ox) / dx;
+        double cMaxY = dy == 0 ? Double.POSITIVE_INFINITY
+                : ((double) ((stepY > 0 ? cy + 1 : cy) * CHUNK_SIZE) - oy) / dy;
+        double cMaxZ = dz == 0 ? Double.POSITIVE_INFINITY
+                : ((double) ((stepZ > 0 ? cz + 1 : cz) * CHUNK_SIZE) - oz) / dz;
+        double cDeltaX = CHUNK_SIZE * invX, cDeltaY = CHUNK_SIZE * invY, cDeltaZ = CHUNK_SIZE * invZ;
+
+        double tChunk = tEnter;
+        int lastAxis = entryAxis;
+
+        while (true) {
+            double tChunkExit = Math.min(Math.min(cMaxX, cMaxY), Math.min(cMaxZ, tExit));
+            byte[] chunk = chunks[chunkIndex(cx, cy, cz)];
+
+            if (chunk == null) {
+                if (medium != AIR) {
+                    if (tChunk > minDistance) {
+                        return makeHit(ox, oy, oz, dx, dy, dz, tChunk, lastAxis, stepX, stepY, stepZ, medium, AIR, out);
+                    }
+                    medium = AIR;
+                }
+            } else {
+
+                // Inner walk over the voxels of this chunk, using the same origin-relative
+                // boundary distances as the outer walk so the two never drift apart.
+                int baseX = cx << CHUNK_SHIFT, baseY = cy << CHUNK_SHIFT, baseZ = cz << CHUNK_SHIFT;
+                double vx0 = ox + dx * tChunk, vy0 = oy + dy * tChunk, vz0 = oz + dz * tChunk;
+                int vx = clamp((int) Math.floor(vx0), baseX, baseX + CHUNK_MASK);
+                int vy = clamp((int) Math.floor(vy0), baseY, baseY + CHUNK_MASK);
+                int vz = clamp((int) Math.floor(vz0), baseZ, baseZ + CHUNK_MASK);
+
+                double vMaxX = dx == 0 ? Double.POSITIVE_INFINITY : ((stepX > 0 ? vx + 1 : vx) - ox) / dx;
+                double vMaxY = dy == 0 ? Double.POSITIVE_INFINITY : ((stepY > 0 ? vy + 1 : vy) - oy) / dy;
+                double vMaxZ = dz == 0 ? Double.POSITIVE_INFINITY : ((stepZ > 0 ? vz + 1 : vz) - oz) / dz;
+
+                double t = tChunk;
+                int axis = lastAxis;
+
+                while (true) {
+                    int id = chunk[localIndex(vx, vy, vz)] & 0xFF;
+                    if (id != medium) {
+                        if (t > minDistance) {
+                            return makeHit(ox, oy, oz, dx, dy, dz, t, axis, stepX, stepY, stepZ, medium, id, out);
+                        }
+                        medium = id;
+                    }
+
+                    if (vMaxX < vMaxY && vMaxX < vMaxZ) {
+                        t = vMaxX;
+                        vx += stepX;
+                        vMaxX += invX;
+                        axis = 0;
+                    } else if (vMaxY < vMaxZ) {
+                        t = vMaxY;
+                        vy += stepY;
+                        vMaxY += invY;
+                        axis = 1;
+                    } else {
+                        t = vMaxZ;
+                        vz += stepZ;
+                        vMaxZ += invZ;
+                        axis = 2;
+                    }
+
+                    if (t >= tChunkExit
+                            || vx < baseX || vx > baseX + CHUNK_MASK
+                            || vy < baseY || vy > baseY + CHUNK_MASK
+                            || vz < baseZ || vz > baseZ + CHUNK_MASK) {
+                        break;
+                    }
+                }
+            }
+
+            if (tChunkExit >= tExit) {
+                break;
+            }
+
+            if (cMaxX < cMaxY && cMaxX < cMaxZ) {
+                tChunk = cMaxX;
+                cx += stepX;
+                cMaxX += cDeltaX;
+                lastAxis = 0;
+                if (cx < minChunkX || cx >= minChunkX + sizeX) break;
+            } else if (cMaxY < cMaxZ) {
+                tChunk = cMaxY;
+                cy += stepY;
+                cMaxY += cDeltaY;
+                lastAxis = 1;
+                if (cy < minChunkY || cy >= minChunkY + sizeY) break;
+            } else {
+                tChunk = cMaxZ;
+                cz += stepZ;
+                cMaxZ += cDeltaZ;
+                lastAxis = 2;
+                if (cz < minChunkZ || cz >= minChunkZ + sizeZ) break;
+            }
+        }
+
+        // Leaving the grid from inside a transparent voxel is still an exit into air, just like
+        // stepping into an empty chunk.
+        if (medium != AIR && tGridExit < maxDistance && tGridExit > minDistance) {
+            return makeHit(ox, oy, oz, dx, dy, dz, tGridExit, exitAxis, stepX, stepY, stepZ, medium, AIR, out);
+        }
+        return false;
+    }
+
+    private boolean makeHit(double ox, double oy, double oz, double dx, double dy, double dz, double t, int axis,
+                            int stepX, int stepY, int stepZ, int medium, int next, HitRecord out) {
+        boolean entering = next != AIR;
+
+        // A crossing with no recorded axis only happens when the ray starts on a boundary;
+        // fall back to the dominant direction component.
+        if (axis == -1) {
+            double ax = Math.abs(dx), ay = Math.abs(dy), az = Math.abs(dz);
+            axis = ax >= ay && ax >= az ? 0 : (ay >= az ? 1 : 2);
+        }
+
+        double sign = entering ? -1 : 1;
+        switch (axis) {
+            case 0: out.setNormal(sign * stepX, 0, 0); break;
+            case 1: out.setNormal(0, sign * stepY, 0); break;
+            default: out.setNormal(0, 0, sign * stepZ); break;
+        }
+
+        out.distance = t;
+        out.x = ox + dx * t;
+        out.y = oy + dy * t;
+        out.z = oz + dz * t;
+        out.object = materials[entering ? next : medium];
+        return true;
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+}
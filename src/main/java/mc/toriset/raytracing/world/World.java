@@ -1,27 +1,86 @@
 package mc.toriset.raytracing.world;
 
-import mc.toriset.raytracing.math.AABB;
 import mc.toriset.raytracing.math.Vector3D;
+import mc.toriset.raytracing.raycast.BVH;
+import mc.toriset.raytracing.raycast.PackedBoxes;
 import mc.toriset.raytracing.render.Camera;
+import mc.toriset.raytracing.util.CounterRandom;
 
-import java.awt.*;
 import java.util.ArrayList;
 
 public class World {
     public static ArrayList<WorldObject> objects = new ArrayList<>();
+    public static final VoxelWorld voxels = new VoxelWorld();
     public static final Camera camera = new Camera(120, 135,0, new Vector3D(3.5,1.85,3));
 
+    private static volatile BVH bvh;
+    private static volatile PackedBoxes packedBoxes;
+
 
     static {
-        objects.add(new WorldObject(0.1f, 0, 0.3f, 1, Color.GRAY, new AABB(-5, 0, -5, 5, 0.01, 5)));
-        objects.add(new WorldObject(0.2f, 0.5f, 0.1f, 1.5f, Color.BLUE, new AABB(0, 0.5, 0, 3, 1.5, 0.1)));
-        objects.add(new WorldObject(0.4f, 0.3f, 0.3f, 1.5f, Color.BLUE, new AABB(0, 1.5, 0, 2, 2.5, 0.1)));
-        objects.add(new WorldObject(0.7f, 0.1f, 0.7f, 1.5f, Color.BLUE, new AABB(0, 2.5, 0, 1, 3.5, 0.1)));
-        objects.add(new WorldObject(0.1f, 0, 0.05f, 1, Color.RED, new AABB(-5, 0, 3, 5, 3, 3.1)));
-//        objects.add(new WorldObject(0.1f, 0.9f, 0.05f, 1.5f,
-//                new Color(220, 240, 255), new AABB(-4, 0.5, 0, -2.5, 2, 1.5)));
-
-//        objects.add(new WorldObject(0.1f, 0.8f, 0.7f, 1.33f,
-//                new Color(200, 200, 255), new AABB(-4, 0.5, 1.7, -2.5, 2, 3)));
+        Scenes.addStairs(objects);
+    }
+
+    public static BVH getBVH() {
+        BVH current = bvh;
+        if (current != null && current.isBuiltFrom(objects)) {
+            return current;
+        }
+
+        synchronized (World.class) {
+            current = bvh;
+            if (current == null || !current.isBuiltFrom(objects)) {
+                current = BVH.build(objects);
+                bvh = current;
+            }
+            return current;
+        }
+    }
+
+    public static PackedBoxes getPackedBoxes() {
+        PackedBoxes current = packedBoxes;
+        if (current != null && current.isBuiltFrom(objects)) {
+            return current;
+        }
+
+        synchronized (World.class) {
+            current = packedBoxes;
+            if (current == null || !current.isBuiltFrom(objects)) {
+                current = PackedBoxes.build(objects);
+                packedBoxes = current;
+            }
+            return current;
+        }
+    }
+
+    /**
+     * Hash of everything in the scene that affects how it renders: every object's box and
+     * material, the voxels and their materials. Equal hashes mean, in practice, the same scene.
+     */
+    public static long contentHash() {
+        long hash = objects.size();
+        for (WorldObject object : objects) {
+            hash = hashObject(hash, object);
+        }
+        return CounterRandom.mix(hash ^ voxels.contentHash());
+    }
+
+    static long hashObject(long hash, WorldObject object) {
+        double[] values = {
+                object.boundingBox.getMinX(), object.boundingBox.getMinY(), object.boundingBox.getMinZ(),
+                object.boundingBox.getMaxX(), object.boundingBox.getMaxY(), object.boundingBox.getMaxZ(),
+                object.reflectivity, object.transparency, object.roughness, object.refractiveIndex,
+                object.baseColor.getRGB()
+        };
+        for (double value : values) {
+            hash = CounterRandom.mix(hash ^ Double.doubleToLongBits(value));
+        }
+        return hash;
+    }
+
+    // Must be called after editing objects in place (moving boxes, swapping entries).
+    public static void invalidateAccelerationStructures() {
+        bvh = null;
+        packedBoxes = null;
     }
 }
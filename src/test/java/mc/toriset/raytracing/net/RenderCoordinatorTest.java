@@ -0,0 +1,168 @@
+package mc.toriset.raytracing.net;
+
+import mc.toriset.raytracing.render.AccumulationBuffer;
+import mc.toriset.raytracing.render.CameraSnapshot;
+import mc.toriset.raytracing.render.ProgressiveRenderer;
+import mc.toriset.raytracing.render.TileScheduler;
+import mc.toriset.raytracing.world.Scenes;
+import mc.toriset.raytracing.world.World;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+/**
+ * A render spread over worker JVMs, one of which dies or stalls, must give exactly the radiance
+ * of the same render in this process: units are re-issued, every sample depends only on
+ * (frame seed, pixel, sample index) and each tile's units are merged in sample order.
+ */
+class RenderCoordinatorTest {
+    private static final String SCENE = "glass";
+    private static final int WIDTH = 192, HEIGHT = 96, SAMPLES = 64, SEED = 7;
+    private static final long TIMEOUT_SECONDS = 120;
+
+    @BeforeAll
+    static void loadScene() {
+        Scenes.load(SCENE);
+        // Looking down at the stairs, so the first tiles the stalled worker takes are not plain sky.
+        CameraSnapshot camera = World.camera.snapshot();
+        World.camera.setPose(camera.x, camera.y, camera.z, camera.yaw, camera.pitch - 40, camera.fov);
+    }
+
+    @AfterAll
+    static void shutdown() {
+        ProgressiveRenderer.shutdown();
+    }
+
+    @Test
+    void killedWorkerDoesNotChangeTheImage() throws Exception {
+        float[] expected = renderLocal();
+
+        List<Process> workers = new ArrayList<>();
+        ExecutorService caller = Executors.newSingleThreadExecutor();
+        try (RenderCoordinator coordinator = new RenderCoordinator(0)) {
+            workers.add(coordinator.startLocalWorker(1));
+            workers.add(coordinator.startLocalWorker(1));
+            CameraSnapshot camera = World.camera.snapshot();
+            Future<RenderCoordinator.Result> render = caller.submit(() ->
+                    coordinator.render(SCENE, camera, WIDTH, HEIGHT, SAMPLES, SEED));
+
+            // Kill a worker once both are connected and the first unit is merged, while both hold units.
+            int units = unitCount();
+            awaitCondition(() -> coordinator.getWorkerCount() == 2 && coordinator.getRemainingUnits() < units, render);
+            workers.get(0).destroyForcibly().waitFor();
+
+            RenderCoordinator.Result result = render.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            assertTrue(coordinator.getReissuedUnits() > 0, "No units were re-issued");
+            assertArrayEquals(expected, radiance(result.accumulation));
+        } finally {
+            caller.shutdownNow();
+            for (Process worker : workers) {
+                worker.destroyForcibly();
+            }
+        }
+    }
+
+    @Test
+    void unitsReissuedAfterLaterSampleRangesAreMergedInOrder() throws Exception {
+        float[] expected = renderLocal();
+
+        List<Process> workers = new ArrayList<>();
+        ExecutorService caller = Executors.newSingleThreadExecutor();
+        try (RenderCoordinator coordinator = new RenderCoordinator(0);
+             Socket stalled = new Socket("localhost", coordinator.getPort())) {
+            // A worker that takes the first sample range of the first tiles and never answers.
+            DataOutputStream out = new DataOutputStream(stalled.getOutputStream());
+            out.writeByte(Protocol.HELLO);
+            out.writeInt(Protocol.VERSION);
+            out.writeInt(1);
+            out.flush();
+            awaitCondition(() -> coordinator.getWorkerCount() == 1, null);
+
+            CameraSnapshot camera = World.camera.snapshot();
+            Future<RenderCoordinator.Result> render = caller.submit(() ->
+                    coordinator.render(SCENE, camera, WIDTH, HEIGHT, SAMPLES, SEED));
+            DataInputStream in = new DataInputStream(stalled.getInputStream());
+            assertEquals(Protocol.JOB, in.readByte());
+            Protocol.Job.read(in);
+            int held = RenderCoordinator.UNITS_PER_THREAD;
+            for (int i = 0; i < held; i++) {
+                assertEquals(Protocol.UNIT, in.readByte());
+                assertEquals(0, Protocol.Unit.read(in).firstSample);
+            }
+
+            // Once everything else is in, later ranges of the stalled tiles wait for their first.
+            workers.add(coordinator.startLocalWorker(1));
+            int ranges = (SAMPLES + RenderCoordinator.unitSamples - 1) / RenderCoordinator.unitSamples;
+            int stalledUnits = held * ranges;
+            awaitCondition(() -> coordinator.getRemainingUnits() == stalledUnits, render);
+            stalled.close();
+
+            RenderCoordinator.Result result = render.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            assertEquals(held, coordinator.getReissuedUnits());
+            assertArrayEquals(expected, radiance(result.accumulation));
+        } finally {
+            caller.shutdownNow();
+            for (Process worker : workers) {
+                worker.destroyForcibly();
+            }
+        }
+    }
+
+    private interface Condition {
+        boolean holds();
+    }
+
+    private static void awaitCondition(Condition condition, Future<?> render) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_SECONDS * 1000;
+        while (!condition.holds()) {
+            if (render != null && render.isDone() || System.currentTimeMillis() > deadline) {
+                fail("Render finished or timed out while waiting");
+            }
+            Thread.sleep(5);
+        }
+    }
+
+    private static float[] renderLocal() {
+        ProgressiveRenderer.init(WIDTH, HEIGHT);
+        ProgressiveRenderer.setFrameSeed(SEED);
+        for (int done = 0; done < SAMPLES; done += RenderCoordinator.unitSamples) {
+            ProgressiveRenderer.accumulate(WIDTH, HEIGHT, Math.min(RenderCoordinator.unitSamples, SAMPLES - done), SAMPLES);
+        }
+        float[] radiance = new float[WIDTH * HEIGHT * 3];
+        ProgressiveRenderer.copyRadiance(radiance);
+        return radiance;
+    }
+
+    private static float[] radiance(AccumulationBuffer accumulation) {
+        float[] radiance = new float[WIDTH * HEIGHT * 3];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                for (int channel = 0; channel < 3; channel++) {
+                    radiance[(y * WIDTH + x) * 3 + channel] = accumulation.getMean(x, y, channel);
+                }
+            }
+        }
+        return radiance;
+    }
+
+    private static int unitCount() {
+        int tile = TileScheduler.TILE_SIZE;
+        int tiles = ((WIDTH + tile - 1) / tile) * ((HEIGHT + tile - 1) / tile);
+        return tiles * ((SAMPLES + RenderCoordinator.unitSamples - 1) / RenderCoordinator.unitSamples);
+    }
+}
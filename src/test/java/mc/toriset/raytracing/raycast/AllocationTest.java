@@ -0,0 +1,61 @@
+package mc.toriset.raytracing.raycast;
+
+import mc.toriset.raytracing.world.Scenes;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.lang.management.ManagementFactory;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tracing a sample must not allocate once the thread's {@link TraceScratch} and the acceleration
+ * structures are built. Measured with the per-thread allocation counter of
+ * {@link com.sun.management.ThreadMXBean}.
+ */
+class AllocationTest {
+    private static final int WARMUP_SAMPLES = 50_000;
+    private static final int SAMPLES = 20_000;
+    // Reading the allocation counter may itself allocate a little; anything per sample is far above this.
+    private static final double MAX_BYTES_PER_SAMPLE = 0.1;
+
+    @BeforeAll
+    static void loadScene() {
+        Scenes.load("glass");
+    }
+
+    @ParameterizedTest
+    @EnumSource(RaycastPath.Traversal.class)
+    void traceSampleDoesNotAllocate(RaycastPath.Traversal traversal) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        RaycastPath.Traversal previous = RaycastPath.traversal;
+        RaycastPath.traversal = traversal;
+        try {
+            trace(WARMUP_SAMPLES);
+
+            long before = threads.getThreadAllocatedBytes(thread);
+            trace(SAMPLES);
+            long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+            double perSample = (double) allocated / SAMPLES;
+            assertTrue(perSample < MAX_BYTES_PER_SAMPLE,
+                    traversal + " allocated " + allocated + " bytes over " + SAMPLES + " samples");
+        } finally {
+            RaycastPath.traversal = previous;
+        }
+    }
+
+    // Samples spread over a 64x64 image looking across the scene, so hits, misses and glass all occur.
+    private static void trace(int samples) {
+        TraceScratch scratch = TraceScratch.get();
+        for (int i = 0; i < samples; i++) {
+            int x = i % 64, y = (i / 64) % 64;
+            scratch.beginSample(0, x, y, i / 4096);
+            double dx = -1 + (x + scratch.random(0)) / 32;
+            double dy = 0.5 - (y + scratch.random(1)) / 64;
+            RaycastPath.traceSample(3.5, 1.85, 3, dx - 0.6, dy - 0.2, -1);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package mc.toriset.raytracing.raycast;
+
+import mc.toriset.raytracing.util.RaycastUtil;
+import mc.toriset.raytracing.world.Scenes;
+import mc.toriset.raytracing.world.World;
+import mc.toriset.raytracing.world.WorldObject;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The packed, SIMD and BVH paths are only accelerations: for a fixed set of rays they must find
+ * exactly the hit the linear scan over {@link World#objects} finds, and the box kernels must never
+ * cull a box the exact test hits.
+ */
+class TraversalTest {
+    private static final int RAYS = 20_000;
+    // A count that leaves a partial vector at the end of the packed arrays.
+    private static final int GRID_OBJECTS = 203;
+
+    @ParameterizedTest
+    @ValueSource(strings = {"glass", "grid", "voxels"})
+    void traversalsFindTheSameClosestHit(String scene) {
+        load(scene);
+        RaycastPath.Traversal previous = RaycastPath.traversal;
+        try {
+            double[][] rays = rays();
+            HitRecord[] expected = trace(RaycastPath.Traversal.LINEAR, rays);
+            int hits = 0;
+            for (HitRecord hit : expected) {
+                if (hit != null) {
+                    hits++;
+                }
+            }
+            assertTrue(hits > RAYS / 10, "Only " + hits + " of the rays hit anything in " + scene);
+
+            for (RaycastPath.Traversal traversal : RaycastPath.Traversal.values()) {
+                HitRecord[] actual = trace(traversal, rays);
+                for (int i = 0; i < RAYS; i++) {
+                    String ray = traversal + " ray " + i + " in " + scene;
+                    if (expected[i] == null) {
+                        assertEquals(null, actual[i], ray);
+                        continue;
+                    }
+                    assertTrue(actual[i] != null, ray + " missed");
+                    assertSame(expected[i].object, actual[i].object, ray);
+                    assertEquals(expected[i].distance, actual[i].distance, ray);
+                }
+            }
+        } finally {
+            RaycastPath.traversal = previous;
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"glass", "grid"})
+    void boxKernelsNeverCullAHit(String scene) {
+        load(scene);
+        PackedBoxes boxes = World.getPackedBoxes();
+        BoxKernel[] kernels = {new ScalarBoxKernel(), new SimdBoxKernel()};
+        double[] entries = new double[boxes.size];
+        HitRecord hit = new HitRecord();
+        double bias = 0.001;
+
+        for (double[] ray : rays()) {
+            for (BoxKernel kernel : kernels) {
+                kernel.entryDistances(boxes, ray[0], ray[1], ray[2], ray[3], ray[4], ray[5], bias, entries);
+                for (int i = 0; i < boxes.size; i++) {
+                    WorldObject object = boxes.objects[i];
+                    if (RaycastUtil.rayIntersectsAABB(ray[0], ray[1], ray[2], ray[3], ray[4], ray[5], object, hit)
+                            && hit.distance > bias) {
+                        assertTrue(entries[i] - BoxKernel.EPSILON <= hit.distance,
+                                kernel.getName() + " culled box " + i + " hit at " + hit.distance);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void load(String scene) {
+        if (scene.equals("grid")) {
+            Scenes.grid(GRID_OBJECTS);
+        } else {
+            Scenes.load(scene);
+        }
+    }
+
+    // Origins above the floor around the scene and directions over the whole sphere, some axis-aligned.
+    private static double[][] rays() {
+        Random random = new Random(42);
+        double[][] rays = new double[RAYS][];
+        for (int i = 0; i < RAYS; i++) {
+            double dx = random.nextGaussian(), dy = random.nextGaussian(), dz = random.nextGaussian();
+            if (i % 10 == 0) {
+                dx = 0;
+            }
+            if (i % 15 == 0) {
+                dz = 0;
+            }
+            double length = Math.sqrt(dx * dx + dy * dy + dz * dz);
+            rays[i] = new double[] {
+                    random.nextDouble() * 16 - 8, 0.2 + random.nextDouble() * 4, random.nextDouble() * 16 - 8,
+                    dx / length, dy / length, dz / length
+            };
+        }
+        return rays;
+    }
+
+    private static HitRecord[] trace(RaycastPath.Traversal traversal, double[][] rays) {
+        RaycastPath.traversal = traversal;
+        HitRecord[] hits = new HitRecord[rays.length];
+        for (int i = 0; i < rays.length; i++) {
+            double[] ray = rays[i];
+            if (RaycastPath.tracePrimary(ray[0], ray[1], ray[2], ray[3], ray[4], ray[5])) {
+                hits[i] = new HitRecord();
+                hits[i].set(TraceScratch.get().getPrimaryHit());
+            }
+        }
+        return hits;
+    }
+}
@@ -0,0 +1,68 @@
+package mc.toriset.raytracing.render;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/** The spline passes through every keyframe and its velocity does not jump at them, however they are spaced. */
+class CameraPathTest {
+    private static final double H = 1e-6;
+
+    @Test
+    void velocityIsContinuousAtUnevenlySpacedKeys() {
+        CameraPath path = new CameraPath(List.of(
+                key(0, 0, 0), key(1, 4, 10), key(5, 6, 30), key(6, -2, 45), key(10, 3, 50)));
+
+        for (double time : new double[] {1, 5, 6}) {
+            assertEquals(velocity(path, time - 2 * H, time - H), velocity(path, time + H, time + 2 * H), 1e-4,
+                    "x velocity at " + time);
+            assertEquals(yawVelocity(path, time - 2 * H, time - H), yawVelocity(path, time + H, time + 2 * H), 1e-4,
+                    "yaw velocity at " + time);
+        }
+    }
+
+    @Test
+    void passesThroughEveryKey() {
+        List<CameraPath.Keyframe> keys = List.of(key(0, 1, 0), key(0.5, -3, 20), key(3, 7, 10), key(3.25, 2, 90));
+        CameraPath path = new CameraPath(keys);
+        for (CameraPath.Keyframe key : keys) {
+            CameraSnapshot pose = path.poseAt(key.time);
+            assertEquals(key.x, pose.x, 1e-12);
+            assertEquals(key.yaw, pose.yaw, 1e-12);
+        }
+        assertEquals(1, path.poseAt(-1).x);
+        assertEquals(2, path.poseAt(4).x);
+    }
+
+    @Test
+    void evenlySpacedKeysGiveTheUniformSpline() {
+        double[] xs = {2, -1, 5, 4, 8};
+        CameraPath path = new CameraPath(List.of(
+                key(10, xs[0], 0), key(12, xs[1], 0), key(14, xs[2], 0), key(16, xs[3], 0), key(18, xs[4], 0)));
+
+        for (int segment = 0; segment < 4; segment++) {
+            double p0 = xs[Math.max(0, segment - 1)], p1 = xs[segment];
+            double p2 = xs[segment + 1], p3 = xs[Math.min(4, segment + 2)];
+            for (double t = 0; t < 1; t += 0.125) {
+                double t2 = t * t, t3 = t2 * t;
+                double uniform = 0.5 * (2 * p1 + (p2 - p0) * t + (2 * p0 - 5 * p1 + 4 * p2 - p3) * t2
+                        + (3 * p1 - p0 - 3 * p2 + p3) * t3);
+                assertEquals(uniform, path.poseAt(10 + 2 * (segment + t)).x, 1e-12);
+            }
+        }
+    }
+
+    private static CameraPath.Keyframe key(double time, double x, double yaw) {
+        return new CameraPath.Keyframe(time, x, 1, 0, yaw, 0, 70);
+    }
+
+    private static double velocity(CameraPath path, double from, double to) {
+        return (path.poseAt(to).x - path.poseAt(from).x) / (to - from);
+    }
+
+    private static double yawVelocity(CameraPath path, double from, double to) {
+        return (path.poseAt(to).yaw - path.poseAt(from).yaw) / (to - from);
+    }
+}
@@ -0,0 +1,112 @@
+package mc.toriset.raytracing.render;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Save, close, reopen and restore must give back exactly the accumulated image, also when the
+ * file last held a checkpoint of another size or scene.
+ */
+class CheckpointTest {
+    private static final long SCENE = 0x1234_5678_9ABCL;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void restoresWhatWasSaved() throws IOException {
+        Path file = directory.resolve("render.ckpt");
+        AccumulationBuffer saved = filled(100, 70, 1);
+        save(file, saved, SCENE);
+
+        assertRestores(file, saved, SCENE);
+    }
+
+    @Test
+    void restoresTheLatestOfSeveralCheckpoints() throws IOException {
+        Path file = directory.resolve("render.ckpt");
+        AccumulationBuffer first = filled(64, 64, 1);
+        AccumulationBuffer second = filled(64, 64, 2);
+        try (Checkpoint checkpoint = new Checkpoint(file, 64, 64, SCENE)) {
+            checkpoint.save(first, SCENE);
+            checkpoint.awaitFlush();
+            checkpoint.markAllDirty();
+            checkpoint.save(second, SCENE);
+        }
+
+        assertRestores(file, second, SCENE);
+    }
+
+    @Test
+    void reusesAFileThatHeldALargerImage() throws IOException {
+        Path file = directory.resolve("render.ckpt");
+        save(file, filled(300, 200, 1), SCENE);
+        long largerSize = Files.size(file);
+
+        AccumulationBuffer smaller = filled(96, 40, 3);
+        try (Checkpoint checkpoint = new Checkpoint(file, 96, 40, SCENE)) {
+            assertFalse(checkpoint.isResumable());
+            checkpoint.save(smaller, SCENE);
+        }
+
+        assertTrue(Files.size(file) < largerSize);
+        assertRestores(file, smaller, SCENE);
+    }
+
+    @Test
+    void doesNotRestoreAnotherScene() throws IOException {
+        Path file = directory.resolve("render.ckpt");
+        save(file, filled(64, 32, 1), SCENE);
+
+        try (Checkpoint checkpoint = new Checkpoint(file, 64, 32, SCENE + 1)) {
+            assertFalse(checkpoint.isResumable());
+            assertFalse(checkpoint.restore(new AccumulationBuffer(64, 32)));
+        }
+    }
+
+    private static void save(Path file, AccumulationBuffer source, long scene) throws IOException {
+        try (Checkpoint checkpoint = new Checkpoint(file, source.getWidth(), source.getHeight(), scene)) {
+            checkpoint.save(source, scene);
+        }
+    }
+
+    private static void assertRestores(Path file, AccumulationBuffer expected, long scene) throws IOException {
+        int width = expected.getWidth(), height = expected.getHeight();
+        try (Checkpoint checkpoint = new Checkpoint(file, width, height, scene)) {
+            assertTrue(checkpoint.isResumable());
+            AccumulationBuffer restored = new AccumulationBuffer(width, height);
+            assertTrue(checkpoint.restore(restored));
+            assertEquals(0, checkpoint.getDroppedTiles());
+
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+                    assertEquals(expected.getSampleCount(x, y), restored.getSampleCount(x, y));
+                    assertEquals(expected.getLuminanceVariance(x, y), restored.getLuminanceVariance(x, y));
+                    for (int channel = 0; channel < 3; channel++) {
+                        assertEquals(expected.getMean(x, y, channel), restored.getMean(x, y, channel));
+                    }
+                }
+            }
+        }
+    }
+
+    // Distinct values in every pixel, so a tile restored to the wrong place would show.
+    private static AccumulationBuffer filled(int width, int height, int seed) {
+        AccumulationBuffer buffer = new AccumulationBuffer(width, height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                float base = seed * 1000 + y * width + x;
+                buffer.add(x, y, base, base * 0.5f, base * 0.25f, 1 + (x + y) % 7, base * 0.1f, base * 0.01f);
+            }
+        }
+        return buffer;
+    }
+}
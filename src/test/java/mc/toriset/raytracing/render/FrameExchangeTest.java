@@ -0,0 +1,72 @@
+package mc.toriset.raytracing.render;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * One producer and one consumer hammering the triple buffer: the consumer must never see frames
+ * go backwards, never see a frame the producer is still writing, and must end on the last one.
+ */
+class FrameExchangeTest {
+    private static final int PUBLISHES = 2_000_000;
+
+    @Test
+    void consumerSeesCompleteFramesInOrder() throws InterruptedException {
+        FrameExchange exchange = new FrameExchange(4, 4);
+        AtomicReference<Throwable> producerFailure = new AtomicReference<>();
+        Thread producer = new Thread(() -> {
+            try {
+                for (int sequence = 1; sequence <= PUBLISHES; sequence++) {
+                    int[] pixels = exchange.getBackFrame().pixels;
+                    for (int i = 0; i < pixels.length; i++) {
+                        pixels[i] = sequence;
+                    }
+                    exchange.publish();
+                }
+            } catch (Throwable e) {
+                producerFailure.set(e);
+            }
+        }, "Frame Producer");
+        producer.start();
+
+        int last = 0;
+        long acquired = 0;
+        while (last < PUBLISHES && producerFailure.get() == null) {
+            FrameExchange.Frame frame = exchange.acquireLatest();
+            if (frame == null) {
+                Thread.yield();
+                continue;
+            }
+            int sequence = frame.pixels[0];
+            assertTrue(sequence > last, "Frame " + sequence + " after " + last);
+            for (int pixel : frame.pixels) {
+                assertEquals(sequence, pixel, "Frame " + sequence + " changed while it was presented");
+            }
+            last = sequence;
+            acquired++;
+        }
+        producer.join();
+
+        assertNull(producerFailure.get());
+        assertEquals(PUBLISHES, last);
+        assertTrue(acquired > 0);
+        assertNull(exchange.acquireLatest());
+    }
+
+    @Test
+    void acquireReturnsNothingUntilSomethingIsPublished() {
+        FrameExchange exchange = new FrameExchange(2, 2);
+        assertNull(exchange.acquireLatest());
+
+        FrameExchange.Frame drawn = exchange.getBackFrame();
+        exchange.publish();
+        assertSame(drawn, exchange.acquireLatest());
+        assertNull(exchange.acquireLatest());
+    }
+}
@@ -0,0 +1,92 @@
+package mc.toriset.raytracing.render;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** Every pixel of a pass is rendered exactly once, whatever the tile order and splitting. */
+class TileSchedulerTest {
+    private final TileScheduler scheduler = new TileScheduler(2);
+
+    @AfterEach
+    void shutdown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    void passesCoverEveryPixelOnce() {
+        int width = 150, height = 97;
+        for (TileScheduler.Order order : TileScheduler.Order.values()) {
+            TileScheduler.Order previous = TileScheduler.order;
+            TileScheduler.order = order;
+            try {
+                // Later passes split the tiles that were expensive in the ones before.
+                for (int pass = 0; pass < 3; pass++) {
+                    AtomicIntegerArray visits = new AtomicIntegerArray(width * height);
+                    int sum = scheduler.runPass(width, height, (startX, startY, endX, endY) -> {
+                        for (int y = startY; y < endY; y++) {
+                            for (int x = startX; x < endX; x++) {
+                                visits.incrementAndGet(y * width + x);
+                                if (x < width / 3) {
+                                    busyWait();
+                                }
+                            }
+                        }
+                        return (endX - startX) * (endY - startY);
+                    });
+
+                    assertEquals(width * height, sum);
+                    for (int i = 0; i < visits.length(); i++) {
+                        assertEquals(1, visits.get(i), order + " pass " + pass + " pixel " + i);
+                    }
+                    assertEquals(1.0, scheduler.getProgress());
+                    assertTrue(scheduler.getLastUtilization() > 0 && scheduler.getLastUtilization() <= 1.01);
+                }
+            } finally {
+                TileScheduler.order = previous;
+            }
+        }
+    }
+
+    @Test
+    void runTilesCoversEveryPixelOnce() {
+        int width = 70, height = 33;
+        AtomicIntegerArray visits = new AtomicIntegerArray(width * height);
+        int sum = scheduler.runTiles(width, height, (startX, startY, endX, endY) -> {
+            for (int y = startY; y < endY; y++) {
+                for (int x = startX; x < endX; x++) {
+                    visits.incrementAndGet(y * width + x);
+                }
+            }
+            return 1;
+        });
+
+        assertEquals(3 * 2, sum);
+        for (int i = 0; i < visits.length(); i++) {
+            assertEquals(1, visits.get(i));
+        }
+    }
+
+    @Test
+    void emptyScreensRenderNothing() {
+        TileScheduler.TileWork work = (startX, startY, endX, endY) -> {
+            throw new AssertionError("Rendered an empty screen");
+        };
+        assertEquals(0, scheduler.runPass(0, 0, work));
+        assertEquals(0, scheduler.runPass(0, 40, work));
+        assertEquals(0, scheduler.runPass(40, 0, work));
+        assertEquals(0, scheduler.runTiles(0, 0, work));
+        assertEquals(0, scheduler.runTiles(40, 0, work));
+    }
+
+    private static void busyWait() {
+        long end = System.nanoTime() + 200;
+        while (System.nanoTime() < end) {
+            Thread.onSpinWait();
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package mc.toriset.raytracing.world;
+
+import mc.toriset.raytracing.math.AABB;
+import mc.toriset.raytracing.raycast.HitRecord;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.awt.Color;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The two-level DDA of {@link VoxelWorld#raycast}: chunk boundaries and empty chunks, rays that
+ * start inside a transparent block, and rays that leave the grid while inside one.
+ */
+class VoxelWorldTest {
+    private static final double EPSILON = 1e-9;
+
+    private VoxelWorld world;
+    private int stone, glass;
+    private final HitRecord hit = new HitRecord();
+
+    @BeforeEach
+    void createWorld() {
+        world = new VoxelWorld();
+        stone = world.registerMaterial(new WorldObject(0, 0, 0.5f, 1, Color.GRAY, new AABB(0, 0, 0, 1, 1, 1)));
+        glass = world.registerMaterial(new WorldObject(0.1f, 0.8f, 0, 1.5f, Color.WHITE, new AABB(0, 0, 0, 1, 1, 1)));
+    }
+
+    @Test
+    void axisRayCrossesEmptyChunksToTheFirstBlock() {
+        // Chunks -1 and 1 hold blocks; chunk 0 in between stays empty.
+        world.setBlock(-10, 1, 1, stone);
+        world.setBlock(20, 1, 1, stone);
+
+        assertTrue(raycast(-5, 1.5, 1.5, 1, 0, 0));
+        assertHit(25, 20, 1.5, 1.5, -1, 0, 0, stone);
+
+        assertTrue(raycast(40, 1.5, 1.5, -1, 0, 0));
+        assertHit(19, 21, 1.5, 1.5, 1, 0, 0, stone);
+    }
+
+    @Test
+    void diagonalRayHitsTheFaceItReachesFirst() {
+        world.setBlock(0, 0, 0, stone);
+        world.setBlock(17, 17, 17, stone);
+
+        // Crosses from chunk 0 into chunk 1 on all three axes and enters the block through its -x face.
+        double dx = 1, dy = 0.1, dz = 0.1;
+        double length = Math.sqrt(dx * dx + dy * dy + dz * dz);
+        assertTrue(raycast(2, 15.7, 15.7, dx / length, dy / length, dz / length));
+        assertHit(15 * length, 17, 17.2, 17.2, -1, 0, 0, stone);
+    }
+
+    @Test
+    void rayStartingInsideGlassReportsItsExit() {
+        world.setBlock(20, 1, 1, glass);
+        world.setBlock(40, 1, 1, stone);
+
+        assertTrue(raycast(20.25, 1.5, 1.5, 1, 0, 0));
+        assertHit(0.75, 21, 1.5, 1.5, 1, 0, 0, glass);
+    }
+
+    @Test
+    void glassNextToStoneReportsEnteringTheStone() {
+        world.setBlock(20, 1, 1, glass);
+        world.setBlock(21, 1, 1, stone);
+
+        assertTrue(raycast(20.5, 1.5, 1.5, 1, 0, 0));
+        assertHit(0.5, 21, 1.5, 1.5, -1, 0, 0, stone);
+    }
+
+    @Test
+    void rayLeavingTheGridInsideGlassReportsTheExit() {
+        // x = 31 is the last column of chunk 1, so the block's +x face is the grid boundary.
+        world.setBlock(0, 0, 0, stone);
+        world.setBlock(31, 1, 1, glass);
+
+        assertTrue(raycast(31.5, 1.5, 1.5, 1, 0, 0));
+        assertHit(0.5, 32, 1.5, 1.5, 1, 0, 0, glass);
+
+        // Diagonally out through the top of the grid.
+        world.setBlock(5, 15, 5, glass);
+        double length = Math.sqrt(2);
+        assertTrue(raycast(5.25, 15.5, 5.5, 1 / length, 1 / length, 0));
+        assertHit(0.5 * length, 5.75, 16, 5.5, 0, 1, 0, glass);
+    }
+
+    @Test
+    void respectsMinAndMaxDistance() {
+        world.setBlock(5, 0, 0, stone);
+        world.setBlock(8, 0, 0, stone);
+
+        assertFalse(world.raycast(0, 0.5, 0.5, 1, 0, 0, 0, 4.9, hit));
+        assertTrue(world.raycast(0, 0.5, 0.5, 1, 0, 0, 0, 5.1, hit));
+        assertEquals(5, hit.distance, EPSILON);
+        // Past the first block's entry, its exit into air is the next boundary.
+        assertTrue(world.raycast(0, 0.5, 0.5, 1, 0, 0, 5.5, 100, hit));
+        assertEquals(6, hit.distance, EPSILON);
+    }
+
+    @Test
+    void agreesWithAFineMarchOverRandomRays() {
+        Random random = new Random(7);
+        for (int i = 0; i < 400; i++) {
+            int x = random.nextInt(48) - 16, y = random.nextInt(20), z = random.nextInt(48) - 16;
+            world.setBlock(x, y, z, random.nextInt(4) == 0 ? glass : stone);
+        }
+
+        double step = 1e-3;
+        for (int i = 0; i < 2000; i++) {
+            double ox = random.nextDouble() * 60 - 30, oy = random.nextDouble() * 24 - 2, oz = random.nextDouble() * 60 - 30;
+            double dx = random.nextGaussian(), dy = random.nextGaussian(), dz = random.nextGaussian();
+            double length = Math.sqrt(dx * dx + dy * dy + dz * dz);
+            dx /= length;
+            dy /= length;
+            dz /= length;
+
+            double limit = 80;
+            boolean found = world.raycast(ox, oy, oz, dx, dy, dz, 0, limit, hit);
+
+            // First point along the ray whose block differs from the one the ray starts in.
+            int start = blockAt(ox, oy, oz);
+            double expected = Double.NaN;
+            for (double t = step; t < limit; t += step) {
+                if (blockAt(ox + dx * t, oy + dy * t, oz + dz * t) != start) {
+                    expected = t;
+                    break;
+                }
+            }
+
+            String ray = "ray " + i;
+            if (Double.isNaN(expected)) {
+                // Only a ray still inside a block when it leaves the grid reports something here.
+                if (found) {
+                    assertTrue(start != VoxelWorld.AIR, ray);
+                }
+                continue;
+            }
+            assertTrue(found, ray + " missed, expected a boundary near " + expected);
+            assertEquals(expected, hit.distance, 2 * step, ray);
+        }
+    }
+
+    private int blockAt(double x, double y, double z) {
+        return world.getBlock((int) Math.floor(x), (int) Math.floor(y), (int) Math.floor(z));
+    }
+
+    private boolean raycast(double ox, double oy, double oz, double dx, double dy, double dz) {
+        return world.raycast(ox, oy, oz, dx, dy, dz, 0, Double.POSITIVE_INFINITY, hit);
+    }
+
+    private void assertHit(double distance, double x, double y, double z,
+                           double normalX, double normalY, double normalZ, int material) {
+        assertEquals(distance, hit.distance, EPSILON, "distance");
+        assertEquals(x, hit.x, EPSILON, "x");
+        assertEquals(y, hit.y, EPSILON, "y");
+        assertEquals(z, hit.z, EPSILON, "z");
+        assertEquals(normalX, hit.normalX, "normal x");
+        assertEquals(normalY, hit.normalY, "normal y");
+        assertEquals(normalZ, hit.normalZ, "normal z");
+        assertSame(world.getMaterial(material), hit.object, "material");
+    }
+
+    @Test
+    void sceneHashDoesNotDependOnWhatWasLoadedBefore() {
+        Scenes.load("glass");
+        long glassHash = World.contentHash();
+        Scenes.load("voxels");
+        long voxelsHash = World.contentHash();
+
+        Scenes.load("glass");
+        assertEquals(glassHash, World.contentHash());
+        Scenes.load("voxels");
+        assertEquals(voxelsHash, World.contentHash());
+    }
+
+    @Test
+    void emptyWorldHitsNothing() {
+        assertFalse(raycast(0, 0, 0, 1, 0, 0));
+    }
+}